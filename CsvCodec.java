@@ -0,0 +1,308 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+
+/**
+ * Allocation-free CSV codec working on UTF-8 bytes. Same quoting rules as
+ * {@link ResultsCsv#splitCsvLine} / {@link ResultsCsv#escapeCsv}: a quote toggles quoted mode,
+ * a doubled quote inside quotes is a literal quote, and fields containing a comma, quote or
+ * newline are written quoted with quotes doubled.
+ */
+final class CsvCodec {
+
+    private static final long WINDOW = 1L << 30;
+
+    private CsvCodec() {}
+
+    interface RecordVisitor { void visit(Reader rd, long offset) throws IOException; }
+
+    /**
+     * Streams every record after the header line of a CSV file through one reusable reader, mapping
+     * the file in 1 GB windows. {@code offset} is the record's absolute byte offset in the file.
+     */
+    static void forEachRecord(Path file, RecordVisitor v) throws IOException {
+        Reader rd = new Reader(8);
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = ch.size(), base = 0;
+            boolean header = true;
+            while (base < size) {
+                MappedByteBuffer mb = ch.map(FileChannel.MapMode.READ_ONLY, base, Math.min(WINDOW, size - base));
+                int lastComplete = 0;
+                while (true) {
+                    int recordStart = mb.position();
+                    if (!rd.next(mb)) break;
+                    if (mb.get(mb.position() - 1) != '\n' && base + mb.position() < size) break; // cut by the window
+                    lastComplete = mb.position();
+                    if (header) { header = false; continue; }
+                    v.visit(rd, base + recordStart);
+                }
+                if (lastComplete == 0) throw new IOException("Record larger than mapping window at offset " + base);
+                base += lastComplete;
+            }
+        }
+    }
+
+    /**
+     * Record reader. Fields come back as absolute offset/length slices of the scanned buffer; a
+     * String is only built when {@link #string} is called.
+     */
+    static final class Reader {
+        private ByteBuffer buf;
+        private int[] start;
+        private int[] end;
+        private boolean[] quoted;
+        private int count;
+        private byte[] tmp = new byte[64];
+
+        Reader(int expectedFields) {
+            start = new int[expectedFields];
+            end = new int[expectedFields];
+            quoted = new boolean[expectedFields];
+        }
+
+        /**
+         * Parses the record starting at {@code buf.position()} and advances the position past its
+         * line terminator. Returns false when no bytes remain.
+         */
+        boolean next(ByteBuffer buf) {
+            this.buf = buf;
+            int p = buf.position(), limit = buf.limit();
+            if (p >= limit) return false;
+            count = 0;
+            int fieldStart = p;
+            boolean inQuotes = false, hasQuote = false;
+            for (; p < limit; p++) {
+                byte b = buf.get(p);
+                if (b == '"') {
+                    inQuotes = !inQuotes;
+                    hasQuote = true;
+                } else if (!inQuotes) {
+                    if (b == ',') {
+                        add(fieldStart, p, hasQuote);
+                        fieldStart = p + 1;
+                        hasQuote = false;
+                    } else if (b == '\n') {
+                        break;
+                    }
+                }
+            }
+            int fieldEnd = p;
+            if (fieldEnd > fieldStart && buf.get(fieldEnd - 1) == '\r' && !inQuotes) fieldEnd--;
+            add(fieldStart, fieldEnd, hasQuote);
+            buf.position(Math.min(limit, p + 1));
+            return true;
+        }
+
+        private void add(int s, int e, boolean q) {
+            if (count == start.length) {
+                int n = count * 2;
+                start = Arrays.copyOf(start, n);
+                end = Arrays.copyOf(end, n);
+                quoted = Arrays.copyOf(quoted, n);
+            }
+            start[count] = s;
+            end[count] = e;
+            quoted[count] = q;
+            count++;
+        }
+
+        int fieldCount() { return count; }
+        int offset(int i) { return start[i]; }
+        int length(int i) { return end[i] - start[i]; }
+        /** True when the raw slice contains quotes and must be unescaped before use. */
+        boolean isQuoted(int i) { return quoted[i]; }
+
+        /** Materializes field {@code i}, removing quoting exactly like splitCsvLine. */
+        String string(int i) {
+            int s = start[i], len = end[i] - s;
+            if (len > tmp.length) tmp = new byte[Math.max(len, tmp.length * 2)];
+            buf.get(s, tmp, 0, len);
+            if (!quoted[i]) return new String(tmp, 0, len, StandardCharsets.UTF_8);
+            // Drop toggling quotes, keep doubled ones once
+            int w = 0;
+            boolean inQuotes = false;
+            for (int r = 0; r < len; r++) {
+                byte b = tmp[r];
+                if (b == '"') {
+                    if (inQuotes && r + 1 < len && tmp[r + 1] == '"') {
+                        tmp[w++] = '"';
+                        r++;
+                    } else {
+                        inQuotes = !inQuotes;
+                    }
+                } else {
+                    tmp[w++] = b;
+                }
+            }
+            return new String(tmp, 0, w, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Parses an unquoted decimal integer field without allocating; -1 when empty, not a number
+         * or outside the int range.
+         */
+        int parseInt(int i) {
+            int s = start[i], e = end[i];
+            if (s == e || quoted[i]) return -1;
+            boolean neg = buf.get(s) == '-';
+            if (neg && s + 1 == e) return -1;
+            long v = 0, max = neg ? -(long) Integer.MIN_VALUE : Integer.MAX_VALUE;
+            for (int p = neg ? s + 1 : s; p < e; p++) {
+                int d = buf.get(p) - '0';
+                if (d < 0 || d > 9) return -1;
+                v = v * 10 + d;
+                if (v > max) return -1;
+            }
+            return (int) (neg ? -v : v);
+        }
+
+        /** Byte at absolute offset {@code p} of the scanned buffer. */
+        byte byteAt(int p) { return buf.get(p); }
+
+        /** Writes the record's raw bytes, without its line terminator, to {@code out}. */
+        void writeRaw(OutputStream out) throws IOException {
+            int s = start[0], len = end[count - 1] - s;
+            if (len > tmp.length) tmp = new byte[Math.max(len, tmp.length * 2)];
+            buf.get(s, tmp, 0, len);
+            out.write(tmp, 0, len);
+        }
+    }
+
+    /**
+     * Record writer that escapes straight into a reusable byte buffer.
+     */
+    static final class Writer {
+        private byte[] buf;
+        private int len;
+        private boolean firstField = true;
+
+        Writer(int initialCapacity) {
+            buf = new byte[initialCapacity];
+        }
+
+        byte[] array() { return buf; }
+        int length() { return len; }
+
+        void reset() {
+            len = 0;
+            firstField = true;
+        }
+
+        /** Starts a new field (writing the separator); follow with {@link #ascii}/{@link #digits}. */
+        Writer beginField() {
+            if (!firstField) put((byte) ',');
+            firstField = false;
+            return this;
+        }
+
+        /** Writes a field, quoting it when it contains a comma, quote or newline. */
+        Writer field(CharSequence s) {
+            beginField();
+            if (s == null) return this;
+            int n = s.length();
+            boolean quote = false;
+            for (int i = 0; i < n && !quote; i++) {
+                char c = s.charAt(i);
+                quote = c == ',' || c == '"' || c == '\n';
+            }
+            if (quote) put((byte) '"');
+            for (int i = 0; i < n; i++) {
+                char c = s.charAt(i);
+                if (c == '"') {
+                    put((byte) '"');
+                    put((byte) '"');
+                } else if (c < 0x80) {
+                    put((byte) c);
+                } else if (c < 0x800) {
+                    put((byte) (0xC0 | (c >> 6)));
+                    put((byte) (0x80 | (c & 0x3F)));
+                } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, s.charAt(++i));
+                    put((byte) (0xF0 | (cp >> 18)));
+                    put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+                    put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+                    put((byte) (0x80 | (cp & 0x3F)));
+                } else if (Character.isSurrogate(c)) {
+                    put((byte) '?'); // unpaired surrogate, as String.getBytes does
+                } else {
+                    put((byte) (0xE0 | (c >> 12)));
+                    put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                    put((byte) (0x80 | (c & 0x3F)));
+                }
+            }
+            if (quote) put((byte) '"');
+            return this;
+        }
+
+        Writer field(long v) {
+            return beginField().digits(v);
+        }
+
+        /** Writes {@code yyyy-MM-dd HH:mm:ss} (never needs quoting). */
+        Writer timestamp(LocalDateTime t) {
+            beginField();
+            pad(t.getYear(), 4).ascii('-').pad(t.getMonthValue(), 2).ascii('-').pad(t.getDayOfMonth(), 2)
+                    .ascii(' ').pad(t.getHour(), 2).ascii(':').pad(t.getMinute(), 2).ascii(':').pad(t.getSecond(), 2);
+            return this;
+        }
+
+        /** Appends a raw ASCII character to the current field; the caller guarantees it needs no quoting. */
+        Writer ascii(char c) {
+            put((byte) c);
+            return this;
+        }
+
+        /** Appends a decimal number to the current field. */
+        Writer digits(long v) {
+            if (v < 0) {
+                put((byte) '-');
+                if (v == Long.MIN_VALUE) {
+                    for (byte b : "9223372036854775808".getBytes(StandardCharsets.US_ASCII)) put(b);
+                    return this;
+                }
+                v = -v;
+            }
+            int n = 1;
+            for (long x = v; x >= 10; x /= 10) n++;
+            ensure(n);
+            for (int i = len + n - 1; i >= len; i--) {
+                buf[i] = (byte) ('0' + v % 10);
+                v /= 10;
+            }
+            len += n;
+            return this;
+        }
+
+        /** Terminates the record. */
+        Writer endRecord() {
+            put((byte) '\n');
+            firstField = true;
+            return this;
+        }
+
+        private Writer pad(int v, int width) {
+            ensure(width);
+            for (int i = len + width - 1; i >= len; i--) {
+                buf[i] = (byte) ('0' + v % 10);
+                v /= 10;
+            }
+            len += width;
+            return this;
+        }
+
+        private void put(byte b) {
+            if (len == buf.length) buf = Arrays.copyOf(buf, buf.length * 2);
+            buf[len++] = b;
+        }
+
+        private void ensure(int n) {
+            if (len + n > buf.length) buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + n));
+        }
+    }
+}
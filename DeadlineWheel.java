@@ -0,0 +1,182 @@
+import java.io.Closeable;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hashed timing wheel shared by all sessions. One thread advances the wheel every tick; timeouts
+ * that expire in the same tick are handed to the dispatcher as a single batch.
+ *
+ * Scheduling and cancelling are lock-free from any thread: new and cancelled timeouts are queued
+ * and applied by the wheel thread at the start of the next tick.
+ */
+final class DeadlineWheel implements Closeable {
+
+    private static final int PENDING = 0, CANCELLED = 1, EXPIRED = 2;
+
+    /** Handle for one scheduled deadline. */
+    static final class Timeout {
+        final long deadline;           // System.nanoTime() based
+        final Runnable task;
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+        private long rounds;
+        private Timeout prev, next;
+        private Bucket bucket;
+        private final DeadlineWheel wheel;
+
+        private Timeout(DeadlineWheel wheel, long deadline, Runnable task) {
+            this.wheel = wheel;
+            this.deadline = deadline;
+            this.task = task;
+        }
+
+        /** Cancels the deadline. Returns false if it already fired or was cancelled. */
+        boolean cancel() {
+            if (!state.compareAndSet(PENDING, CANCELLED)) return false;
+            wheel.cancelled.add(this);
+            return true;
+        }
+
+        /** Nanoseconds until the deadline (negative once passed). */
+        long remainingNanos() { return deadline - System.nanoTime(); }
+
+        boolean isExpired() { return state.get() == EXPIRED; }
+    }
+
+    private static final class Bucket {
+        Timeout head, tail;
+
+        void add(Timeout t) {
+            t.bucket = this;
+            if (head == null) {
+                head = tail = t;
+            } else {
+                tail.next = t;
+                t.prev = tail;
+                tail = t;
+            }
+        }
+
+        Timeout remove(Timeout t) {
+            Timeout next = t.next;
+            if (t.prev != null) t.prev.next = next;
+            if (t.next != null) t.next.prev = t.prev;
+            if (t == head) head = next;
+            if (t == tail) tail = t.prev;
+            t.prev = t.next = null;
+            t.bucket = null;
+            return next;
+        }
+    }
+
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final Executor dispatcher;
+    private final Queue<Timeout> added = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+    private final Thread thread;
+    private final long startTime;
+    private volatile boolean stopped;
+    private long tick;
+
+    /**
+     * @param tickMillis  resolution; deadlines fire at most one tick late
+     * @param wheelSize   buckets (rounded up to a power of two); longer deadlines wait extra rounds
+     * @param dispatcher  runs each tick's expired batch
+     */
+    DeadlineWheel(long tickMillis, int wheelSize, Executor dispatcher) {
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        int n = Integer.highestOneBit(Math.max(2, wheelSize - 1)) << 1;
+        this.wheel = new Bucket[n];
+        for (int i = 0; i < n; i++) wheel[i] = new Bucket();
+        this.mask = n - 1;
+        this.dispatcher = dispatcher;
+        this.startTime = System.nanoTime();
+        this.thread = new Thread(this::run, "deadline-wheel");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Runs {@code task} once {@code delayNanos} have elapsed, unless cancelled first. */
+    Timeout schedule(long delayNanos, Runnable task) {
+        Timeout t = new Timeout(this, System.nanoTime() + Math.max(0, delayNanos), task);
+        if (stopped) throw new IllegalStateException("Deadline wheel stopped");
+        added.add(t);
+        return t;
+    }
+
+    int pendingApprox() { return added.size(); }
+
+    @Override
+    public void close() {
+        stopped = true;
+        thread.interrupt();
+    }
+
+    // ---------------- Wheel thread ----------------
+    private void run() {
+        List<Timeout> batch = new ArrayList<>();
+        while (!stopped) {
+            long deadline = startTime + (tick + 1) * tickNanos;
+            long sleep = deadline - System.nanoTime();
+            if (sleep > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleep);
+                } catch (InterruptedException e) {
+                    if (stopped) return;
+                }
+                continue; // re-check: sleep may end early
+            }
+            removeCancelled();
+            transferAdded();
+            expire(wheel[(int) (tick & mask)], deadline, batch);
+            tick++;
+            if (!batch.isEmpty()) {
+                List<Timeout> fire = batch;
+                batch = new ArrayList<>();
+                dispatcher.execute(() -> {
+                    for (Timeout t : fire) {
+                        try {
+                            t.task.run();
+                        } catch (RuntimeException e) {
+                            Metrics.error("deadline_task", e);
+                        }
+                    }
+                });
+            }
+        }
+    }
+
+    private void transferAdded() {
+        // Bounded per tick so a flood of schedules cannot starve expiry
+        for (int i = 0; i < 200_000; i++) {
+            Timeout t = added.poll();
+            if (t == null) return;
+            if (t.state.get() != PENDING) continue;
+            long ticks = Math.max((t.deadline - startTime) / tickNanos, tick); // tick k runs at the end of its slot
+            t.rounds = (ticks - tick) / wheel.length;
+            wheel[(int) (ticks & mask)].add(t);
+        }
+    }
+
+    private void removeCancelled() {
+        for (Timeout t; (t = cancelled.poll()) != null; ) {
+            if (t.bucket != null) t.bucket.remove(t);
+        }
+    }
+
+    private void expire(Bucket b, long now, List<Timeout> batch) {
+        Timeout t = b.head;
+        while (t != null) {
+            if (t.rounds <= 0 && t.deadline <= now) {
+                Timeout next = b.remove(t);
+                if (t.state.compareAndSet(PENDING, EXPIRED)) batch.add(t);
+                t = next;
+            } else {
+                if (t.rounds > 0) t.rounds--;
+                t = t.next;
+            }
+        }
+    }
+}
@@ -0,0 +1,85 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram with log-linear buckets in the style of HdrHistogram: exact below
+ * 64 ns, then 32 sub-buckets per power of two (at most ~3% relative error) up to ~19 hours.
+ * Recording is one array increment plus two adders; readers take an unsynchronized snapshot, so
+ * a percentile may miss a record that is concurrently in flight.
+ */
+final class LatencyHistogram implements Metrics.LatencyMXBean {
+
+    private static final int SUB_BITS = 5;
+    private static final int SUB = 1 << SUB_BITS;            // sub-buckets per power of two
+    private static final int MAX_EXP = 46;                   // values are clamped below 2^46 ns
+    private static final int BUCKETS = (MAX_EXP - SUB_BITS) * SUB + SUB;
+
+    final String name;
+    final String help;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    LatencyHistogram(String name, String help) {
+        this.name = name;
+        this.help = help;
+    }
+
+    /** Records the time elapsed since {@code startNanos} (a {@link System#nanoTime()} reading). */
+    void recordSince(long startNanos) {
+        if (Metrics.ENABLED) record(System.nanoTime() - startNanos);
+    }
+
+    void record(long nanos) {
+        long v = Math.max(0, Math.min(nanos, (1L << MAX_EXP) - 1));
+        counts.incrementAndGet(index(v));
+        count.increment();
+        sum.add(v);
+        for (long m = max.get(); v > m && !max.compareAndSet(m, v); m = max.get()) { }
+    }
+
+    static int index(long v) {
+        if (v < 2 * SUB) return (int) v;
+        int exp = 63 - Long.numberOfLeadingZeros(v);      // >= SUB_BITS + 1
+        int shift = exp - SUB_BITS;
+        return shift * SUB + (int) (v >>> shift);
+    }
+
+    /** Largest value that maps to bucket {@code i}. */
+    static long highestEquivalent(int i) {
+        if (i < 2 * SUB) return i;
+        int shift = i / SUB - 1;
+        long m = i % SUB + SUB;
+        return ((m + 1) << shift) - 1;
+    }
+
+    /** Value at quantile {@code q} (0..1) in nanoseconds, or 0 when empty. */
+    long valueAt(double q) {
+        long[] c = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) total += (c[i] = counts.get(i));
+        if (total == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(q * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += c[i];
+            if (seen >= rank) return Math.min(highestEquivalent(i), max.get());
+        }
+        return max.get();
+    }
+
+    long count() { return count.sum(); }
+    long sumNanos() { return sum.sum(); }
+    long maxNanos() { return max.get(); }
+
+    // ---------------- JMX ----------------
+    @Override public long getCount() { return count(); }
+    @Override public double getMeanMillis() { long n = count(); return n == 0 ? 0 : sumNanos() / 1e6 / n; }
+    @Override public double getP50Millis() { return valueAt(0.50) / 1e6; }
+    @Override public double getP90Millis() { return valueAt(0.90) / 1e6; }
+    @Override public double getP99Millis() { return valueAt(0.99) / 1e6; }
+    @Override public double getP999Millis() { return valueAt(0.999) / 1e6; }
+    @Override public double getMaxMillis() { return maxNanos() / 1e6; }
+}
@@ -0,0 +1,375 @@
+import java.io.IOException;
+import java.nio.file.*;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Live leaderboard: each email's best attempt, ordered by score (highest first) and then by the
+ * earliest time that score was reached. It is fed by the result writer as results are appended
+ * and rebuilt in parallel from the results file (every shard of it) and its sealed segments at startup.
+ *
+ * Entries live in an order-statistic treap (subtree sizes on every node), so inserting a new best,
+ * top-K and "rank of this email" all take O(log n). Queries share a read lock and run concurrently
+ * with each other; updates come from the writer thread and the rebuild and take the write lock.
+ * Keeping the best attempt is idempotent, so records seen both live and by the rebuild are harmless.
+ */
+final class Leaderboard implements ResultWriter.Listener {
+
+    /** One email's best attempt. {@code stamp} is {@code yyyyMMddHHmmss}. */
+    static final class Entry {
+        final String email;
+        final String name;
+        final int score;
+        final long stamp;
+        final long order;       // score (0..100) descending then stamp ascending, packed for cheap comparisons
+
+        Entry(String email, String name, int score, long stamp) {
+            this.email = email;
+            this.name = name;
+            this.score = score;
+            this.stamp = stamp;
+            this.order = (long) (100 - score) << 48 | stamp; // yyyyMMddHHmmss < 2^48
+        }
+
+        boolean beats(Entry o) {
+            return compare(this, o) < 0;
+        }
+    }
+
+    // Leaderboard order: higher score, then earlier stamp, then email for a total order
+    static int compare(Entry a, Entry b) {
+        if (a.order != b.order) return Long.compare(a.order, b.order);
+        return a.email.compareTo(b.email);
+    }
+
+    private static final class Node {
+        final Entry e;
+        int priority;
+        Node left, right;
+        int size = 1;
+
+        Node(Entry e, int priority) {
+            this.e = e;
+            this.priority = priority;
+        }
+    }
+
+    private static Leaderboard shared;
+
+    private final List<Path> files;
+    private final SegmentedResultLog log;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Random priorities = new Random();
+
+    // Guarded by lock
+    private Map<String, Entry> best = new HashMap<>();
+    private Node root;
+    private int generation;
+    private volatile boolean ready;
+
+    /** Board over the shard {@code files} of the results store and the segments of {@code log}. */
+    Leaderboard(List<Path> files, SegmentedResultLog log) {
+        this.files = files;
+        this.log = log;
+    }
+
+    /** Shared board for {@link ResultsCsv#RESULTS_CSV}, rebuilding from disk on first use. */
+    static synchronized Leaderboard shared() {
+        if (shared == null) {
+            shared = new Leaderboard(ResultsCsv.files(), ResultsCsv.log());
+            shared.rebuild();
+        }
+        return shared;
+    }
+
+    boolean isReady() { return ready; }
+
+    // ---------------- Writer feed ----------------
+    @Override
+    public void written(QuizResult r, LocalDateTime at, long start, long end) {
+        offer(new Entry(key(r.user.email), r.user.name, r.scorePercent, SegmentedResultLog.stamp(at)));
+    }
+
+    /** A file was cleared or rewritten: start over from what is on disk now. */
+    @Override
+    public void reset() {
+        rebuild();
+    }
+
+    @Override
+    public void rolled() {
+        // Sealed records are already on the board
+    }
+
+    /** Records an attempt; it replaces the email's entry only if it ranks higher. */
+    void offer(Entry e) {
+        lock.writeLock().lock();
+        try {
+            upsert(e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Caller holds the write lock
+    private void upsert(Entry e) {
+        Entry old = best.get(e.email);
+        if (old != null) {
+            if (!e.beats(old)) return;
+            root = remove(root, old);
+        }
+        best.put(e.email, e);
+        root = insert(root, new Node(e, priorities.nextInt()));
+    }
+
+    private static String key(String email) {
+        return email.trim().toLowerCase(Locale.ROOT);
+    }
+
+    // ---------------- Queries ----------------
+    /** The first {@code k} entries in leaderboard order. */
+    List<Entry> top(int k) {
+        lock.readLock().lock();
+        try {
+            List<Entry> out = new ArrayList<>(Math.min(k, size(root)));
+            collect(root, k, out);
+            return out;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** 1-based rank of {@code email}'s best attempt, or 0 when it has none. */
+    int rank(String email) {
+        lock.readLock().lock();
+        try {
+            Entry e = best.get(key(email));
+            if (e == null) return 0;
+            int before = 0;
+            for (Node n = root; n != null; ) {
+                int c = compare(e, n.e);
+                if (c == 0) return before + size(n.left) + 1;
+                if (c < 0) {
+                    n = n.left;
+                } else {
+                    before += size(n.left) + 1;
+                    n = n.right;
+                }
+            }
+            return 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** {@code email}'s best attempt, or null. */
+    Entry best(String email) {
+        lock.readLock().lock();
+        try {
+            return best.get(key(email));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** Number of ranked emails. */
+    int size() {
+        lock.readLock().lock();
+        try {
+            return size(root);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // ---------------- Treap ----------------
+    private static int size(Node n) {
+        return n == null ? 0 : n.size;
+    }
+
+    private static Node update(Node n) {
+        n.size = 1 + size(n.left) + size(n.right);
+        return n;
+    }
+
+    private static Node insert(Node n, Node x) {
+        if (n == null) return x;
+        if (compare(x.e, n.e) < 0) {
+            n.left = insert(n.left, x);
+            if (n.left.priority > n.priority) return rotateRight(n);
+        } else {
+            n.right = insert(n.right, x);
+            if (n.right.priority > n.priority) return rotateLeft(n);
+        }
+        return update(n);
+    }
+
+    private static Node remove(Node n, Entry e) {
+        if (n == null) return null;
+        int c = compare(e, n.e);
+        if (c < 0) {
+            n.left = remove(n.left, e);
+        } else if (c > 0) {
+            n.right = remove(n.right, e);
+        } else {
+            return merge(n.left, n.right);
+        }
+        return update(n);
+    }
+
+    // Joins two treaps where every key in a precedes every key in b
+    private static Node merge(Node a, Node b) {
+        if (a == null) return b;
+        if (b == null) return a;
+        if (a.priority > b.priority) {
+            a.right = merge(a.right, b);
+            return update(a);
+        }
+        b.left = merge(a, b.left);
+        return update(b);
+    }
+
+    private static Node rotateRight(Node n) {
+        Node l = n.left;
+        n.left = l.right;
+        l.right = update(n);
+        return update(l);
+    }
+
+    private static Node rotateLeft(Node n) {
+        Node r = n.right;
+        n.right = r.left;
+        r.left = update(n);
+        return update(r);
+    }
+
+    /**
+     * Balanced treap over entries already in leaderboard order: the shape comes from halving the
+     * array and random priorities are handed out largest first in breadth-first order, so every
+     * parent outranks its children.
+     */
+    private static Node build(Entry[] sorted, Random rnd) {
+        Node root = build(sorted, 0, sorted.length);
+        int[] pr = new int[sorted.length];
+        for (int i = 0; i < pr.length; i++) pr[i] = rnd.nextInt();
+        Arrays.sort(pr);
+        ArrayDeque<Node> queue = new ArrayDeque<>();
+        if (root != null) queue.add(root);
+        for (int i = pr.length - 1; !queue.isEmpty(); i--) {
+            Node n = queue.poll();
+            n.priority = pr[i];
+            if (n.left != null) queue.add(n.left);
+            if (n.right != null) queue.add(n.right);
+        }
+        return root;
+    }
+
+    private static Node build(Entry[] sorted, int from, int to) {
+        if (from >= to) return null;
+        int mid = (from + to) >>> 1;
+        Node n = new Node(sorted[mid], 0);
+        n.left = build(sorted, from, mid);
+        n.right = build(sorted, mid + 1, to);
+        return update(n);
+    }
+
+    private static void collect(Node n, int k, List<Entry> out) {
+        if (n == null || out.size() >= k) return;
+        collect(n.left, k, out);
+        if (out.size() < k) out.add(n.e);
+        collect(n.right, k, out);
+    }
+
+    // ---------------- Rebuild ----------------
+    /**
+     * Clears the board and refills it in the background from the results files and the sealed
+     * segments. The live files are read before the segment list, so a roll in between leaves its
+     * records in a segment that is still read.
+     */
+    private void rebuild() {
+        int gen;
+        lock.writeLock().lock();
+        try {
+            gen = ++generation;
+            best.clear();
+            root = null;
+            ready = false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        Thread t = new Thread(() -> {
+            Map<String, Entry> found = new HashMap<>();
+            try {
+                for (Path f : files) {
+                    if (Files.exists(f)) found = mergeBest(found, scan(f));
+                }
+                for (SegmentedResultLog.Segment s : log.segments()) {
+                    Map<String, Entry> part;
+                    try {
+                        part = s.archived() ? scanArchived(log.file(s)) : scan(log.file(s));
+                    } catch (NoSuchFileException e) {
+                        continue; // archived or dropped by retention meanwhile
+                    }
+                    found = mergeBest(found, part);
+                }
+            } catch (IOException e) {
+                Metrics.error("leaderboard_rebuild", e);
+            }
+            // Bulk-built off the lock; attempts recorded live since the reset are merged in after
+            Entry[] sorted = found.values().toArray(new Entry[0]);
+            Arrays.sort(sorted, Leaderboard::compare);
+            Node built = build(sorted, priorities);
+            lock.writeLock().lock();
+            try {
+                if (gen != generation) return;
+                Collection<Entry> live = best.values();
+                best = found;
+                root = built;
+                for (Entry e : live) upsert(e);
+                ready = true;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }, "leaderboard-rebuild");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private static Map<String, Entry> scan(Path file) throws IOException {
+        return ParallelCsv.reduce(file, 0, Files.size(file), HashMap::new,
+                (acc, rd, off) -> accept(acc, rd), Leaderboard::mergeBest);
+    }
+
+    private static Map<String, Entry> scanArchived(Path file) throws IOException {
+        Map<String, Entry> acc = new HashMap<>();
+        SegmentedResultLog.forEachGzipRecord(file, (rd, off) -> accept(acc, rd));
+        return acc;
+    }
+
+    private static void accept(Map<String, Entry> acc, CsvCodec.Reader rd) {
+        if (rd.fieldCount() < 4) return;
+        long stamp = SegmentedResultLog.stamp(rd, 0);
+        int score = rd.parseInt(3);
+        // A percentage outside 0..100 is a damaged or hand-edited row, and would wrap the packed order
+        if (stamp < 0 || score < 0 || score > 100) return;
+        String email = key(rd.string(2));
+        Entry old = acc.get(email);
+        if (old != null && (old.score > score || (old.score == score && old.stamp <= stamp))) return;
+        acc.put(email, new Entry(email, rd.string(1), score, stamp));
+    }
+
+    private static Map<String, Entry> mergeBest(Map<String, Entry> a, Map<String, Entry> b) {
+        if (a.size() < b.size()) {
+            Map<String, Entry> t = a;
+            a = b;
+            b = t;
+        }
+        for (Entry e : b.values()) {
+            Entry old = a.get(e.email);
+            if (old == null || e.beats(old)) a.put(e.email, e);
+        }
+        return a;
+    }
+}
@@ -0,0 +1,150 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.*;
+
+/**
+ * Process-wide latency histograms and counters for the quiz hot paths. Published as MBeans under
+ * {@code quiz:type=Latency|Counter,name=...} and as Prometheus text via {@link #scrape()}, which the
+ * HTTP server serves at {@code /metrics}; the desktop client serves it on loopback when
+ * {@code -Dquiz.metrics.port} is set. {@code -Dquiz.metrics=false} turns recording off.
+ */
+final class Metrics {
+
+    static final boolean ENABLED = !"false".equalsIgnoreCase(System.getProperty("quiz.metrics"));
+
+    public interface LatencyMXBean {
+        long getCount();
+        double getMeanMillis();
+        double getP50Millis();
+        double getP90Millis();
+        double getP99Millis();
+        double getP999Millis();
+        double getMaxMillis();
+    }
+
+    public interface CounterMXBean {
+        long getValue();
+    }
+
+    private static final class Counter implements CounterMXBean {
+        final String name, help;
+        final LongAdder value = new LongAdder();
+        Counter(String name, String help) { this.name = name; this.help = help; }
+        @Override public long getValue() { return value.sum(); }
+    }
+
+    private static final List<LatencyHistogram> histograms = new ArrayList<>();
+    private static final List<Counter> counters = new ArrayList<>();
+    private static final Map<String, Counter> errors = new ConcurrentHashMap<>();
+
+    static final LatencyHistogram QUESTION_RENDER = histogram("question_render", "Building and showing one question");
+    static final LatencyHistogram ANSWER_RECORD = histogram("answer_record", "Recording a selected choice");
+    static final LatencyHistogram RESULT_QUEUE_WAIT = histogram("result_queue_wait", "Result queued until picked up by the writer");
+    static final LatencyHistogram RESULT_WRITE = histogram("result_write", "Writing one drained batch to the results file");
+    static final LatencyHistogram RESULT_FSYNC = histogram("result_fsync", "Forcing the results file to disk");
+    static final LatencyHistogram RESULTS_LOAD = histogram("results_load", "Indexing the results file for the admin view");
+    static final LatencyHistogram SEARCH_QUERY = histogram("search_query", "Answering one admin filter from the search indexes");
+    static final LatencyHistogram HTTP_REQUEST = histogram("http_request", "Handling one HTTP request");
+    static final LatencyHistogram STARTUP_LOGIN = histogram("startup_login", "JVM start until the login screen is shown");
+    static final LatencyHistogram BANK_OPEN = histogram("bank_open", "Opening the question bank, compiling its snapshot if needed");
+
+    static final LongAdder SESSIONS_STARTED = counter("sessions_started", "Quiz sessions started");
+    static final LongAdder QUESTION_TIMEOUTS = counter("question_timeouts", "Questions that ran out of time");
+    static final LongAdder RESULTS_APPENDED = counter("results_appended", "Results written to the results file");
+    static final LongAdder RESULTS_FAILED = counter("results_failed", "Results whose append failed");
+
+    private Metrics() {}
+
+    private static LatencyHistogram histogram(String name, String help) {
+        LatencyHistogram h = new LatencyHistogram(name, help);
+        histograms.add(h);
+        register("Latency", name, h);
+        return h;
+    }
+
+    private static LongAdder counter(String name, String help) {
+        Counter c = new Counter(name, help);
+        counters.add(c);
+        register("Counter", name, c);
+        return c.value;
+    }
+
+    /** Counts a failure against {@code source} and prints it, as the call sites did before. */
+    static void error(String source, Throwable e) {
+        errors.computeIfAbsent(source, s -> {
+            Counter c = new Counter(s, null);
+            register("Error", s, c);
+            return c;
+        }).value.increment();
+        e.printStackTrace();
+    }
+
+    private static void register(String type, String name, Object bean) {
+        if (!ENABLED) return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(bean, new ObjectName("quiz:type=" + type + ",name=" + name));
+        } catch (InstanceAlreadyExistsException e) {
+            // another class loader in the same JVM got there first
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // ---------------- Text exposition ----------------
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    /** All metrics in the Prometheus text format (seconds for latencies). */
+    static String scrape() {
+        StringBuilder sb = new StringBuilder(4096);
+        for (LatencyHistogram h : histograms) {
+            String n = "quiz_" + h.name + "_seconds";
+            sb.append("# HELP ").append(n).append(' ').append(h.help).append('\n');
+            sb.append("# TYPE ").append(n).append(" summary\n");
+            for (double q : QUANTILES) {
+                sb.append(n).append("{quantile=\"").append(q).append("\"} ").append(h.valueAt(q) / 1e9).append('\n');
+            }
+            sb.append(n).append("_sum ").append(h.sumNanos() / 1e9).append('\n');
+            sb.append(n).append("_count ").append(h.count()).append('\n');
+            sb.append("# TYPE ").append(n).append("_max gauge\n");
+            sb.append(n).append("_max ").append(h.maxNanos() / 1e9).append('\n');
+        }
+        for (Counter c : counters) {
+            String n = "quiz_" + c.name + "_total";
+            sb.append("# HELP ").append(n).append(' ').append(c.help).append('\n');
+            sb.append("# TYPE ").append(n).append(" counter\n");
+            sb.append(n).append(' ').append(c.getValue()).append('\n');
+        }
+        sb.append("# HELP quiz_errors_total Failures by source\n# TYPE quiz_errors_total counter\n");
+        for (Counter c : new TreeMap<>(errors).values()) {
+            sb.append("quiz_errors_total{source=\"").append(c.name).append("\"} ").append(c.getValue()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /** HTTP handler for {@code GET /metrics}. */
+    static void handle(HttpExchange ex) throws IOException {
+        byte[] b = scrape().getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+        ex.sendResponseHeaders(200, b.length);
+        try (OutputStream os = ex.getResponseBody()) {
+            os.write(b);
+        }
+    }
+
+    /** Serves {@code /metrics} on the loopback interface (for the desktop client). */
+    static HttpServer serve(int port) throws IOException {
+        HttpServer s = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        s.createContext("/metrics", Metrics::handle);
+        s.start();
+        return s;
+    }
+}
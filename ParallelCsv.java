@@ -0,0 +1,145 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+/**
+ * Parallel chunked scans over a CSV file. The byte range is cut into chunks aligned to record starts;
+ * each chunk is mapped and parsed with its own {@link CsvCodec.Reader} on the common fork-join
+ * pool, and per-chunk accumulators are merged in file order.
+ */
+final class ParallelCsv {
+
+    static final long CHUNK = 32L << 20;
+
+    private ParallelCsv() {}
+
+    interface ChunkVisitor<A> { void visit(A acc, CsvCodec.Reader rd, long offset); }
+
+    /**
+     * Reduces records in {@code [from, to)}. When {@code from} is 0 the header line is skipped;
+     * otherwise {@code from} must be a record start. Chunks are cut only at record boundaries (see
+     * {@link #chunks}), so quoted fields containing newlines are never split.
+     */
+    static <A> A reduce(Path file, long from, long to, Supplier<A> newAcc, ChunkVisitor<A> visitor,
+                        BinaryOperator<A> merge) throws IOException {
+        List<long[]> chunks = chunks(file, from, to);
+        if (chunks.isEmpty()) return newAcc.get();
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            List<ForkJoinTask<A>> tasks = new ArrayList<>(chunks.size());
+            for (long[] c : chunks) {
+                tasks.add(ForkJoinPool.commonPool().submit(() -> scan(ch, c[0], c[1], newAcc.get(), visitor)));
+            }
+            A out = null;
+            for (ForkJoinTask<A> t : tasks) {
+                A part = t.join();
+                out = out == null ? part : merge.apply(out, part);
+            }
+            return out;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /** Record-aligned {@code [start, end)} ranges covering {@code [from, to)}. */
+    static List<long[]> chunks(Path file, long from, long to) throws IOException {
+        return chunks(file, from, to, CHUNK);
+    }
+
+    /** Record-aligned ranges of about {@code chunkBytes} each covering {@code [from, to)}. */
+    static List<long[]> chunks(Path file, long from, long to, long chunkBytes) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            return chunks(ch, from, to, chunkBytes);
+        }
+    }
+
+    /**
+     * As {@link #chunks(Path, long, long, long)} over an open channel. The quote count of each raw
+     * {@code chunkBytes} slice is taken in parallel; its running parity says whether a cut falls
+     * inside a quoted field, and the chunk then ends at the first newline outside quotes after the
+     * cut, the same rule {@link RecordIndex.Scanner} and {@link CsvCodec.Reader} use.
+     */
+    static List<long[]> chunks(FileChannel ch, long from, long to, long chunkBytes) throws IOException {
+        List<long[]> out = new ArrayList<>();
+        to = Math.min(to, ch.size());
+        long start = from == 0 ? nextRecord(ch, 0, to, false) : from; // skip header
+        if (start >= to) return out;
+        int cuts = (int) ((to - start - 1) / chunkBytes);
+        List<ForkJoinTask<Boolean>> odd = new ArrayList<>(cuts);
+        for (int k = 0; k < cuts; k++) {
+            long s = start + k * chunkBytes;
+            odd.add(ForkJoinPool.commonPool().submit(() -> oddQuotes(ch, s, s + chunkBytes)));
+        }
+        try {
+            boolean inQuotes = false;
+            long prev = start;
+            for (int k = 1; k <= cuts; k++) {
+                inQuotes ^= odd.get(k - 1).join();
+                long cut = start + k * chunkBytes;
+                if (cut < prev) continue; // the previous chunk already ran past this cut
+                long end = nextRecord(ch, cut, to, inQuotes);
+                if (end > prev) {
+                    out.add(new long[]{prev, end});
+                    prev = end;
+                }
+            }
+            if (prev < to) out.add(new long[]{prev, to});
+            return out;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /** Whether {@code [start, end)} holds an odd number of quote bytes. */
+    private static boolean oddQuotes(FileChannel ch, long start, long end) {
+        try {
+            MappedByteBuffer mb = ch.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+            int quotes = 0;
+            for (int i = 0, n = mb.limit(); i < n; i++) {
+                if (mb.get(i) == '"') quotes++;
+            }
+            return (quotes & 1) != 0;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Offset just past the first newline outside quotes at or after {@code pos}, or {@code limit};
+     * {@code inQuotes} is the quote state at {@code pos}.
+     */
+    private static long nextRecord(FileChannel ch, long pos, long limit, boolean inQuotes) throws IOException {
+        java.nio.ByteBuffer b = java.nio.ByteBuffer.allocate(4096);
+        while (pos < limit) {
+            b.clear();
+            int n = ch.read(b, pos);
+            if (n <= 0) break;
+            for (int i = 0; i < n; i++) {
+                byte c = b.get(i);
+                if (c == '"') inQuotes = !inQuotes;
+                else if (c == '\n' && !inQuotes) return Math.min(limit, pos + i + 1);
+            }
+            pos += n;
+        }
+        return limit;
+    }
+
+    private static <A> A scan(FileChannel ch, long start, long end, A acc, ChunkVisitor<A> visitor) {
+        try {
+            MappedByteBuffer mb = ch.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+            CsvCodec.Reader rd = new CsvCodec.Reader(8);
+            while (true) {
+                long offset = start + mb.position();
+                if (!rd.next(mb)) break;
+                visitor.visit(acc, rd, offset);
+            }
+            return acc;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,11 @@
+final class Question {
+    static final int MAX_CHOICES = 4; // radio buttons in the desktop client
+    final String text;
+    final String[] choices;
+    final int correctIndex;
+    Question(String text, String[] choices, int correctIndex) {
+        this.text = text;
+        this.choices = choices;
+        this.correctIndex = correctIndex;
+    }
+}
@@ -0,0 +1,431 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.CRC32;
+
+/**
+ * Question bank stored as CSV, one question per record:
+ *
+ * <pre>
+ * topic,correct,text,choice1,choice2,...
+ * </pre>
+ *
+ * The first line is a header. Records whose answer key is not a valid choice index, or with more
+ * than {@link Question#MAX_CHOICES} choices, are skipped at compile time with a warning. The CSV
+ * is compiled once into a binary snapshot
+ * ({@code <bank>.qbin}) that is memory-mapped at launch: a string pool (choices shared across
+ * questions are stored once), per-question text, choice and answer-key entries, record numbers
+ * grouped by topic, and each question's CSV offset. The pool is streamed to disk while the CSV is
+ * read and mapped in 1 GB windows, so a snapshot may be larger than a single mapping. The snapshot
+ * carries a CRC32 that is checked on open and is recompiled whenever the bank's size or
+ * modification time changes, or when it does not verify. Nothing per question lives on the heap
+ * until a drawn paper asks for it, and decoding a question reads fixed-width entries instead of
+ * parsing CSV, so startup cost and memory do not grow with the bank. A snapshot can also be opened
+ * on its own, without the CSV beside it.
+ *
+ * Layout: a 64-byte header, the string pool, then 8-byte aligned tables: topics, CSV offsets,
+ * record numbers by topic, records, choice ids and string starts. The checksum covers everything
+ * after the header followed by the header fields after the checksum itself.
+ */
+final class QuestionBank implements Closeable {
+
+    private static final int SNAP_MAGIC = 0x515A5142; // "QZQB"
+    private static final int SNAP_VERSION = 3;
+    private static final int HEADER = 64;
+    private static final int CRC_FROM = 16;          // header fields covered by the checksum start here
+    private static final int RECORD_INTS = 4;        // correct, text id, first choice, choice count
+
+    private final Path bankFile;
+    private final LongBuffer offsets;       // CSV offset per record, ascending: a question's identity
+    private final IntBuffer byTopic;        // record numbers grouped by topic
+    private final IntBuffer records;
+    private final IntBuffer choiceIds;
+    private final LongBuffer strings;       // pool start per string id, plus the pool's end
+    private final MappedByteBuffer[] pool;  // RecordIndex.SEGMENT-sized windows
+    private final String[] topics;
+    private final int[] topicStart;
+    private final int[] topicCount;
+
+    private QuestionBank(Path bankFile, FileChannel ch, ByteBuffer h) throws IOException {
+        this.bankFile = bankFile;
+        int count = h.getInt(32), topicN = h.getInt(36), choiceN = h.getInt(40), stringN = h.getInt(44);
+        long poolBytes = h.getLong(48);
+        pool = new MappedByteBuffer[(int) ((poolBytes + RecordIndex.SEGMENT - 1) / RecordIndex.SEGMENT)];
+        for (int i = 0; i < pool.length; i++) {
+            long base = i * RecordIndex.SEGMENT;
+            pool[i] = ch.map(FileChannel.MapMode.READ_ONLY, HEADER + base, Math.min(RecordIndex.SEGMENT, poolBytes - base));
+        }
+        long at = align(HEADER + poolBytes);
+        ByteBuffer topicTable = section(ch, at, topicN * 12L);
+        at = align(at + topicN * 12L);
+        offsets = section(ch, at, count * 8L).asLongBuffer();
+        at += count * 8L;
+        byTopic = section(ch, at, count * 4L).asIntBuffer();
+        at += count * 4L;
+        records = section(ch, at, count * 4L * RECORD_INTS).asIntBuffer();
+        at += count * 4L * RECORD_INTS;
+        choiceIds = section(ch, at, choiceN * 4L).asIntBuffer();
+        at += choiceN * 4L;
+        strings = section(ch, at, (stringN + 1) * 8L).asLongBuffer();
+        at += (stringN + 1) * 8L;
+        if (at != ch.size()) throw new IOException(bankFile + ": truncated question bank snapshot");
+        topics = new String[topicN];
+        topicStart = new int[topicN];
+        topicCount = new int[topicN];
+        for (int t = 0; t < topicN; t++) {
+            topics[t] = string(topicTable.getInt(t * 12));
+            topicStart[t] = topicTable.getInt(t * 12 + 4);
+            topicCount[t] = topicTable.getInt(t * 12 + 8);
+        }
+    }
+
+    private static ByteBuffer section(FileChannel ch, long at, long len) throws IOException {
+        if (at + len > ch.size()) throw new IOException("truncated question bank snapshot");
+        if (len > Integer.MAX_VALUE) throw new IOException("question bank table larger than a mapping: " + len + " bytes");
+        return ch.map(FileChannel.MapMode.READ_ONLY, at, len);
+    }
+
+    private static long align(long p) {
+        return (p + 7) & ~7L;
+    }
+
+    /**
+     * Maps the bank's snapshot, compiling it first if it is missing, stale or corrupt. A path
+     * ending in {@code .qbin} is opened as a snapshot directly.
+     */
+    static QuestionBank open(Path bankFile) throws IOException {
+        if (bankFile.getFileName().toString().endsWith(".qbin")) return load(bankFile, bankFile, -1, -1);
+        Path snap = snapshotPath(bankFile);
+        if (!Files.exists(bankFile) && Files.exists(snap)) return load(bankFile, snap, -1, -1);
+        long size = Files.size(bankFile);
+        long mtime = Files.getLastModifiedTime(bankFile).toMillis();
+        QuestionBank b = null;
+        try {
+            b = load(bankFile, snap, size, mtime);
+        } catch (IOException e) {
+            // missing or failed verification: compile it
+        }
+        if (b == null) {
+            compile(bankFile, snap, size, mtime);
+            b = load(bankFile, snap, size, mtime);
+        }
+        return b;
+    }
+
+    static Path snapshotPath(Path bankFile) {
+        return bankFile.resolveSibling(bankFile.getFileName() + ".qbin");
+    }
+
+    /**
+     * Maps a snapshot after verifying its header and checksum. Returns null, without reading the
+     * body, when it was compiled from a different version of the CSV ({@code srcSize} -1 skips the check).
+     */
+    private static QuestionBank load(Path bankFile, Path snap, long srcSize, long srcMtime) throws IOException {
+        try (FileChannel ch = FileChannel.open(snap, StandardOpenOption.READ)) {
+            long size = ch.size();
+            ByteBuffer h = ByteBuffer.allocate(HEADER);
+            if (size < HEADER) throw new IOException(snap + ": bad question bank snapshot size");
+            while (h.hasRemaining() && ch.read(h, h.position()) > 0) { /* header is read fully */ }
+            if (h.getInt(0) != SNAP_MAGIC || h.getInt(4) != SNAP_VERSION) throw new IOException(snap + ": not a question bank snapshot");
+            if (srcSize >= 0 && (h.getLong(16) != srcSize || h.getLong(24) != srcMtime)) return null;
+            CRC32 crc = new CRC32();
+            for (long p = HEADER; p < size; p += RecordIndex.SEGMENT) {
+                crc.update(ch.map(FileChannel.MapMode.READ_ONLY, p, Math.min(RecordIndex.SEGMENT, size - p)));
+            }
+            crc.update(h.array(), CRC_FROM, HEADER - CRC_FROM);
+            if (crc.getValue() != h.getLong(8)) throw new IOException(snap + ": question bank snapshot checksum mismatch");
+            return new QuestionBank(bankFile, ch, h);
+        }
+    }
+
+    int size() { return offsets.limit(); }
+    List<String> topics() { return Collections.unmodifiableList(Arrays.asList(topics)); }
+    int topicSize(int t) { return topicCount[t]; }
+
+    @Override
+    public void close() {
+        // Nothing is held open: the mapping lives until the bank is unreachable
+    }
+
+    // ---------------- Sampling ----------------
+    /** Draws {@code n} distinct questions uniformly from the whole bank. */
+    QuestionPaper sample(int n, Random rnd) {
+        return new QuestionPaper(this, shuffle(pick(0, size(), Math.min(n, size()), rnd), rnd));
+    }
+
+    /**
+     * Draws {@code n} distinct questions with each topic represented in proportion to its share of
+     * the bank (largest-remainder rounding).
+     */
+    QuestionPaper sampleStratified(int n, Random rnd) {
+        n = Math.min(n, size());
+        int[] quota = new int[topics.length];
+        double[] rem = new double[topics.length];
+        int given = 0;
+        for (int t = 0; t < topics.length; t++) {
+            double exact = (double) n * topicCount[t] / size();
+            quota[t] = (int) exact;
+            rem[t] = exact - quota[t];
+            given += quota[t];
+        }
+        while (given < n) {
+            int best = -1;
+            for (int t = 0; t < topics.length; t++) {
+                if (quota[t] < topicCount[t] && (best < 0 || rem[t] > rem[best])) best = t;
+            }
+            quota[best]++;
+            rem[best] = -1;
+            given++;
+        }
+        long[] out = new long[n];
+        int k = 0;
+        for (int t = 0; t < topics.length; t++) {
+            long[] part = pick(topicStart[t], topicCount[t], quota[t], rnd);
+            System.arraycopy(part, 0, out, k, part.length);
+            k += part.length;
+        }
+        // Mix topics so the paper is not grouped by topic
+        return new QuestionPaper(this, shuffle(out, rnd));
+    }
+
+    private static long[] shuffle(long[] a, Random rnd) {
+        for (int i = a.length - 1; i > 0; i--) {
+            int j = rnd.nextInt(i + 1);
+            long tmp = a[i]; a[i] = a[j]; a[j] = tmp;
+        }
+        return a;
+    }
+
+    /** Floyd's algorithm: {@code k} distinct entries from offsets[from, from + count). */
+    private long[] pick(int from, int count, int k, Random rnd) {
+        Set<Integer> chosen = new LinkedHashSet<>(k * 2);
+        for (int j = count - k; j < count; j++) {
+            int t = rnd.nextInt(j + 1);
+            if (!chosen.add(t)) chosen.add(j);
+        }
+        long[] out = new long[k];
+        int i = 0;
+        for (int c : chosen) out[i++] = offsets.get(byTopic.get(from + c));
+        return out;
+    }
+
+    // ---------------- Decoding ----------------
+    /** Decodes the question whose record starts at byte {@code offset} of the bank CSV. */
+    Question decode(long offset) {
+        int lo = 0, hi = size() - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long o = offsets.get(mid);
+            if (o < offset) lo = mid + 1;
+            else if (o > offset) hi = mid - 1;
+            else return decodeRecord(mid);
+        }
+        throw new IllegalStateException(bankFile + ": no question at offset " + offset);
+    }
+
+    private Question decodeRecord(int r) {
+        int at = r * RECORD_INTS;
+        int first = records.get(at + 2);
+        String[] choices = new String[records.get(at + 3)];
+        for (int i = 0; i < choices.length; i++) choices[i] = string(choiceIds.get(first + i));
+        return new Question(string(records.get(at + 1)), choices, records.get(at));
+    }
+
+    private String string(int id) {
+        long start = strings.get(id);
+        byte[] b = new byte[(int) (strings.get(id + 1) - start)];
+        RecordIndex.copy(pool, start, b, b.length);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    // ---------------- Compiling ----------------
+    /**
+     * Growable primitive columns of a snapshot being compiled. Strings go straight to the snapshot
+     * file as they are stored, so only fixed-width entries per question are held on the heap.
+     */
+    private static final class Compiler {
+        private static final int MAX_SHARED = 1 << 20; // distinct strings remembered for sharing
+
+        final Out out;
+        long[] offsets = new long[1024];
+        int[] topicOf = new int[1024];
+        int[] records = new int[1024 * RECORD_INTS];
+        int[] choiceIds = new int[4096];
+        long[] strings = new long[4096];  // pool start per string id
+        int count, choiceN, stringN;
+        final Map<String, Integer> shared = new HashMap<>(); // topics and choices, stored once
+        final Map<String, Integer> topicIds = new LinkedHashMap<>();
+        final List<Integer> topicNames = new ArrayList<>();
+        int skipped;
+        long firstSkipped = -1;
+
+        Compiler(Out out) {
+            this.out = out;
+        }
+
+        /** Adds the record, or skips it when the answer key or choice count cannot be shown and scored. */
+        void add(CsvCodec.Reader rd, long offset) throws IOException {
+            int choices = rd.fieldCount() - 3, correct = rd.parseInt(1);
+            if (choices < 1 || choices > Question.MAX_CHOICES || correct < 0 || correct >= choices) {
+                if (skipped++ == 0) firstSkipped = offset;
+                return;
+            }
+            if (count == offsets.length) {
+                offsets = Arrays.copyOf(offsets, count * 2);
+                topicOf = Arrays.copyOf(topicOf, count * 2);
+                records = Arrays.copyOf(records, count * 2 * RECORD_INTS);
+            }
+            String topic = rd.string(0);
+            Integer t = topicIds.get(topic);
+            if (t == null) {
+                t = topicIds.size();
+                topicIds.put(topic, t);
+                topicNames.add(intern(topic));
+            }
+            offsets[count] = offset;
+            topicOf[count] = t;
+            int at = count * RECORD_INTS;
+            records[at] = correct;
+            records[at + 1] = store(rd.string(2));
+            records[at + 2] = choiceN;
+            records[at + 3] = choices;
+            for (int i = 3; i < rd.fieldCount(); i++) {
+                if (choiceN == choiceIds.length) choiceIds = Arrays.copyOf(choiceIds, choiceN * 2);
+                choiceIds[choiceN++] = intern(rd.string(i));
+            }
+            count++;
+        }
+
+        private int intern(String s) throws IOException {
+            Integer id = shared.get(s);
+            if (id == null) {
+                id = store(s);
+                if (shared.size() < MAX_SHARED) shared.put(s, id);
+            }
+            return id;
+        }
+
+        private int store(String s) throws IOException {
+            if (stringN == strings.length) strings = Arrays.copyOf(strings, stringN * 2);
+            strings[stringN] = out.written - HEADER;
+            out.put(s.getBytes(StandardCharsets.UTF_8));
+            return stringN++;
+        }
+    }
+
+    /** Buffered sequential writer over the snapshot file that checksums what it writes. */
+    private static final class Out {
+        final FileChannel ch;
+        final ByteBuffer buf = ByteBuffer.allocate(1 << 20);
+        final CRC32 crc = new CRC32();
+        long written;                 // file position of the next byte
+
+        Out(FileChannel ch, long start) {
+            this.ch = ch;
+            this.written = start;
+        }
+
+        void put(byte[] b) throws IOException {
+            for (int off = 0; off < b.length; ) {
+                if (!buf.hasRemaining()) flush();
+                int n = Math.min(buf.remaining(), b.length - off);
+                buf.put(b, off, n);
+                off += n;
+                written += n;
+            }
+        }
+
+        void putInt(int v) throws IOException {
+            if (buf.remaining() < 4) flush();
+            buf.putInt(v);
+            written += 4;
+        }
+
+        void putLong(long v) throws IOException {
+            if (buf.remaining() < 8) flush();
+            buf.putLong(v);
+            written += 8;
+        }
+
+        void align() throws IOException {
+            while ((written & 7) != 0) put(new byte[1]);
+        }
+
+        void flush() throws IOException {
+            buf.flip();
+            crc.update(buf.duplicate());
+            long at = written - buf.remaining();
+            while (buf.hasRemaining()) at += ch.write(buf, at);
+            buf.clear();
+        }
+    }
+
+    private static void compile(Path bankFile, Path snap, long size, long mtime) throws IOException {
+        Path tmp = snap.resolveSibling(snap.getFileName() + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            Out out = new Out(ch, HEADER);
+            Compiler c = new Compiler(out);
+            CsvCodec.forEachRecord(bankFile, (rd, offset) -> c.add(rd, offset));
+            if (c.skipped > 0) {
+                System.err.printf("%s: skipped %d question(s) with an invalid answer key or choice count, the first at offset %d%n",
+                        bankFile, c.skipped, c.firstSkipped);
+            }
+            long poolBytes = out.written - HEADER;
+
+            // Record numbers grouped by topic, in file order within each topic (counting sort)
+            int topicN = c.topicIds.size();
+            int[] start = new int[topicN + 1];
+            for (int r = 0; r < c.count; r++) start[c.topicOf[r] + 1]++;
+            for (int t = 0; t < topicN; t++) start[t + 1] += start[t];
+            int[] byTopic = new int[c.count];
+            int[] fill = Arrays.copyOf(start, topicN);
+            for (int r = 0; r < c.count; r++) byTopic[fill[c.topicOf[r]]++] = r;
+
+            out.align();
+            for (int t = 0; t < topicN; t++) {
+                out.putInt(c.topicNames.get(t));
+                out.putInt(start[t]);
+                out.putInt(start[t + 1] - start[t]);
+            }
+            out.align();
+            for (int r = 0; r < c.count; r++) out.putLong(c.offsets[r]);
+            for (int r = 0; r < c.count; r++) out.putInt(byTopic[r]);
+            for (int i = 0; i < c.count * RECORD_INTS; i++) out.putInt(c.records[i]);
+            for (int i = 0; i < c.choiceN; i++) out.putInt(c.choiceIds[i]);
+            for (int i = 0; i < c.stringN; i++) out.putLong(c.strings[i]);
+            out.putLong(poolBytes);
+            out.flush();
+
+            ByteBuffer h = ByteBuffer.allocate(HEADER);
+            h.putInt(SNAP_MAGIC).putInt(SNAP_VERSION).putLong(0).putLong(size).putLong(mtime);
+            h.putInt(c.count).putInt(topicN).putInt(c.choiceN).putInt(c.stringN).putLong(poolBytes);
+            out.crc.update(h.array(), CRC_FROM, HEADER - CRC_FROM);
+            h.putLong(8, out.crc.getValue());
+            h.clear();
+            while (h.hasRemaining()) ch.write(h, h.position());
+        }
+        Files.move(tmp, snap, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: QuestionBank <bank.csv> [paperSize]");
+            System.exit(2);
+        }
+        long t = System.nanoTime();
+        try (QuestionBank bank = open(Paths.get(args[0]))) {
+            System.out.printf("%d questions, %d topics, opened in %d ms%n", bank.size(), bank.topics.length,
+                    (System.nanoTime() - t) / 1_000_000);
+            QuestionPaper paper = bank.sampleStratified(args.length > 1 ? Integer.parseInt(args[1]) : 5, ThreadLocalRandom.current());
+            for (Question q : paper) System.out.println(q.text + " " + Arrays.toString(q.choices) + " -> " + q.correctIndex);
+        }
+    }
+}
@@ -0,0 +1,35 @@
+import java.util.*;
+
+/**
+ * One drawn paper: the bank offsets of its questions. A {@link Question} is decoded from the bank
+ * the first time it is requested and kept for the lifetime of the paper.
+ */
+final class QuestionPaper extends AbstractList<Question> implements RandomAccess {
+
+    private final QuestionBank bank;
+    private final long[] offsets;
+    private final Question[] decoded;
+
+    QuestionPaper(QuestionBank bank, long[] offsets) {
+        this.bank = bank;
+        this.offsets = offsets;
+        this.decoded = new Question[offsets.length];
+    }
+
+    /** Bank byte offset of question {@code i}, a stable identity for the question. */
+    long offset(int i) { return offsets[i]; }
+
+    @Override
+    public Question get(int i) {
+        Question q = decoded[i];
+        if (q == null) {
+            // Benign race: concurrent callers decode the same immutable value
+            q = bank.decode(offsets[i]);
+            decoded[i] = q;
+        }
+        return q;
+    }
+
+    @Override
+    public int size() { return offsets.length; }
+}
@@ -1,26 +1,34 @@
 import java.awt.*;
 import java.io.*;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
-import java.time.*;
-import java.time.format.DateTimeFormatter;
 import java.util.*;
-import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import javax.swing.*;
 import javax.swing.border.EmptyBorder;
-import javax.swing.table.DefaultTableModel;
 
 public class QuizApp {
 
-    // Results CSV file
-    private static final Path RESULTS_CSV = Paths.get("results.csv");
-    private static final DateTimeFormatter TS_FMT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final Path RESULTS_CSV = ResultsCsv.RESULTS_CSV;
 
-    // Quiz data
-    private final java.util.List<Question> questions = new ArrayList<>();
+    private static final int SECONDS_PER_QUESTION = 20;
+    // Wall time from JVM start until the login screen is up (-Dquiz.startup.budgetMs)
+    private static final long STARTUP_BUDGET_MS = Long.getLong("quiz.startup.budgetMs", 1000);
 
-    // Swing components
+    // Quiz data: opened off the EDT while the login screen comes up
+    private final CompletableFuture<QuizEngine> opening;
+    private QuizEngine engine;
+    private ResultShards.MergedCopy merged; // admin view's copy of a sharded store, kept between opens
+
+    // Swing components, each screen built on first use and then reused
     private JFrame frame;
+    private JPanel loginPanel;
+    private JPanel quizPanel;
+    private JLabel quizHeader;
 
     // Login / user form
     private JTextField nameField;
@@ -37,31 +45,49 @@ public class QuizApp {
     private JLabel lblTimer;
     private JLabel lblQIndex;
 
-    // State
-    private int currentIndex = 0;
-    private final Map<Integer, Integer> userAnswers = new HashMap<>(); // questionIdx -> choiceIdx
+    // State (lives in the engine session; this UI is one client of the engine)
     private javax.swing.Timer questionTimer;
-    private int secondsLeft;
-    private final int secondsPerQuestion = 20;
-    private boolean paused = false;
-    private User currentUser;
+    private final int secondsPerQuestion = SECONDS_PER_QUESTION;
+    private QuizSession session;
+    // Rendered question markup by position, for the paper it was built from
+    private java.util.List<Question> renderedPaper;
+    private String[] questionHtml;
 
     public static void main(String[] args) {
-        SwingUtilities.invokeLater(() -> new QuizApp().initAndShow());
+        Integer metricsPort = Integer.getInteger("quiz.metrics.port");
+        if (metricsPort != null) {
+            try {
+                Metrics.serve(metricsPort);
+            } catch (IOException ex) {
+                Metrics.error("metrics_endpoint", ex);
+            }
+        }
+        // The results store and the question bank open while Swing starts and the login screen shows
+        CompletableFuture<QuizEngine> opening = new CompletableFuture<>();
+        Thread t = new Thread(() -> {
+            try {
+                opening.complete(openEngine());
+            } catch (RuntimeException ex) {
+                opening.completeExceptionally(ex);
+            }
+        }, "quiz-startup");
+        t.setDaemon(true);
+        t.start();
+        SwingUtilities.invokeLater(() -> new QuizApp(opening).initAndShow());
+    }
+
+    // A bank or journal that fails to open is a startup error, never a silent switch to the samples
+    private static QuizEngine openEngine() {
+        ResultsCsv.shards(); // opens the writers and starts the analytics rebuild
+        try {
+            return QuizEngine.fromSystemProperties(SECONDS_PER_QUESTION);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
     }
 
-    public QuizApp() {
-        // Sample questions - you can replace these or load from a file
-        questions.add(new Question("Which data structure uses FIFO order?",
-                new String[]{"Stack", "Queue", "Tree", "Graph"}, 1));
-        questions.add(new Question("Which keyword is used to inherit a class in Java?",
-                new String[]{"implements", "extends", "inherits", "uses"}, 1));
-        questions.add(new Question("What is the time complexity of binary search (sorted array)?",
-                new String[]{"O(n)", "O(log n)", "O(n log n)", "O(1)"}, 1));
-        questions.add(new Question("Which HTML tag is used for the largest heading?",
-                new String[]{"<h1>", "<head>", "<header>", "<h6>"}, 0));
-        questions.add(new Question("Which of these is NOT a primitive type in Java?",
-                new String[]{"int", "boolean", "String", "double"}, 2));
+    private QuizApp(CompletableFuture<QuizEngine> opening) {
+        this.opening = opening;
     }
 
     private void initAndShow() {
@@ -72,26 +98,68 @@ public class QuizApp {
 
         frame.setJMenuBar(buildMenuBar());
 
-        frame.setContentPane(buildLoginPanel());
+        frame.setContentPane(loginPanel());
+        frame.addWindowListener(new java.awt.event.WindowAdapter() {
+            public void windowOpened(java.awt.event.WindowEvent e) { recordStartup(); }
+        });
         frame.setVisible(true);
+        // Warm the HTML renderer while the user types, so the first question does not pay for it
+        SwingUtilities.invokeLater(() -> javax.swing.plaf.basic.BasicHTML.createHTMLView(new JLabel(), "<html><b>Q1.</b> -</html>"));
+        opening.whenComplete((e, ex) -> SwingUtilities.invokeLater(() -> engineOpened(e, ex)));
+    }
+
+    private static void recordStartup() {
+        long ms = System.currentTimeMillis() - java.lang.management.ManagementFactory.getRuntimeMXBean().getStartTime();
+        Metrics.STARTUP_LOGIN.record(ms * 1_000_000);
+        if (ms > STARTUP_BUDGET_MS) System.err.printf("Login screen shown after %d ms, over the %d ms budget%n", ms, STARTUP_BUDGET_MS);
+    }
+
+    // On the EDT once the engine is open (or failed to open): quizzes can start from here on
+    private void engineOpened(QuizEngine e, Throwable ex) {
+        if (ex != null) {
+            if (ex instanceof UncheckedIOException) ex = ex.getCause();
+            Metrics.error("startup", ex);
+            JOptionPane.showMessageDialog(frame, "Failed to start: " + ex.getMessage(), "Startup Error", JOptionPane.ERROR_MESSAGE);
+            System.exit(1);
+        }
+        engine = e;
+        startBtn.setEnabled(true);
+        offerResume();
     }
 
+    // Menu items are created the first time the menu opens
     private JMenuBar buildMenuBar() {
         JMenuBar mb = new JMenuBar();
         JMenu app = new JMenu("App");
-        JMenuItem adminView = new JMenuItem("Admin: View Results");
-        JMenuItem exit = new JMenuItem("Exit");
-        app.add(adminView);
-        app.addSeparator();
-        app.add(exit);
+        app.addMenuListener(new javax.swing.event.MenuListener() {
+            public void menuSelected(javax.swing.event.MenuEvent e) {
+                if (app.getItemCount() > 0) return;
+                JMenuItem adminView = new JMenuItem("Admin: View Results");
+                JMenuItem exit = new JMenuItem("Exit");
+                app.add(adminView);
+                app.addSeparator();
+                app.add(exit);
+                adminView.addActionListener(ev -> showAdminDialog());
+                exit.addActionListener(ev -> System.exit(0));
+            }
+            public void menuDeselected(javax.swing.event.MenuEvent e) {}
+            public void menuCanceled(javax.swing.event.MenuEvent e) {}
+        });
         mb.add(app);
-
-        adminView.addActionListener(e -> showAdminDialog());
-        exit.addActionListener(e -> System.exit(0));
         return mb;
     }
 
     // ---------------- Login / User details UI ----------------
+    private JPanel loginPanel() {
+        if (loginPanel == null) {
+            loginPanel = buildLoginPanel();
+        } else {
+            nameField.setText("");
+            emailField.setText("");
+        }
+        return loginPanel;
+    }
+
     private JPanel buildLoginPanel() {
         JPanel p = new JPanel(new BorderLayout());
         p.setBorder(new EmptyBorder(20, 20, 20, 20));
@@ -117,6 +185,7 @@ public class QuizApp {
         g.gridy = 2; g.gridx = 0; g.gridwidth = 2; g.anchor = GridBagConstraints.CENTER;
         startBtn = new JButton("Start Quiz");
         startBtn.setPreferredSize(new Dimension(160, 36));
+        startBtn.setEnabled(engine != null); // until the question bank is open
         center.add(startBtn, g);
 
         p.add(center, BorderLayout.CENTER);
@@ -137,30 +206,59 @@ public class QuizApp {
             JOptionPane.showMessageDialog(frame, "Please enter your name and email.", "Missing info", JOptionPane.WARNING_MESSAGE);
             return;
         }
-        currentUser = new User(name, email);
-        // Reset state
-        currentIndex = 0;
-        userAnswers.clear();
-        paused = false;
+        // Fresh session holds all per-attempt state
+        session = engine.start(new User(name, email), this::onTimedOut);
+        enterQuiz();
+    }
 
-        frame.setContentPane(buildQuizPanel());
+    private void enterQuiz() {
+        frame.setContentPane(quizPanel());
+        quizHeader.setText("Quiz — Good luck, " + session.user.name);
+        if (session.questions != renderedPaper) { // a fixed paper keeps its markup across sessions
+            renderedPaper = session.questions;
+            questionHtml = new String[renderedPaper.size()];
+        }
+        // Keyboard shortcuts: Enter -> next
+        frame.getRootPane().setDefaultButton(btnNext);
         frame.revalidate();
         frame.repaint();
 
         startQuestionTimer();
-        showQuestion(currentIndex);
+        showQuestion(session.currentIndex());
+        btnPauseResume.setText(session.isPaused() ? "Resume" : "Pause");
+    }
+
+    // Offers to continue an attempt the journal recovered from a previous run of the app
+    private void offerResume() {
+        for (QuizSession s : engine.recoveredSessions()) {
+            int choice = JOptionPane.showConfirmDialog(frame,
+                    "Resume the unfinished quiz of " + s.user.name + " <" + s.user.email + ">"
+                            + " at question " + (s.currentIndex() + 1) + " of " + s.questions.size() + "?",
+                    "Resume quiz", JOptionPane.YES_NO_OPTION);
+            if (choice != JOptionPane.YES_OPTION) continue;
+            engine.claim(s, this::onTimedOut);
+            if (s.isFinished()) continue; // timed out while the dialog was open
+            session = s;
+            enterQuiz();
+            return;
+        }
     }
 
     // ---------------- Quiz UI ----------------
+    private JPanel quizPanel() {
+        if (quizPanel == null) quizPanel = buildQuizPanel();
+        return quizPanel;
+    }
+
     private JPanel buildQuizPanel() {
         JPanel p = new JPanel(new BorderLayout(12,12));
         p.setBorder(new EmptyBorder(12,12,12,12));
 
         // Top: quiz header
         JPanel top = new JPanel(new BorderLayout());
-        JLabel header = new JLabel("Quiz — Good luck, " + (currentUser != null ? currentUser.name : "Student"));
-        header.setFont(header.getFont().deriveFont(Font.BOLD, 18f));
-        top.add(header, BorderLayout.WEST);
+        quizHeader = new JLabel("Quiz — Good luck, Student");
+        quizHeader.setFont(quizHeader.getFont().deriveFont(Font.BOLD, 18f));
+        top.add(quizHeader, BorderLayout.WEST);
 
         lblQIndex = new JLabel();
         top.add(lblQIndex, BorderLayout.EAST);
@@ -175,14 +273,16 @@ public class QuizApp {
 
         JPanel choicesPanel = new JPanel();
         choicesPanel.setLayout(new BoxLayout(choicesPanel, BoxLayout.Y_AXIS));
-        choiceButtons = new JRadioButton[4];
+        choiceButtons = new JRadioButton[Question.MAX_CHOICES];
         choiceGroup = new ButtonGroup();
         for (int i = 0; i < choiceButtons.length; i++) {
             final int idx = i;
             choiceButtons[i] = new JRadioButton();
             choiceButtons[i].setActionCommand(String.valueOf(i));
             choiceButtons[i].addActionListener(ev -> {
-                userAnswers.put(currentIndex, idx);
+                long t0 = System.nanoTime();
+                engine.answer(session, idx);
+                Metrics.ANSWER_RECORD.recordSince(t0);
             });
             choiceGroup.add(choiceButtons[i]);
             choicesPanel.add(choiceButtons[i]);
@@ -216,16 +316,17 @@ public class QuizApp {
         btnPauseResume.addActionListener(e -> togglePauseResume());
         btnNext.addActionListener(e -> nextQuestion());
 
-        // Keyboard shortcuts: Enter -> next
-        frame.getRootPane().setDefaultButton(btnNext);
-
         return p;
     }
 
     private void showQuestion(int idx) {
+        java.util.List<Question> questions = session.questions;
         if (idx < 0 || idx >= questions.size()) return;
-        Question q = questions.get(idx);
-        lblQuestion.setText("<html><b>Q" + (idx + 1) + ".</b> " + q.text + "</html>");
+        long t0 = System.nanoTime();
+        Question q = questions.get(idx); // decoded from the bank on first use
+        String html = questionHtml[idx];
+        if (html == null) html = questionHtml[idx] = "<html><b>Q" + (idx + 1) + ".</b> " + q.text + "</html>";
+        lblQuestion.setText(html);
         String[] opts = q.choices;
         for (int i = 0; i < choiceButtons.length; i++) {
             if (i < opts.length) {
@@ -237,9 +338,9 @@ public class QuizApp {
             choiceButtons[i].setSelected(false);
         }
         // Restore previous answer if any
-        if (userAnswers.containsKey(idx)) {
-            int sel = userAnswers.get(idx);
-            if (sel >= 0 && sel < choiceButtons.length) {
+        int sel = session.answerFor(idx);
+        if (sel >= 0) {
+            if (sel < choiceButtons.length) {
                 choiceButtons[sel].setSelected(true);
             }
         } else {
@@ -249,37 +350,40 @@ public class QuizApp {
 
         // reset timer for question
         resetTimer();
+        Metrics.QUESTION_RENDER.recordSince(t0);
     }
 
     // ---------------- Timer ----------------
+    // Deadlines live on the engine's shared timing wheel; this Swing timer only repaints the countdown
     private void startQuestionTimer() {
-        secondsLeft = secondsPerQuestion;
         updateTimerUI();
         if (questionTimer != null && questionTimer.isRunning()) questionTimer.stop();
-        questionTimer = new javax.swing.Timer(1000, e -> {
-            if (!paused) {
-                secondsLeft--;
-                updateTimerUI();
-                if (secondsLeft <= 0) {
-                    // time out -> auto next
-                    Toolkit.getDefaultToolkit().beep();
-                    nextQuestion();
-                }
-            }
-        });
-        questionTimer.setInitialDelay(1000);
+        questionTimer = new javax.swing.Timer(250, e -> updateTimerUI());
         questionTimer.start();
     }
 
     private void resetTimer() {
-        secondsLeft = secondsPerQuestion;
-        paused = false;
         btnPauseResume.setText("Pause");
         if (questionTimer == null) startQuestionTimer();
         updateTimerUI();
     }
 
+    // Called by the engine after it auto-advanced a timed-out question
+    private void onTimedOut(QuizSession s, CompletableFuture<QuizResult> finished) {
+        SwingUtilities.invokeLater(() -> {
+            if (s != session) return; // an older attempt
+            Toolkit.getDefaultToolkit().beep();
+            if (finished == null) {
+                showQuestion(s.currentIndex());
+            } else {
+                questionTimer.stop();
+                showResults(finished);
+            }
+        });
+    }
+
     private void updateTimerUI() {
+        int secondsLeft = session.secondsLeft();
         timerBar.setMaximum(secondsPerQuestion);
         timerBar.setValue(secondsLeft);
         timerBar.setString(secondsLeft + "s");
@@ -287,7 +391,7 @@ public class QuizApp {
     }
 
     private void togglePauseResume() {
-        paused = !paused;
+        boolean paused = engine.togglePause(session);
         btnPauseResume.setText(paused ? "Resume" : "Pause");
     }
 
@@ -295,44 +399,43 @@ public class QuizApp {
     private void nextQuestion() {
         // Save current selection already handled by listener; ensure null handled
         // Move to next
-        if (currentIndex < questions.size() - 1) {
-            currentIndex++;
-            showQuestion(currentIndex);
+        if (engine.next(session)) {
+            showQuestion(session.currentIndex());
         } else {
             // End of quiz
+            CompletableFuture<QuizResult> finished;
+            try {
+                finished = engine.finish(session.id);
+            } catch (NoSuchElementException ex) {
+                return; // the last question just timed out; onTimedOut shows the results
+            }
             if (questionTimer != null) questionTimer.stop();
-            showResults();
+            showResults(finished);
         }
     }
 
     // ---------------- Results ----------------
-    private void showResults() {
-        int correct = 0;
-        StringBuilder sb = new StringBuilder();
-        sb.append("Results for ").append(currentUser.name).append(" (").append(currentUser.email).append(")\n\n");
-        for (int i = 0; i < questions.size(); i++) {
-            Question q = questions.get(i);
-            Integer ans = userAnswers.get(i);
-            int chosen = ans == null ? -1 : ans;
-            boolean ok = (chosen == q.correctIndex);
-            if (ok) correct++;
-            sb.append(String.format("Q%d: %s\n", i + 1, ok ? "Correct" : "Incorrect"));
-            sb.append("  Your answer: ").append(chosen >= 0 ? q.choices[chosen] : "<no answer>").append("\n");
-            sb.append("  Correct answer: ").append(q.choices[q.correctIndex]).append("\n\n");
-        }
-        int score = Math.round((100f * correct) / questions.size());
-        sb.append("Score: ").append(correct).append(" / ").append(questions.size()).append("  (").append(score).append("%)\n");
+    private void showResults(CompletableFuture<QuizResult> finished) {
+        // Scored by the engine; persisted by the results writer. Shown once the group commit is
+        // done, so the admin view below already has this result, without blocking the EDT meanwhile
+        QuizSession s = session;
+        finished.whenComplete((result, ex) -> SwingUtilities.invokeLater(() -> showResults(s, result, ex)));
+    }
 
-        // Save to CSV
-        try {
-            saveResultToCsv(currentUser, score, correct, questions.size(), userAnswers);
-        } catch (Exception ex) {
-            ex.printStackTrace();
-            JOptionPane.showMessageDialog(frame, "Failed to save result: " + ex.getMessage(), "IO Error", JOptionPane.ERROR_MESSAGE);
+    private void showResults(QuizSession session, QuizResult result, Throwable ex) {
+        if (ex != null) {
+            Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+            Metrics.error("result_save", cause);
+            JOptionPane.showMessageDialog(frame, "Failed to save result: " + cause.getMessage(), "IO Error", JOptionPane.ERROR_MESSAGE);
+            result = session.finish();
         }
 
-        // Show results panel
-        JTextArea ta = new JTextArea(sb.toString());
+        // Show results panel; the leaderboard already holds this result once it is saved
+        String text = result.breakdown(session.questions);
+        Leaderboard board = Leaderboard.shared();
+        int rank = board.rank(result.user.email);
+        if (rank > 0) text += "Leaderboard: #" + rank + " of " + board.size() + " (best attempt per email)\n";
+        JTextArea ta = new JTextArea(text);
         ta.setEditable(false);
         ta.setCaretPosition(0);
         JScrollPane sp = new JScrollPane(ta);
@@ -346,165 +449,480 @@ public class QuizApp {
             showAdminDialog();
         } else {
             // After close, reset to login screen
-            frame.setContentPane(buildLoginPanel());
+            frame.setContentPane(loginPanel());
             frame.revalidate();
             frame.repaint();
         }
     }
 
-    private void saveResultToCsv(User user, int scorePercent, int correctCount, int totalQ, Map<Integer, Integer> answers) throws IOException {
-        boolean writeHeader = !Files.exists(RESULTS_CSV);
-        try (BufferedWriter bw = Files.newBufferedWriter(RESULTS_CSV, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
-            if (writeHeader) {
-                bw.write("timestamp,name,email,score_percent,correct,total_questions,answers\n");
-            }
-            String ts = LocalDateTime.now().format(TS_FMT);
-            // answers format: q1:idx|q2:idx|...
-            StringBuilder ansSb = new StringBuilder();
-            for (int i = 0; i < questions.size(); i++) {
-                Integer a = answers.get(i);
-                if (i > 0) ansSb.append("|");
-                ansSb.append("q").append(i + 1).append(":").append(a == null ? "-" : a);
-            }
-            String line = String.format("%s,%s,%s,%d,%d,%d,%s\n",
-                    escapeCsv(ts), escapeCsv(user.name), escapeCsv(user.email),
-                    scorePercent, correctCount, totalQ, escapeCsv(ansSb.toString()));
-            bw.write(line);
-            bw.flush();
+    // ---------------- Admin dialog ----------------
+    private void showAdminDialog() {
+        if (!ResultsCsv.sharded()) {
+            showAdminDialog(RESULTS_CSV, null);
+            return;
         }
+        // Shards are k-way merged into one time-ordered copy: in full the first time, then only
+        // what they gained since, which the view follows as it follows the plain results file
+        new Thread(() -> {
+            try {
+                ResultShards.MergedCopy copy;
+                synchronized (this) {
+                    if (merged == null) {
+                        Path tmp = Files.createTempFile("quiz-merged", ".csv");
+                        tmp.toFile().deleteOnExit();
+                        merged = new ResultShards.MergedCopy(tmp, ResultsCsv.shards());
+                    }
+                    copy = merged;
+                }
+                copy.sync();
+                SwingUtilities.invokeLater(() -> showAdminDialog(copy.file, new ResultsIndex(copy.file, 0)));
+            } catch (IOException ex) {
+                Metrics.error("results_load", ex);
+                SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(frame, "Failed to load results: " + ex.getMessage(), "IO Error", JOptionPane.ERROR_MESSAGE));
+            }
+        }, "results-merge").start();
     }
 
-    // ---------------- Admin dialog ----------------
-    private void showAdminDialog() {
-        JDialog dlg = new JDialog(frame, "Admin - Saved Results", true);
-        dlg.setSize(820, 520);
+    // Admin view over the live results file, or over the merged copy of the shards searched with mergedIndex
+    private void showAdminDialog(Path file, ResultsIndex mergedIndex) {
+        boolean plain = mergedIndex == null;
+        JDialog dlg = new JDialog(frame, plain ? "Admin - Saved Results"
+                : "Admin - Saved Results (" + ResultsCsv.files().size() + " shards, merged)", true);
+        dlg.setSize(1040, 560);
         dlg.setLocationRelativeTo(frame);
 
         JPanel root = new JPanel(new BorderLayout(8,8));
         root.setBorder(new EmptyBorder(8,8,8,8));
-        DefaultTableModel tm = new DefaultTableModel(new Object[]{"Timestamp", "Name", "Email", "Score%", "Correct", "Total", "Answers"}, 0) {
-            public boolean isCellEditable(int r, int c) { return false; }
-        };
+        // Paged view over the mapped file; rows are parsed on demand and sorted by the model.
+        // It follows the file, so submissions arriving while the dialog is open are added
+        ResultsTableModel tm = new ResultsTableModel(file, true, ex -> {
+            Metrics.error("results_load", ex);
+            JOptionPane.showMessageDialog(dlg, "Failed to load results: " + ex.getMessage(), "IO Error", JOptionPane.ERROR_MESSAGE);
+        });
         JTable table = new JTable(tm);
-        table.setAutoCreateRowSorter(true);
-        root.add(new JScrollPane(table), BorderLayout.CENTER);
+        table.setRowSorter(tm.sorter());
+        JScrollPane scroll = new JScrollPane(table);
+        root.add(scroll, BorderLayout.CENTER);
+        // Stay at the newest rows while the view is scrolled to the bottom
+        JScrollBar vbar = scroll.getVerticalScrollBar();
+        boolean[] atEnd = {false};
+        vbar.addAdjustmentListener(e -> {
+            if (!e.getValueIsAdjusting()) atEnd[0] = vbar.getValue() + vbar.getVisibleAmount() >= vbar.getMaximum() - 2;
+        });
+        tm.addTableModelListener(e -> {
+            if (e.getType() == javax.swing.event.TableModelEvent.INSERT && atEnd[0] && tm.getRowCount() > 0) {
+                SwingUtilities.invokeLater(() -> table.scrollRectToVisible(table.getCellRect(tm.getRowCount() - 1, 0, true)));
+            }
+        });
 
-        // Load CSV into table
-        if (Files.exists(RESULTS_CSV)) {
-            try {
-                List<String> lines = Files.readAllLines(RESULTS_CSV, StandardCharsets.UTF_8);
-                boolean first = true;
-                for (String ln : lines) {
-                    if (first) { first = false; continue; } // header
-                    String[] parts = splitCsvLine(ln);
-                    if (parts.length >= 7) {
-                        tm.addRow(new Object[]{parts[0], parts[1], parts[2], parts[3], parts[4], parts[5], parts[6]});
-                    }
+        ResultsIndex index = plain ? ResultsIndex.shared() : mergedIndex;
+        if (!plain) index.start();
+        root.add(buildFilterBar(dlg, tm, index), BorderLayout.NORTH);
+
+        // Index the CSV in the background; rows appear as the index grows
+        tm.reload();
+        // The merged copy is topped up from the shards every -Dquiz.admin.pollMs (default 500)
+        ScheduledExecutorService merging = plain ? null : Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "results-merge");
+            t.setDaemon(true);
+            return t;
+        });
+        if (!plain) {
+            long pollMs = Math.max(100, Long.getLong("quiz.admin.pollMs", 500));
+            merging.scheduleWithFixedDelay(() -> {
+                try {
+                    merged.sync();
+                    mergedIndex.catchUp();
+                } catch (IOException ex) {
+                    Metrics.error("results_load", ex);
                 }
-            } catch (Exception ex) {
-                ex.printStackTrace();
-                JOptionPane.showMessageDialog(frame, "Failed to load results: " + ex.getMessage(), "IO Error", JOptionPane.ERROR_MESSAGE);
-            }
+            }, pollMs, pollMs, TimeUnit.MILLISECONDS);
         }
+        // After a clear or re-grade: the plain view rereads the file, the merged copy is rebuilt
+        Runnable refresh = plain ? tm::reload : () -> new Thread(() -> {
+            try {
+                merged.rebuild();
+                SwingUtilities.invokeLater(() -> {
+                    tm.reload();
+                    index.reset();
+                });
+            } catch (IOException ex) {
+                Metrics.error("results_load", ex);
+            }
+        }, "results-merge").start();
 
         JPanel bottom = new JPanel(new FlowLayout(FlowLayout.RIGHT, 8, 8));
-        JButton btnExport = new JButton("Export CSV");
+        JLabel lblRows = new JLabel("0 rows");
+        tm.addTableModelListener(e -> lblRows.setText(tm.isFiltered()
+                ? tm.getRowCount() + " of " + tm.fileRowCount() + " rows" : tm.getRowCount() + " rows"));
+        bottom.add(lblRows);
+        JButton btnStats = new JButton("Statistics");
+        JButton btnBoard = new JButton("Leaderboard");
+        JButton btnRange = new JButton("Date Range...");
+        JButton btnRegrade = new JButton("Re-grade...");
+        JButton btnExport = new JButton("Export...");
         JButton btnClear = new JButton("Clear All Results");
         JButton btnClose = new JButton("Close");
+        bottom.add(btnStats);
+        bottom.add(btnBoard);
+        bottom.add(btnRange);
+        bottom.add(btnRegrade);
         bottom.add(btnClear);
         bottom.add(btnExport);
         bottom.add(btnClose);
         root.add(bottom, BorderLayout.SOUTH);
 
-        btnExport.addActionListener(e -> {
-            JFileChooser fc = new JFileChooser();
-            fc.setSelectedFile(new File("results_export.csv"));
-            if (fc.showSaveDialog(dlg) == JFileChooser.APPROVE_OPTION) {
-                try {
-                    Files.copy(RESULTS_CSV, fc.getSelectedFile().toPath(), StandardCopyOption.REPLACE_EXISTING);
-                    JOptionPane.showMessageDialog(dlg, "Exported to: " + fc.getSelectedFile().getAbsolutePath());
-                } catch (Exception ex) {
-                    ex.printStackTrace();
-                    JOptionPane.showMessageDialog(dlg, "Export failed: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
-                }
-            }
+        btnStats.addActionListener(e -> {
+            // Served from the incrementally maintained counters, no file scan
+            JTextArea ta = new JTextArea(ResultAnalytics.sharedReport());
+            ta.setEditable(false);
+            ta.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+            ta.setCaretPosition(0);
+            JScrollPane sp = new JScrollPane(ta);
+            sp.setPreferredSize(new Dimension(640, 420));
+            JOptionPane.showMessageDialog(dlg, sp, "Result Statistics", JOptionPane.INFORMATION_MESSAGE);
         });
 
+        btnBoard.addActionListener(e -> showLeaderboard(dlg));
+
+        btnRange.addActionListener(e -> showRangeQuery(dlg));
+
+        btnRegrade.addActionListener(e -> showRegrade(dlg, refresh));
+
+        btnExport.addActionListener(e -> showExport(dlg));
+
         btnClear.addActionListener(e -> {
             int yn = JOptionPane.showConfirmDialog(dlg, "Delete ALL saved results? This cannot be undone.", "Confirm", JOptionPane.YES_NO_OPTION);
             if (yn == JOptionPane.YES_OPTION) {
                 try {
-                    Files.deleteIfExists(RESULTS_CSV);
-                    tm.setRowCount(0);
+                    ResultsCsv.clearAll().join(); // goes through the writers so their open channels are dropped
+                    refresh.run();
                     JOptionPane.showMessageDialog(dlg, "Results cleared.");
                 } catch (Exception ex) {
-                    ex.printStackTrace();
+                    Metrics.error("results_clear", ex);
                     JOptionPane.showMessageDialog(dlg, "Failed to clear: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
                 }
             }
         });
 
         btnClose.addActionListener(e -> dlg.dispose());
+        dlg.setDefaultCloseOperation(WindowConstants.DISPOSE_ON_CLOSE);
+        dlg.addWindowListener(new java.awt.event.WindowAdapter() {
+            public void windowClosed(java.awt.event.WindowEvent e) {
+                tm.close();
+                if (plain) return;
+                merging.shutdown(); // no interrupt mid-append; the copy stays, so the next open only merges what is new
+                mergedIndex.close();
+            }
+        });
 
         dlg.setContentPane(root);
         dlg.setVisible(true);
     }
 
-    // ---------------- Utilities ----------------
-    private static String escapeCsv(String s) {
-        if (s == null) return "";
-        if (s.contains(",") || s.contains("\"") || s.contains("\n")) return "\"" + s.replace("\"", "\"\"") + "\"";
-        return s;
-    }
-
-    // Basic CSV splitter that handles simple quoted fields
-    private static String[] splitCsvLine(String line) {
-        List<String> out = new ArrayList<>();
-        StringBuilder cur = new StringBuilder();
-        boolean inQuotes = false;
-        for (int i = 0; i < line.length(); i++) {
-            char c = line.charAt(i);
-            if (inQuotes) {
-                if (c == '"') {
-                    if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
-                        cur.append('"');
-                        i++; // skip escaped quote
-                    } else {
-                        inQuotes = false;
-                    }
-                } else {
-                    cur.append(c);
+    // Filters answered by the search indexes; the table then shows only the matching rows
+    private JPanel buildFilterBar(JDialog dlg, ResultsTableModel tm, ResultsIndex index) {
+        JPanel bar = new JPanel(new FlowLayout(FlowLayout.LEFT, 6, 4));
+        JTextField email = new JTextField(14);
+        JTextField name = new JTextField(10);
+        JTextField from = new JTextField(8);
+        JTextField to = new JTextField(8);
+        JTextField minScore = new JTextField(3);
+        JTextField maxScore = new JTextField(3);
+        JButton apply = new JButton("Filter");
+        JButton reset = new JButton("Clear");
+        JLabel status = new JLabel(" ");
+        email.setToolTipText("Exact email, or a prefix ending in *");
+        name.setToolTipText("Start of the name or of any word in it");
+        from.setToolTipText("yyyy-mm-dd");
+        to.setToolTipText("yyyy-mm-dd");
+        bar.add(new JLabel("Email:"));
+        bar.add(email);
+        bar.add(new JLabel("Name:"));
+        bar.add(name);
+        bar.add(new JLabel("From:"));
+        bar.add(from);
+        bar.add(new JLabel("To:"));
+        bar.add(to);
+        bar.add(new JLabel("Score:"));
+        bar.add(minScore);
+        bar.add(new JLabel("-"));
+        bar.add(maxScore);
+        bar.add(apply);
+        bar.add(reset);
+        bar.add(status);
+
+        Runnable run = () -> {
+            ResultsIndex.Query q = new ResultsIndex.Query();
+            try {
+                q.email = email.getText();
+                q.name = name.getText();
+                if (!from.getText().trim().isEmpty()) {
+                    q.fromStamp = SegmentedResultLog.stamp(java.time.LocalDate.parse(from.getText().trim()).atStartOfDay());
                 }
-            } else {
-                if (c == '"') {
-                    inQuotes = true;
-                } else if (c == ',') {
-                    out.add(cur.toString());
-                    cur.setLength(0);
-                } else {
-                    cur.append(c);
+                if (!to.getText().trim().isEmpty()) {
+                    q.toStamp = SegmentedResultLog.stamp(java.time.LocalDate.parse(to.getText().trim()).atTime(23, 59, 59));
                 }
+                if (!minScore.getText().trim().isEmpty()) q.minScore = Integer.parseInt(minScore.getText().trim());
+                if (!maxScore.getText().trim().isEmpty()) q.maxScore = Integer.parseInt(maxScore.getText().trim());
+            } catch (java.time.format.DateTimeParseException | NumberFormatException ex) {
+                JOptionPane.showMessageDialog(dlg, "Dates look like 2024-05-31 and scores are whole numbers.", "Invalid filter", JOptionPane.WARNING_MESSAGE);
+                return;
             }
+            long t0 = System.nanoTime();
+            long[] matches = index.find(q);
+            long micros = (System.nanoTime() - t0) / 1000;
+            tm.setFilter(matches);
+            status.setText(String.format("%d matches in %.1f ms%s", matches.length, micros / 1000.0,
+                    index.isReady() ? "" : " (index still building)"));
+        };
+        apply.addActionListener(e -> run.run());
+        for (JTextField f : new JTextField[]{email, name, from, to, minScore, maxScore}) f.addActionListener(e -> run.run());
+        reset.addActionListener(e -> {
+            for (JTextField f : new JTextField[]{email, name, from, to, minScore, maxScore}) f.setText("");
+            tm.setFilter(null);
+            status.setText(" ");
+        });
+        return bar;
+    }
+
+    // Top attempts from the live leaderboard, no file scan
+    private void showLeaderboard(JDialog owner) {
+        Leaderboard board = Leaderboard.shared();
+        StringBuilder sb = new StringBuilder();
+        if (!board.isReady()) sb.append("(still rebuilding from results.csv — ranking is partial)\n\n");
+        sb.append(String.format("%-5s %-24s %-32s %6s  %s%n", "Rank", "Name", "Email", "Score", "Reached"));
+        int rank = 0;
+        for (Leaderboard.Entry e : board.top(50)) {
+            long t = e.stamp;
+            sb.append(String.format("%-5d %-24s %-32s %5d%%  %04d-%02d-%02d %02d:%02d:%02d%n", ++rank, e.name, e.email, e.score,
+                    t / 10_000_000_000L, t / 100_000_000 % 100, t / 1_000_000 % 100, t / 10_000 % 100, t / 100 % 100, t % 100));
         }
-        out.add(cur.toString());
-        return out.toArray(new String[0]);
+        sb.append("\n").append(board.size()).append(" ranked emails");
+        JTextArea ta = new JTextArea(sb.toString());
+        ta.setEditable(false);
+        ta.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        ta.setCaretPosition(0);
+        JScrollPane sp = new JScrollPane(ta);
+        sp.setPreferredSize(new Dimension(760, 420));
+        JOptionPane.showMessageDialog(owner, sp, "Leaderboard", JOptionPane.INFORMATION_MESSAGE);
     }
 
-    // ---------------- Simple types ----------------
-    private static class Question {
-        final String text;
-        final String[] choices;
-        final int correctIndex;
-        Question(String text, String[] choices, int correctIndex) {
-            this.text = text;
-            this.choices = choices;
-            this.correctIndex = correctIndex;
+    // Re-scores every stored result against a corrected key, in the background with progress
+    private void showRegrade(JDialog owner, Runnable refresh) {
+        if (Regrader.unsupported() != null) {
+            JOptionPane.showMessageDialog(owner, Regrader.unsupported(), "Re-grade Results", JOptionPane.WARNING_MESSAGE);
+            return;
+        }
+        StringBuilder current = new StringBuilder();
+        for (Question q : QuizEngine.sampleQuestions()) {
+            if (current.length() > 0) current.append(',');
+            current.append(q.correctIndex);
         }
+        String input = (String) JOptionPane.showInputDialog(owner,
+                "Correct choice index (0-based) for each question position, comma separated:",
+                "Re-grade Results", JOptionPane.QUESTION_MESSAGE, null, null, current.toString());
+        if (input == null || input.trim().isEmpty()) return;
+        int[] key;
+        try {
+            key = Regrader.parseKey(input);
+        } catch (IllegalArgumentException ex) {
+            JOptionPane.showMessageDialog(owner, "The key must look like 1,1,1,0,2.", "Invalid key", JOptionPane.WARNING_MESSAGE);
+            return;
+        }
+        ProgressMonitor pm = new ProgressMonitor(owner, "Re-grading results", null, 0, 1000);
+        pm.setMillisToDecideToPopup(200);
+        new Thread(() -> {
+            try {
+                Regrader.Summary sum = new Regrader(key).run(ResultsCsv.files(), ResultsCsv.log(), ResultsCsv.shards(), (done, total) -> {
+                    int v = (int) (1000 * done / Math.max(1, total));
+                    SwingUtilities.invokeLater(() -> pm.setProgress(Math.min(999, v)));
+                    return !pm.isCanceled();
+                });
+                SwingUtilities.invokeLater(() -> {
+                    pm.close();
+                    refresh.run();
+                    JTextArea ta = new JTextArea(sum.report());
+                    ta.setEditable(false);
+                    ta.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+                    JOptionPane.showMessageDialog(owner, new JScrollPane(ta), "Re-grade Complete", JOptionPane.INFORMATION_MESSAGE);
+                });
+            } catch (CancellationException ex) {
+                SwingUtilities.invokeLater(() -> {
+                    pm.close();
+                    JOptionPane.showMessageDialog(owner, "Re-grade cancelled; segments finished before cancelling keep their new scores.");
+                });
+            } catch (IOException | RuntimeException ex) {
+                Metrics.error("results_regrade", ex);
+                SwingUtilities.invokeLater(() -> {
+                    pm.close();
+                    JOptionPane.showMessageDialog(owner, "Re-grade failed: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+                });
+            }
+        }, "results-regrade").start();
     }
 
-    private static class User {
-        final String name;
-        final String email;
-        User(String name, String email) { this.name = name; this.email = email; }
+    // Filtered export in the background with progress; the file is only replaced once complete
+    private void showExport(JDialog owner) {
+        JComboBox<String> format = new JComboBox<>(new String[]{"CSV", "JSON Lines"});
+        JCheckBox gzip = new JCheckBox("gzip");
+        JTextField from = new JTextField(10);
+        JTextField to = new JTextField(10);
+        JTextField minScore = new JTextField(4);
+        JTextField maxScore = new JTextField(4);
+        JTextField domains = new JTextField(16);
+        from.setToolTipText("yyyy-mm-dd, blank for no limit");
+        to.setToolTipText("yyyy-mm-dd, blank for no limit");
+        domains.setToolTipText("Comma separated, e.g. example.edu, school.org");
+        JPanel p = new JPanel(new GridLayout(6, 2, 6, 6));
+        JPanel fmt = new JPanel(new FlowLayout(FlowLayout.LEFT, 0, 0));
+        fmt.add(format);
+        fmt.add(gzip);
+        JPanel scores = new JPanel(new FlowLayout(FlowLayout.LEFT, 4, 0));
+        scores.add(minScore);
+        scores.add(new JLabel("to"));
+        scores.add(maxScore);
+        p.add(new JLabel("Format:"));
+        p.add(fmt);
+        p.add(new JLabel("From (yyyy-mm-dd):"));
+        p.add(from);
+        p.add(new JLabel("To (yyyy-mm-dd):"));
+        p.add(to);
+        p.add(new JLabel("Score %:"));
+        p.add(scores);
+        p.add(new JLabel("Email domains:"));
+        p.add(domains);
+        p.add(new JLabel("Blank fields match everything."));
+        if (JOptionPane.showConfirmDialog(owner, p, "Export Results", JOptionPane.OK_CANCEL_OPTION) != JOptionPane.OK_OPTION) return;
+
+        ResultsExporter.Filter filter = new ResultsExporter.Filter();
+        try {
+            filter.days(from.getText().trim().isEmpty() ? null : java.time.LocalDate.parse(from.getText().trim()),
+                    to.getText().trim().isEmpty() ? null : java.time.LocalDate.parse(to.getText().trim()));
+            if (!minScore.getText().trim().isEmpty()) filter.minScore = Integer.parseInt(minScore.getText().trim());
+            if (!maxScore.getText().trim().isEmpty()) filter.maxScore = Integer.parseInt(maxScore.getText().trim());
+            filter.domains(domains.getText());
+        } catch (java.time.format.DateTimeParseException | NumberFormatException ex) {
+            JOptionPane.showMessageDialog(owner, "Dates look like 2024-05-31 and scores are whole numbers.", "Invalid filter", JOptionPane.WARNING_MESSAGE);
+            return;
+        }
+        boolean json = format.getSelectedIndex() == 1;
+        JFileChooser fc = new JFileChooser();
+        fc.setSelectedFile(new File("results_export" + (json ? ".jsonl" : ".csv") + (gzip.isSelected() ? ".gz" : "")));
+        if (fc.showSaveDialog(owner) != JFileChooser.APPROVE_OPTION) return;
+        Path target = fc.getSelectedFile().toPath();
+        ResultsExporter exporter = new ResultsExporter(filter, json ? ResultsExporter.Format.JSONL : ResultsExporter.Format.CSV, gzip.isSelected());
+
+        ProgressMonitor pm = new ProgressMonitor(owner, "Exporting results", null, 0, 1000);
+        pm.setMillisToDecideToPopup(200);
+        new Thread(() -> {
+            try {
+                long t0 = System.nanoTime();
+                ResultsExporter.Summary sum = exporter.exportTo(ResultsCsv.files(), ResultsCsv.log(), target, (done, total) -> {
+                    int v = (int) (1000 * done / Math.max(1, total));
+                    SwingUtilities.invokeLater(() -> pm.setProgress(Math.min(999, v)));
+                    return !pm.isCanceled();
+                });
+                long ms = (System.nanoTime() - t0) / 1_000_000;
+                SwingUtilities.invokeLater(() -> {
+                    pm.close();
+                    JOptionPane.showMessageDialog(owner, String.format("Exported %d rows (%.1f MB) in %.1f s to:%n%s",
+                            sum.rows, sum.bytesWritten / 1048576.0, ms / 1000.0, target.toAbsolutePath()));
+                });
+            } catch (CancellationException ex) {
+                SwingUtilities.invokeLater(() -> {
+                    pm.close();
+                    JOptionPane.showMessageDialog(owner, "Export cancelled; nothing was written.");
+                });
+            } catch (IOException | RuntimeException ex) {
+                Metrics.error("results_export", ex);
+                SwingUtilities.invokeLater(() -> {
+                    pm.close();
+                    JOptionPane.showMessageDialog(owner, "Export failed: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+                });
+            }
+        }, "results-export").start();
+    }
+
+    // Results between two dates; only segments overlapping the range are read
+    private void showRangeQuery(JDialog owner) {
+        JTextField from = new JTextField(java.time.LocalDate.now().minusDays(7).toString(), 10);
+        JTextField to = new JTextField(java.time.LocalDate.now().toString(), 10);
+        JPanel p = new JPanel(new GridLayout(2, 2, 6, 6));
+        p.add(new JLabel("From (yyyy-mm-dd):"));
+        p.add(from);
+        p.add(new JLabel("To (yyyy-mm-dd):"));
+        p.add(to);
+        if (JOptionPane.showConfirmDialog(owner, p, "Results by Date", JOptionPane.OK_CANCEL_OPTION) != JOptionPane.OK_OPTION) return;
+        java.time.LocalDateTime lo, hi;
+        try {
+            lo = java.time.LocalDate.parse(from.getText().trim()).atStartOfDay();
+            hi = java.time.LocalDate.parse(to.getText().trim()).atTime(23, 59, 59);
+        } catch (java.time.format.DateTimeParseException ex) {
+            JOptionPane.showMessageDialog(owner, "Dates must look like 2024-05-31.", "Invalid date", JOptionPane.WARNING_MESSAGE);
+            return;
+        }
+        String title = "Results " + from.getText().trim() + " to " + to.getText().trim();
+        new Thread(() -> {
+            try {
+                Path tmp = Files.createTempFile("quiz-range", ".csv");
+                tmp.toFile().deleteOnExit();
+                long rows;
+                try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16)) {
+                    rows = ResultsCsv.export(lo, hi, os);
+                }
+                SwingUtilities.invokeLater(() -> showRangeResults(owner, tmp, title + " (" + rows + " rows)"));
+            } catch (IOException ex) {
+                Metrics.error("results_query", ex);
+                SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(owner, "Query failed: " + ex.getMessage(), "IO Error", JOptionPane.ERROR_MESSAGE));
+            }
+        }, "results-query").start();
+    }
+
+    private void showRangeResults(JDialog owner, Path file, String title) {
+        JDialog dlg = new JDialog(owner, title, true);
+        dlg.setSize(820, 520);
+        dlg.setLocationRelativeTo(owner);
+        ResultsTableModel tm = new ResultsTableModel(file, ex -> Metrics.error("results_load", ex));
+        JPanel root = new JPanel(new BorderLayout(8, 8));
+        root.setBorder(new EmptyBorder(8, 8, 8, 8));
+        JTable table = new JTable(tm);
+        table.setRowSorter(tm.sorter());
+        root.add(new JScrollPane(table), BorderLayout.CENTER);
+        tm.reload();
+
+        JPanel bottom = new JPanel(new FlowLayout(FlowLayout.RIGHT, 8, 8));
+        JButton btnExport = new JButton("Export CSV");
+        JButton btnClose = new JButton("Close");
+        bottom.add(btnExport);
+        bottom.add(btnClose);
+        root.add(bottom, BorderLayout.SOUTH);
+        btnExport.addActionListener(e -> {
+            JFileChooser fc = new JFileChooser();
+            fc.setSelectedFile(new File("results_range.csv"));
+            if (fc.showSaveDialog(dlg) == JFileChooser.APPROVE_OPTION) {
+                try {
+                    Files.copy(file, fc.getSelectedFile().toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    JOptionPane.showMessageDialog(dlg, "Exported to: " + fc.getSelectedFile().getAbsolutePath());
+                } catch (Exception ex) {
+                    Metrics.error("results_export", ex);
+                    JOptionPane.showMessageDialog(dlg, "Export failed: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        });
+        btnClose.addActionListener(e -> dlg.dispose());
+        dlg.setDefaultCloseOperation(WindowConstants.DISPOSE_ON_CLOSE);
+        dlg.addWindowListener(new java.awt.event.WindowAdapter() {
+            public void windowClosed(java.awt.event.WindowEvent e) {
+                tm.close();
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException ex) {
+                    // deleteOnExit will retry
+                }
+            }
+        });
+        dlg.setContentPane(root);
+        dlg.setVisible(true);
     }
 }
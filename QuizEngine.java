@@ -0,0 +1,260 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+/**
+ * Headless quiz engine hosting any number of concurrent sessions. The Swing UI and the HTTP
+ * front end are both clients of this class.
+ */
+final class QuizEngine {
+
+    /** Notified (on the deadline dispatcher thread) when a question times out and the engine advances. */
+    interface SessionListener {
+        /** {@code finished} is non-null when the timed-out question was the last one. */
+        void timedOut(QuizSession s, CompletableFuture<QuizResult> finished);
+    }
+
+    private final Supplier<List<Question>> papers;
+    private final List<Question> fixed;      // the shared paper, when every session gets the same one
+    private final QuestionBank bank;         // source of QuestionPaper offsets, when drawing from a bank
+    private final int secondsPerQuestion;
+    private final Map<String, QuizSession> sessions = new ConcurrentHashMap<>();
+    private final DeadlineWheel wheel;
+    private final List<QuizSession> recovered = new ArrayList<>();
+    private volatile SessionJournal journal;
+
+    /** Every session gets the same fixed question list. */
+    QuizEngine(List<Question> questions, int secondsPerQuestion) {
+        this(null, Collections.unmodifiableList(new ArrayList<>(questions)), null, secondsPerQuestion);
+    }
+
+    /** Every session gets its own paper from {@code papers}. */
+    QuizEngine(Supplier<List<Question>> papers, int secondsPerQuestion) {
+        this(papers, null, null, secondsPerQuestion);
+    }
+
+    private QuizEngine(Supplier<List<Question>> papers, List<Question> fixed, QuestionBank bank, int secondsPerQuestion) {
+        this.papers = papers != null ? papers : constant(fixed);
+        this.fixed = fixed;
+        this.bank = bank;
+        this.secondsPerQuestion = secondsPerQuestion;
+        // 100 ms resolution, 512 buckets; expired batches run on one dispatcher thread
+        ExecutorService dispatcher = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "deadline-dispatch");
+            t.setDaemon(true);
+            return t;
+        });
+        this.wheel = new DeadlineWheel(100, 512, dispatcher);
+    }
+
+    private static Supplier<List<Question>> constant(List<Question> questions) {
+        return () -> questions;
+    }
+
+    /**
+     * Engine configured from system properties: with {@code -Dquiz.bank=path} each session draws
+     * {@code quiz.paper.size} (default 20) questions from that bank, topic-stratified unless
+     * {@code -Dquiz.paper.stratified=false}; without it the built-in sample questions are used.
+     */
+    static QuizEngine fromSystemProperties(int secondsPerQuestion) throws IOException {
+        String bankPath = System.getProperty("quiz.bank");
+        QuizEngine engine;
+        if (bankPath == null) {
+            engine = new QuizEngine(sampleQuestions(), secondsPerQuestion);
+        } else {
+            long t0 = System.nanoTime();
+            QuestionBank bank = QuestionBank.open(Paths.get(bankPath));
+            Metrics.BANK_OPEN.recordSince(t0);
+            int size = Integer.getInteger("quiz.paper.size", 20);
+            boolean stratified = Boolean.parseBoolean(System.getProperty("quiz.paper.stratified", "true"));
+            engine = new QuizEngine(() -> stratified
+                    ? bank.sampleStratified(size, ThreadLocalRandom.current())
+                    : bank.sample(size, ThreadLocalRandom.current()), null, bank, secondsPerQuestion);
+        }
+        String journalPath = System.getProperty("quiz.journal", "sessions.journal");
+        if (!journalPath.equalsIgnoreCase("off")) {
+            engine.recover(Paths.get(journalPath), Long.getLong("quiz.journal.syncMs", 1000),
+                    Long.getLong("quiz.journal.maxBytes", 64L << 20));
+        }
+        return engine;
+    }
+
+    /**
+     * Resumes the unfinished sessions journaled at {@code path} (answers, question and remaining
+     * time restored, countdowns re-armed) and journals this engine's sessions there from now on,
+     * compacting the file whenever it passes {@code maxBytes}. The journal is closed at JVM shutdown.
+     */
+    void recover(Path path, long syncMillis, long maxBytes) throws IOException {
+        List<SessionJournal.Recovered> keep = new ArrayList<>();
+        for (SessionJournal.Recovered r : SessionJournal.replay(path)) {
+            List<Question> paper = r.paperKind == SessionJournal.PAPER_BANK && bank != null ? new QuestionPaper(bank, r.bankOffsets)
+                    : r.paperKind == SessionJournal.PAPER_FIXED && fixed != null && fixed.size() == r.paperSize ? fixed
+                    : r.paperKind == SessionJournal.PAPER_INLINE ? r.inline
+                    : null;
+            if (paper == null) continue; // question source no longer configured
+            QuizSession s = new QuizSession(r.id, r.user, paper, r.secondsPerQuestion, null);
+            s.restore(r.currentIndex, r.answers, r.remainingNanos, r.paused);
+            keep.add(r);
+            synchronized (recovered) {
+                recovered.add(s);
+            }
+            sessions.put(s.id, s);
+        }
+        SessionJournal j = SessionJournal.open(path, syncMillis, maxBytes, keep);
+        Runtime.getRuntime().addShutdownHook(new Thread(j::close, "session-journal-shutdown"));
+        journal = j;
+        synchronized (recovered) {
+            for (QuizSession s : recovered) s.arm(wheel, () -> onExpiry(s));
+        }
+    }
+
+    /** Sessions resumed from the journal at startup that are still running. */
+    List<QuizSession> recoveredSessions() {
+        List<QuizSession> out = new ArrayList<>();
+        synchronized (recovered) {
+            for (QuizSession s : recovered) {
+                if (sessions.get(s.id) == s) out.add(s);
+            }
+        }
+        return out;
+    }
+
+    /** Attaches a client to a resumed session so it hears about timeouts. */
+    void claim(QuizSession s, SessionListener listener) {
+        s.listener = listener;
+    }
+
+    int secondsPerQuestion() { return secondsPerQuestion; }
+    int activeSessions() { return sessions.size(); }
+
+    QuizSession start(User user) {
+        return start(user, null);
+    }
+
+    /** Starts a session and its first question's countdown. */
+    QuizSession start(User user, SessionListener listener) {
+        String id = UUID.randomUUID().toString();
+        QuizSession s = new QuizSession(id, user, papers.get(), secondsPerQuestion, listener);
+        sessions.put(id, s);
+        Metrics.SESSIONS_STARTED.increment();
+        SessionJournal j = journal;
+        if (j != null) journalStart(j, s);
+        s.arm(wheel, () -> onExpiry(s));
+        return s;
+    }
+
+    private void journalStart(SessionJournal j, QuizSession s) {
+        if (s.questions == fixed) {
+            j.started(s, SessionJournal.PAPER_FIXED, null);
+        } else if (bank != null && s.questions instanceof QuestionPaper) {
+            QuestionPaper p = (QuestionPaper) s.questions;
+            long[] offsets = new long[p.size()];
+            for (int i = 0; i < offsets.length; i++) offsets[i] = p.offset(i);
+            j.started(s, SessionJournal.PAPER_BANK, offsets);
+        } else {
+            j.started(s, SessionJournal.PAPER_INLINE, null);
+        }
+    }
+
+    /** Records a choice for the session's current question. */
+    void answer(QuizSession s, int choice) {
+        synchronized (s) {
+            s.answer(choice);
+            SessionJournal j = journal;
+            if (j != null) j.answered(s, s.currentIndex(), choice);
+        }
+    }
+
+    /** Advances to the next question and re-arms its countdown. Returns false after the last one. */
+    boolean next(QuizSession s) {
+        synchronized (s) {
+            if (!s.next()) return false;
+            advanced(s);
+            return true;
+        }
+    }
+
+    // Caller holds the session lock
+    private void advanced(QuizSession s) {
+        SessionJournal j = journal;
+        if (j != null) j.advanced(s, s.currentIndex(), s.remainingNanos());
+        s.arm(wheel, () -> onExpiry(s));
+    }
+
+    /** Pauses or resumes the current question's countdown. Returns true when now paused. */
+    boolean togglePause(QuizSession s) {
+        synchronized (s) {
+            boolean paused = s.togglePause();
+            if (!paused) s.arm(wheel, () -> onExpiry(s));
+            SessionJournal j = journal;
+            if (j != null) {
+                if (paused) j.paused(s, s.remainingNanos());
+                else j.resumed(s, s.remainingNanos());
+            }
+            return paused;
+        }
+    }
+
+    // Runs on the deadline dispatcher, batched per wheel tick
+    private void onExpiry(QuizSession s) {
+        CompletableFuture<QuizResult> done = null;
+        synchronized (s) {
+            if (!s.consumeExpiry()) return;
+            Metrics.QUESTION_TIMEOUTS.increment();
+            if (s.next()) {
+                advanced(s);
+            } else {
+                try {
+                    done = finish(s.id);
+                } catch (NoSuchElementException e) {
+                    return; // client finished concurrently
+                }
+            }
+        }
+        if (s.listener != null) s.listener.timedOut(s, done);
+    }
+
+    /** Returns the live session, or throws NoSuchElementException for unknown/finished ids. */
+    QuizSession get(String id) {
+        QuizSession s = sessions.get(id);
+        if (s == null) throw new NoSuchElementException("Unknown session: " + id);
+        return s;
+    }
+
+    /**
+     * Scores the session and removes it from the engine. The returned future completes with the
+     * result once it has been durably appended to the results file.
+     */
+    CompletableFuture<QuizResult> finish(String id) {
+        QuizSession s = sessions.remove(id);
+        if (s == null) throw new NoSuchElementException("Unknown session: " + id);
+        QuizResult r = s.finish();
+        SessionJournal j = journal;
+        // Journaled as finished only once the result is durable, so a crash in between resumes it
+        return ResultsCsv.save(r).thenApply(v -> {
+            if (j != null) j.finished(s);
+            return r;
+        });
+    }
+
+    /** Default question set used when no bank is configured. */
+    static List<Question> sampleQuestions() {
+        List<Question> questions = new ArrayList<>();
+        // Sample questions - you can replace these or load from a file
+        questions.add(new Question("Which data structure uses FIFO order?",
+                new String[]{"Stack", "Queue", "Tree", "Graph"}, 1));
+        questions.add(new Question("Which keyword is used to inherit a class in Java?",
+                new String[]{"implements", "extends", "inherits", "uses"}, 1));
+        questions.add(new Question("What is the time complexity of binary search (sorted array)?",
+                new String[]{"O(n)", "O(log n)", "O(n log n)", "O(1)"}, 1));
+        questions.add(new Question("Which HTML tag is used for the largest heading?",
+                new String[]{"<h1>", "<head>", "<header>", "<h6>"}, 0));
+        questions.add(new Question("Which of these is NOT a primitive type in Java?",
+                new String[]{"int", "boolean", "String", "double"}, 2));
+        return questions;
+    }
+}
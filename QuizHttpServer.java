@@ -0,0 +1,227 @@
+import com.sun.net.httpserver.*;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Local HTTP front end for {@link QuizEngine}.
+ *
+ * <pre>
+ * POST /sessions?name=..&amp;email=..      start a session
+ * GET  /sessions/{id}/question           current question
+ * POST /sessions/{id}/answer?choice=n    record a choice for the current question
+ * POST /sessions/{id}/next               advance
+ * POST /sessions/{id}/finish             score, persist and close the session
+ * </pre>
+ */
+final class QuizHttpServer {
+
+    private final QuizEngine engine;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    QuizHttpServer(QuizEngine engine, int port) throws IOException {
+        this.engine = engine;
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 1024);
+        this.executor = newRequestExecutor();
+        server.createContext("/sessions", this::handle);
+        server.createContext("/metrics", Metrics::handle);
+        server.createContext("/leaderboard", this::leaderboard);
+        server.setExecutor(executor);
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+        QuizEngine engine = QuizEngine.fromSystemProperties(20);
+        ResultsCsv.shards(); // opens the writers and starts the analytics rebuild
+        QuizHttpServer s = new QuizHttpServer(engine, port);
+        s.start();
+        System.out.println("Quiz HTTP server listening on http://127.0.0.1:" + s.port() + "/sessions");
+    }
+
+    void start() { server.start(); }
+
+    void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    int port() { return server.getAddress().getPort(); }
+
+    // Thread-per-request on virtual threads where the runtime has them (JDK 21+), else a cached pool
+    static ExecutorService newRequestExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "quiz-http");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    // ---------------- Routing ----------------
+    private void handle(HttpExchange ex) throws IOException {
+        long t0 = System.nanoTime();
+        try {
+            String[] path = ex.getRequestURI().getPath().split("/");
+            // path = ["", "sessions", id?, action?]
+            String method = ex.getRequestMethod();
+            Map<String, String> q = query(ex.getRequestURI().getRawQuery());
+            if (path.length == 2 && method.equals("POST")) {
+                String name = require(q, "name"), email = require(q, "email");
+                QuizSession s = engine.start(new User(name, email));
+                reply(ex, 200, "{\"session\":" + json(s.id) + ",\"questions\":" + s.questions.size() + "}");
+            } else if (path.length == 4) {
+                QuizSession s = engine.get(path[2]);
+                String action = path[3];
+                if (action.equals("question") && method.equals("GET")) {
+                    long r0 = System.nanoTime();
+                    String body = questionJson(s);
+                    Metrics.QUESTION_RENDER.recordSince(r0);
+                    reply(ex, 200, body);
+                } else if (action.equals("answer") && method.equals("POST")) {
+                    int choice = Integer.parseInt(require(q, "choice"));
+                    long a0 = System.nanoTime();
+                    engine.answer(s, choice);
+                    Metrics.ANSWER_RECORD.recordSince(a0);
+                    reply(ex, 200, "{\"ok\":true}");
+                } else if (action.equals("next") && method.equals("POST")) {
+                    boolean more = engine.next(s);
+                    reply(ex, 200, "{\"index\":" + s.currentIndex() + ",\"done\":" + !more + "}");
+                } else if (action.equals("finish") && method.equals("POST")) {
+                    QuizResult r = engine.finish(s.id).join(); // reply once durable
+                    reply(ex, 200, "{\"score\":" + r.scorePercent + ",\"correct\":" + r.correct + ",\"total\":" + r.total + "}");
+                } else {
+                    reply(ex, 405, "{\"error\":\"unsupported\"}");
+                }
+            } else {
+                reply(ex, 404, "{\"error\":\"not found\"}");
+            }
+        } catch (NoSuchElementException e) {
+            reply(ex, 404, "{\"error\":" + json(e.getMessage()) + "}");
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            reply(ex, 400, "{\"error\":" + json(e.getMessage()) + "}");
+        } catch (CompletionException e) {
+            Metrics.error("http", e.getCause());
+            reply(ex, 500, "{\"error\":" + json(String.valueOf(e.getCause().getMessage())) + "}");
+        } catch (Exception e) {
+            Metrics.error("http", e);
+            reply(ex, 500, "{\"error\":" + json(String.valueOf(e.getMessage())) + "}");
+        } finally {
+            Metrics.HTTP_REQUEST.recordSince(t0);
+        }
+    }
+
+    // GET /leaderboard?k=10 for the top entries, GET /leaderboard?email=... for one email's rank
+    private void leaderboard(HttpExchange ex) throws IOException {
+        long t0 = System.nanoTime();
+        try {
+            Map<String, String> q = query(ex.getRequestURI().getRawQuery());
+            Leaderboard board = Leaderboard.shared();
+            String email = q.get("email");
+            if (!ex.getRequestMethod().equals("GET")) {
+                reply(ex, 405, "{\"error\":\"unsupported\"}");
+            } else if (email != null) {
+                Leaderboard.Entry e = board.best(email);
+                int rank = board.rank(email);
+                if (e == null || rank == 0) {
+                    reply(ex, 404, "{\"error\":" + json("No result for " + email) + "}");
+                } else {
+                    reply(ex, 200, "{\"rank\":" + rank + ",\"of\":" + board.size() + ",\"entry\":" + entryJson(e) + "}");
+                }
+            } else {
+                int k = Integer.parseInt(q.getOrDefault("k", "10"));
+                if (k < 0 || k > 1000) throw new IllegalArgumentException("k must be within 0..1000");
+                StringBuilder sb = new StringBuilder("{\"ready\":").append(board.isReady())
+                        .append(",\"size\":").append(board.size()).append(",\"top\":[");
+                List<Leaderboard.Entry> top = board.top(k);
+                for (int i = 0; i < top.size(); i++) {
+                    if (i > 0) sb.append(',');
+                    sb.append(entryJson(top.get(i)));
+                }
+                reply(ex, 200, sb.append("]}").toString());
+            }
+        } catch (IllegalArgumentException e) {
+            reply(ex, 400, "{\"error\":" + json(e.getMessage()) + "}");
+        } finally {
+            Metrics.HTTP_REQUEST.recordSince(t0);
+        }
+    }
+
+    private static String entryJson(Leaderboard.Entry e) {
+        return "{\"email\":" + json(e.email) + ",\"name\":" + json(e.name) + ",\"score\":" + e.score
+                + ",\"at\":" + e.stamp + "}";
+    }
+
+    private static String questionJson(QuizSession s) {
+        int idx;
+        Question qn;
+        int selected, secondsLeft;
+        synchronized (s) {
+            idx = s.currentIndex();
+            qn = s.currentQuestion();
+            selected = s.answerFor(idx);
+            secondsLeft = s.secondsLeft();
+        }
+        StringBuilder sb = new StringBuilder(128);
+        sb.append("{\"index\":").append(idx).append(",\"total\":").append(s.questions.size())
+                .append(",\"text\":").append(json(qn.text)).append(",\"choices\":[");
+        for (int i = 0; i < qn.choices.length; i++) {
+            if (i > 0) sb.append(',');
+            sb.append(json(qn.choices[i]));
+        }
+        sb.append("],\"selected\":").append(selected).append(",\"secondsLeft\":").append(secondsLeft).append('}');
+        return sb.toString();
+    }
+
+    // ---------------- Utilities ----------------
+    private static void reply(HttpExchange ex, int status, String body) throws IOException {
+        byte[] b = body.getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        ex.sendResponseHeaders(status, b.length);
+        try (OutputStream os = ex.getResponseBody()) {
+            os.write(b);
+        }
+    }
+
+    private static String require(Map<String, String> q, String key) {
+        String v = q.get(key);
+        if (v == null || v.trim().isEmpty()) throw new IllegalArgumentException("Missing parameter: " + key);
+        return v.trim();
+    }
+
+    private static Map<String, String> query(String raw) {
+        Map<String, String> out = new HashMap<>();
+        if (raw == null) return out;
+        for (String kv : raw.split("&")) {
+            int eq = kv.indexOf('=');
+            if (eq <= 0) continue;
+            out.put(URLDecoder.decode(kv.substring(0, eq), StandardCharsets.UTF_8),
+                    URLDecoder.decode(kv.substring(eq + 1), StandardCharsets.UTF_8));
+        }
+        return out;
+    }
+
+    static String json(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+                    else sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
@@ -0,0 +1,43 @@
+import java.util.*;
+
+/**
+ * Immutable outcome of a finished session.
+ */
+final class QuizResult {
+    final User user;
+    final int scorePercent;
+    final int correct;
+    final int total;
+    final Map<Integer, Integer> answers; // questionIdx -> choiceIdx
+    final int[] key;                     // correct choice per question, null when unknown
+
+    QuizResult(User user, int scorePercent, int correct, int total, Map<Integer, Integer> answers) {
+        this(user, scorePercent, correct, total, answers, null);
+    }
+
+    QuizResult(User user, int scorePercent, int correct, int total, Map<Integer, Integer> answers, int[] key) {
+        this.user = user;
+        this.scorePercent = scorePercent;
+        this.correct = correct;
+        this.total = total;
+        this.answers = answers;
+        this.key = key;
+    }
+
+    /** Per-question breakdown shown to the user after a quiz. */
+    String breakdown(List<Question> questions) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Results for ").append(user.name).append(" (").append(user.email).append(")\n\n");
+        for (int i = 0; i < questions.size(); i++) {
+            Question q = questions.get(i);
+            Integer ans = answers.get(i);
+            int chosen = ans == null ? -1 : ans;
+            boolean ok = (chosen == q.correctIndex);
+            sb.append("Q").append(i + 1).append(": ").append(ok ? "Correct" : "Incorrect").append('\n');
+            sb.append("  Your answer: ").append(chosen >= 0 ? q.choices[chosen] : "<no answer>").append("\n");
+            sb.append("  Correct answer: ").append(q.choices[q.correctIndex]).append("\n\n");
+        }
+        sb.append("Score: ").append(correct).append(" / ").append(total).append("  (").append(scorePercent).append("%)\n");
+        return sb.toString();
+    }
+}
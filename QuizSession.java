@@ -0,0 +1,150 @@
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * State of one test-taker's quiz. All mutators are synchronized on the session, so a session may
+ * be driven from the EDT, HTTP worker threads or timers without extra locking.
+ *
+ * The per-question countdown is a deadline on the engine's shared {@link DeadlineWheel}; pausing
+ * cancels the deadline and remembers the remaining time, resuming schedules it again.
+ */
+final class QuizSession {
+    final String id;
+    final User user;
+    final List<Question> questions;
+    final int secondsPerQuestion;
+    volatile QuizEngine.SessionListener listener; // may be null; set again when a recovered session is claimed
+
+    private int currentIndex = 0;
+    private final byte[] answers;                // per question: choiceIdx + 1, 0 when unanswered
+    private long remainingNanos;                 // countdown while not armed
+    private DeadlineWheel.Timeout timeout;       // armed deadline, null when paused/stopped
+    private boolean paused = false;
+    private boolean finished = false;
+
+    QuizSession(String id, User user, List<Question> questions, int secondsPerQuestion,
+                QuizEngine.SessionListener listener) {
+        this.id = id;
+        this.user = user;
+        this.questions = questions;
+        this.secondsPerQuestion = secondsPerQuestion;
+        this.listener = listener;
+        this.answers = new byte[questions.size()];
+        this.remainingNanos = TimeUnit.SECONDS.toNanos(secondsPerQuestion);
+    }
+
+    /** Restores journaled progress into a new, unarmed session (see {@link SessionJournal}). */
+    synchronized void restore(int currentIndex, byte[] answers, long remainingNanos, boolean paused) {
+        this.currentIndex = Math.min(currentIndex, questions.size() - 1);
+        System.arraycopy(answers, 0, this.answers, 0, Math.min(answers.length, this.answers.length));
+        this.remainingNanos = Math.max(0, remainingNanos);
+        this.paused = paused;
+    }
+
+    /** Copy of the raw answer state (choiceIdx + 1 per question, 0 when unanswered). */
+    synchronized byte[] answerBytes() {
+        return answers.clone();
+    }
+
+    /** Time left on the current question in nanoseconds. */
+    synchronized long remainingNanos() {
+        return Math.max(0, timeout == null ? remainingNanos : timeout.remainingNanos());
+    }
+
+    synchronized int currentIndex() { return currentIndex; }
+
+    synchronized int secondsLeft() {
+        return (int) ((remainingNanos() + 999_999_999L) / 1_000_000_000L);
+    }
+
+    synchronized boolean isPaused() { return paused; }
+    synchronized boolean isFinished() { return finished; }
+
+    synchronized Question currentQuestion() {
+        return questions.get(currentIndex);
+    }
+
+    /** Returns the recorded choice for a question, or -1 if unanswered. */
+    synchronized int answerFor(int idx) {
+        return answers[idx] - 1;
+    }
+
+    /** Records a choice for the current question. */
+    synchronized void answer(int choiceIdx) {
+        if (finished) throw new IllegalStateException("Session already finished");
+        Question q = questions.get(currentIndex);
+        if (choiceIdx < 0 || choiceIdx >= q.choices.length || choiceIdx >= Byte.MAX_VALUE) {
+            throw new IllegalArgumentException("Choice out of range: " + choiceIdx);
+        }
+        answers[currentIndex] = (byte) (choiceIdx + 1);
+    }
+
+    /** Moves to the next question. Returns false when the current question was the last one. */
+    synchronized boolean next() {
+        if (finished) return false;
+        if (currentIndex < questions.size() - 1) {
+            currentIndex++;
+            resetClock();
+            return true;
+        }
+        return false;
+    }
+
+    /** Stops the countdown and refills it for a fresh question. */
+    synchronized void resetClock() {
+        disarm();
+        remainingNanos = TimeUnit.SECONDS.toNanos(secondsPerQuestion);
+        paused = false;
+    }
+
+    /** Pauses (disarming the deadline) or resumes; the caller re-arms on resume. */
+    synchronized boolean togglePause() {
+        if (!paused) disarm();
+        paused = !paused;
+        return paused;
+    }
+
+    /** Schedules the remaining time of the current question on {@code wheel}. */
+    synchronized void arm(DeadlineWheel wheel, Runnable onExpiry) {
+        disarm();
+        if (finished || paused) return;
+        timeout = wheel.schedule(remainingNanos, onExpiry);
+    }
+
+    private void disarm() {
+        if (timeout == null) return;
+        timeout.cancel();
+        remainingNanos = Math.max(0, timeout.remainingNanos());
+        timeout = null;
+    }
+
+    /**
+     * True exactly once for a deadline that really fired for the current question; stale callbacks
+     * (after next/pause/finish re-armed or disarmed the session) return false.
+     */
+    synchronized boolean consumeExpiry() {
+        if (timeout == null || !timeout.isExpired()) return false;
+        timeout = null;
+        remainingNanos = 0;
+        return true;
+    }
+
+    /** Scores the session and marks it finished. */
+    synchronized QuizResult finish() {
+        disarm();
+        finished = true;
+        int correct = 0;
+        int[] key = new int[questions.size()];
+        Map<Integer, Integer> chosen = new HashMap<>();
+        for (int i = 0; i < questions.size(); i++) {
+            key[i] = questions.get(i).correctIndex;
+            int ans = answers[i] - 1;
+            if (ans < 0) continue;
+            chosen.put(i, ans);
+            if (ans == key[i]) correct++;
+        }
+        int score = Math.round((100f * correct) / questions.size());
+        return new QuizResult(user, score, correct, questions.size(), chosen, key);
+    }
+}
@@ -0,0 +1,129 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Record start offsets of a results file (header excluded), found with a quote-aware byte scan
+ * over read-only mappings. Used by the admin table and by the benchmarks; has no UI dependencies.
+ */
+final class RecordIndex {
+
+    static final long SEGMENT = 1L << 30; // bytes per mapping (a mapping is limited to 2 GB)
+
+    /** Called every 64 KB scanned; return false to stop. {@code count} includes a possibly open last record. */
+    interface Progress { boolean update(long[] offsets, int count); }
+
+    final MappedByteBuffer[] segments;
+    final long[] offsets;
+    final int count;
+    final long size;
+
+    private RecordIndex(MappedByteBuffer[] segments, long[] offsets, int count, long size) {
+        this.segments = segments;
+        this.offsets = offsets;
+        this.count = count;
+        this.size = size;
+    }
+
+    /** Maps the whole file in {@link #SEGMENT}-sized windows. */
+    static MappedByteBuffer[] map(FileChannel ch) throws IOException {
+        long size = ch.size();
+        int nSeg = (int) ((size + SEGMENT - 1) / SEGMENT);
+        MappedByteBuffer[] segs = new MappedByteBuffer[nSeg];
+        for (int i = 0; i < nSeg; i++) {
+            long base = i * SEGMENT;
+            segs[i] = ch.map(FileChannel.MapMode.READ_ONLY, base, Math.min(SEGMENT, size - base));
+        }
+        return segs;
+    }
+
+    /**
+     * Mappings of a file that has grown to {@code size}, given {@code segs} from {@link #map} or an
+     * earlier call: full windows are reused, and only the last, partial one and any new ones are mapped.
+     */
+    static MappedByteBuffer[] extend(FileChannel ch, MappedByteBuffer[] segs, long size) throws IOException {
+        int nSeg = (int) ((size + SEGMENT - 1) / SEGMENT);
+        MappedByteBuffer[] out = Arrays.copyOf(segs, nSeg);
+        for (int i = 0; i < nSeg; i++) {
+            long base = i * SEGMENT, len = Math.min(SEGMENT, size - base);
+            if (i < segs.length && segs[i].limit() == len) continue;
+            out[i] = ch.map(FileChannel.MapMode.READ_ONLY, base, len);
+        }
+        return out;
+    }
+
+    /** Indexes the mapped file. Returns null if {@code progress} asked to stop. */
+    static RecordIndex build(MappedByteBuffer[] segs, Progress progress) {
+        long t0 = System.nanoTime();
+        Scanner sc = new Scanner();
+        long size = 0;
+        for (MappedByteBuffer seg : segs) size += seg.limit();
+        if (!sc.scan(segs, size, progress)) return null;
+        Metrics.RESULTS_LOAD.recordSince(t0);
+        return new RecordIndex(segs, sc.offsets, sc.count, sc.pos);
+    }
+
+    /**
+     * Resumable quote-aware scan: {@link #scan} may be called again with mappings of a longer
+     * version of the same file and continues where it stopped, so an appended-to file is indexed
+     * by reading only its new bytes.
+     */
+    static final class Scanner {
+        long[] offsets = new long[1024];
+        int count;               // includes a possibly open last record
+        long pos;                // bytes scanned
+        private boolean header = true, inQuotes, lineStart = true;
+
+        /** Scans up to {@code to}, which must lie within {@code segs}. Returns false if {@code progress} asked to stop. */
+        boolean scan(MappedByteBuffer[] segs, long to, Progress progress) {
+            while (pos < to) {
+                MappedByteBuffer seg = segs[(int) (pos / SEGMENT)];
+                int i = (int) (pos % SEGMENT);
+                int limit = (int) Math.min(seg.limit(), i + (to - pos));
+                for (; i < limit; i++, pos++) {
+                    byte b = seg.get(i);
+                    if (lineStart && !header) {
+                        if (count == offsets.length) offsets = Arrays.copyOf(offsets, offsets.length * 2);
+                        offsets[count++] = pos;
+                    }
+                    lineStart = false;
+                    if (b == '"') {
+                        inQuotes = !inQuotes; // doubled quotes toggle twice
+                    } else if (b == '\n' && !inQuotes) {
+                        lineStart = true;
+                        header = false;
+                    }
+                    if ((i & 0xFFFF) == 0 && progress != null && !progress.update(offsets, count)) {
+                        pos++;
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        /** Whether the last record is still missing its line terminator. */
+        boolean lastOpen() {
+            return !lineStart && count > 0;
+        }
+    }
+
+    /** End offset (exclusive) of record {@code r}. */
+    long end(int r) {
+        return r + 1 < count ? offsets[r + 1] : size;
+    }
+
+    /** Copies {@code len} bytes at {@code pos} across mapping boundaries. */
+    static void copy(MappedByteBuffer[] segs, long pos, byte[] dst, int len) {
+        int done = 0;
+        while (done < len) {
+            long p = pos + done;
+            MappedByteBuffer seg = segs[(int) (p / SEGMENT)];
+            int off = (int) (p % SEGMENT);
+            int n = Math.min(len - done, seg.limit() - off);
+            seg.get(off, dst, done, n);
+            done += n;
+        }
+    }
+}
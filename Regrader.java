@@ -0,0 +1,382 @@
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Re-scores historical results against a corrected answer key. {@code score_percent} and
+ * {@code correct} are recomputed from each row's stored {@code answers}; every other byte of the
+ * row is copied unchanged. Rows whose question count differs from the key, or whose stored score is
+ * outside 0..100, are copied as they are and counted as skipped.
+ *
+ * A file is cut into record-aligned chunks ({@link ParallelCsv#chunks}) that are re-graded on the
+ * fork-join pool, each into its own part file; the parts are concatenated into a temporary file
+ * that replaces the original with an atomic move. Sealed plain segments are re-graded first, then
+ * the live results file inside {@link ResultWriter#exclusive}, where rows appended since the
+ * parallel pass are re-graded too. gzip archives are left alone and reported.
+ *
+ * The key is per position, so it only applies to the fixed paper; see {@link #unsupported}.
+ */
+final class Regrader {
+
+    /** Called from worker threads as bytes are processed; return false to cancel. */
+    interface Progress { boolean update(long doneBytes, long totalBytes); }
+
+    /** What a run changed. */
+    static final class Summary {
+        long rows;
+        long changed;
+        long raised;
+        long lowered;
+        long skipped;           // malformed, score outside 0..100, or question count differs from the key
+        long scoreBefore;       // sums over re-graded rows
+        long scoreAfter;
+        final long[] deltas = new long[201]; // score change + 100 -> rows
+        int files;
+        int archivesSkipped;
+
+        Summary merge(Summary o) {
+            rows += o.rows;
+            changed += o.changed;
+            raised += o.raised;
+            lowered += o.lowered;
+            skipped += o.skipped;
+            scoreBefore += o.scoreBefore;
+            scoreAfter += o.scoreAfter;
+            for (int i = 0; i < deltas.length; i++) deltas[i] += o.deltas[i];
+            files += o.files;
+            archivesSkipped += o.archivesSkipped;
+            return this;
+        }
+
+        String report() {
+            long graded = rows - skipped;
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("Files re-graded: %d%s%n", files,
+                    archivesSkipped > 0 ? " (" + archivesSkipped + " gzip archives left unchanged)" : ""));
+            sb.append(String.format("Rows: %d, re-graded %d, skipped %d%n", rows, graded, skipped));
+            sb.append(String.format("Changed: %d (%d up, %d down)%n", changed, raised, lowered));
+            if (graded > 0) {
+                sb.append(String.format("Mean score: %.2f%% -> %.2f%%%n", (double) scoreBefore / graded,
+                        (double) scoreAfter / graded));
+            }
+            if (changed > 0) {
+                sb.append("Score change   rows\n");
+                for (int d = 0; d < deltas.length; d++) {
+                    if (d != 100 && deltas[d] > 0) sb.append(String.format("  %+4d%%  %10d%n", d - 100, deltas[d]));
+                }
+            }
+            return sb.toString();
+        }
+    }
+
+    private final int[] key;
+
+    /**
+     * {@code key[q]} is the correct choice index of question position {@code q}.
+     *
+     * @throws IllegalStateException when {@link #unsupported} says results cannot be keyed by position
+     */
+    Regrader(int[] key) {
+        String why = unsupported();
+        if (why != null) throw new IllegalStateException(why);
+        this.key = key.clone();
+    }
+
+    /**
+     * Why a per-position key cannot be applied, or null when it can. With {@code -Dquiz.bank} each
+     * session draws its own paper and the CSV does not record which question stood at each
+     * position, so one key would overwrite every bank-drawn row's score with a meaningless one.
+     */
+    static String unsupported() {
+        if (System.getProperty("quiz.bank") == null) return null;
+        return "Results drawn from a question bank (-Dquiz.bank) do not record which question was asked at each "
+                + "position, so they cannot be re-graded against a per-position key.";
+    }
+
+    /** Parses a key such as {@code 1,1,1,0,2}. */
+    static int[] parseKey(String s) {
+        String[] parts = s.trim().split("\\s*,\\s*");
+        int[] key = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            key[i] = Integer.parseInt(parts[i]);
+            if (key[i] < 0) throw new IllegalArgumentException("Negative choice index in key: " + s);
+        }
+        return key;
+    }
+
+    /**
+     * Re-grades the sealed segments of {@code log} (may be null) and then {@code results}. With a
+     * {@code writer} the results file is swapped in order with its queued appends and the writer's
+     * listeners are reset; without one the file must not be written concurrently.
+     */
+    Summary run(Path results, SegmentedResultLog log, ResultWriter writer, Progress progress) throws IOException {
+        List<SegmentedResultLog.Segment> segs = log == null ? new ArrayList<>() : log.segments();
+        long total = Files.exists(results) ? Files.size(results) : 0;
+        for (SegmentedResultLog.Segment s : segs) total += s.archived() ? 0 : s.bytes;
+        AtomicLong done = new AtomicLong();
+        Progress p = (d, t) -> progress == null || progress.update(d, t);
+        long all = total;
+        Summary sum = new Summary();
+
+        for (SegmentedResultLog.Segment s : segs) {
+            if (s.archived()) {
+                sum.archivesSkipped++;
+                continue;
+            }
+            Path file = log.file(s);
+            Path tmp = file.resolveSibling(file.getFileName() + ".regrade");
+            try {
+                Summary part = regradeFile(file, 0, tmp, done, all, p);
+                if (log.replace(s, tmp)) {
+                    part.files++;
+                    sum.merge(part);
+                }
+            } catch (NoSuchFileException e) {
+                continue; // archived or dropped by retention meanwhile
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        }
+
+        if (Files.exists(results)) sum.merge(regradeLive(results, writer, done, all, p));
+        return sum;
+    }
+
+    /**
+     * Re-grades every shard in {@code files} (the segments of {@code log} with the first), each
+     * swapped in order with its own writer from {@code writers} (null offline). Progress covers
+     * all shards together.
+     */
+    Summary run(List<Path> files, SegmentedResultLog log, ResultShards writers, Progress progress) throws IOException {
+        long[] sizes = new long[files.size()];
+        long all = 0;
+        for (int i = 0; i < sizes.length; i++) {
+            Path f = files.get(i);
+            sizes[i] = Files.exists(f) ? Files.size(f) : 0;
+            if (i == 0 && log != null) {
+                for (SegmentedResultLog.Segment s : log.segments()) sizes[i] += s.archived() ? 0 : s.bytes;
+            }
+            all += sizes[i];
+        }
+        Summary sum = new Summary();
+        long base = 0, total = all;
+        for (int i = 0; i < sizes.length; i++) {
+            long b = base;
+            Progress p = progress == null ? null : (d, t) -> progress.update(b + d, Math.max(total, b + t));
+            sum.merge(run(files.get(i), i == 0 ? log : null, writers == null ? null : writers.writer(i), p));
+            base += sizes[i];
+        }
+        return sum;
+    }
+
+    // Parallel pass over what is there now, then the tail and the swap with appends held back
+    private Summary regradeLive(Path results, ResultWriter writer, AtomicLong done, long total, Progress p) throws IOException {
+        Path tmp = results.resolveSibling(results.getFileName() + ".regrade");
+        try {
+            for (int attempt = 0; ; attempt++) {
+                Object fileKey = Files.readAttributes(results, BasicFileAttributes.class).fileKey();
+                // The size may end inside a record the writer is still writing; its offset never does
+                long to;
+                try {
+                    to = writer == null ? Files.size(results) : writer.writtenTo().join();
+                } catch (CompletionException e) {
+                    throw new IOException(e.getCause());
+                }
+                Summary sum = regradeFile(results, to, tmp, done, total, p);
+                Runnable swap = () -> {
+                    try {
+                        if (!Files.exists(results) || !Objects.equals(fileKey, Files.readAttributes(results, BasicFileAttributes.class).fileKey())
+                                || Files.size(results) < to) {
+                            throw new ConcurrentModificationException("results file was rolled or replaced");
+                        }
+                        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                            long end = Files.size(results);
+                            if (end > to) sum.merge(regradeRange(results, to, end, out));
+                            out.force(true);
+                        }
+                        Files.move(tmp, results, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                };
+                try {
+                    if (writer != null) writer.exclusive(swap).join();
+                    else swap.run();
+                    sum.files++;
+                    return sum;
+                } catch (CompletionException | ConcurrentModificationException | UncheckedIOException e) {
+                    Throwable c = e instanceof CompletionException ? e.getCause() : e;
+                    if (c instanceof UncheckedIOException) throw ((UncheckedIOException) c).getCause();
+                    if (!(c instanceof ConcurrentModificationException) || attempt >= 2) throw new IOException(c);
+                    // Sealed into a segment during the pass; that segment is historical now, redo the new file
+                }
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Re-grades {@code [0, to)} of {@code in} (the whole file when {@code to} is 0) into
+     * {@code out} in parallel. Cancelling via {@code p} throws {@link CancellationException}.
+     */
+    Summary regradeFile(Path in, long to, Path out, AtomicLong done, long total, Progress p) throws IOException {
+        if (to == 0) to = Files.size(in);
+        List<long[]> chunks = ParallelCsv.chunks(in, 0, to);
+        long headerEnd = chunks.isEmpty() ? to : chunks.get(0)[0];
+        List<Path> parts = new ArrayList<>(chunks.size());
+        for (int i = 0; i < chunks.size(); i++) parts.add(out.resolveSibling(out.getFileName() + ".part" + i));
+        try {
+            List<ForkJoinTask<Summary>> tasks = new ArrayList<>(chunks.size());
+            for (int i = 0; i < chunks.size(); i++) {
+                long[] c = chunks.get(i);
+                Path part = parts.get(i);
+                tasks.add(ForkJoinPool.commonPool().submit(() -> {
+                    try (FileChannel o = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                            StandardOpenOption.TRUNCATE_EXISTING)) {
+                        Summary s = regradeRange(in, c[0], c[1], o);
+                        if (!p.update(done.addAndGet(c[1] - c[0]), total)) throw new CancellationException();
+                        return s;
+                    }
+                }));
+            }
+            Summary sum = new Summary();
+            try (FileChannel src = FileChannel.open(in, StandardOpenOption.READ);
+                 FileChannel dst = FileChannel.open(out, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                         StandardOpenOption.TRUNCATE_EXISTING)) {
+                transfer(src, 0, headerEnd, dst);
+                done.addAndGet(headerEnd);
+                for (int i = 0; i < tasks.size(); i++) {
+                    try {
+                        sum.merge(tasks.get(i).join());
+                    } catch (RuntimeException e) {
+                        for (ForkJoinTask<Summary> t : tasks) t.cancel(false);
+                        if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+                        throw e;
+                    }
+                    try (FileChannel part = FileChannel.open(parts.get(i), StandardOpenOption.READ)) {
+                        transfer(part, 0, part.size(), dst);
+                    }
+                    Files.delete(parts.get(i));
+                }
+                dst.force(true);
+            }
+            return sum;
+        } finally {
+            for (Path part : parts) Files.deleteIfExists(part);
+        }
+    }
+
+    private static void transfer(FileChannel src, long from, long to, FileChannel dst) throws IOException {
+        while (from < to) from += src.transferTo(from, to - from, dst);
+    }
+
+    // Sequential core: re-grades the records of [start, end) and appends them to out
+    private Summary regradeRange(Path in, long start, long end, FileChannel out) throws IOException {
+        Summary sum = new Summary();
+        ByteArrayOutputStream buf = new ByteArrayOutputStream(1 << 17);
+        byte[] scratch = new byte[256];
+        int[] chosen = new int[key.length];
+        try (FileChannel ch = FileChannel.open(in, StandardOpenOption.READ)) {
+            for (long base = start; base < end; ) {
+                long len = Math.min(end - base, RecordIndex.SEGMENT);
+                MappedByteBuffer mb = ch.map(FileChannel.MapMode.READ_ONLY, base, len);
+                CsvCodec.Reader rd = new CsvCodec.Reader(8);
+                int lastComplete = 0;
+                while (true) {
+                    int recStart = mb.position();
+                    if (!rd.next(mb)) break;
+                    int recEnd = mb.position();
+                    if (mb.get(recEnd - 1) != '\n' && base + recEnd < end) break; // cut by the mapping
+                    lastComplete = recEnd;
+                    sum.rows++;
+                    if (recEnd - recStart > scratch.length) scratch = new byte[Math.max(recEnd - recStart, scratch.length * 2)];
+                    if (!regradeRow(rd, recStart, recEnd, mb, buf, scratch, chosen, sum)) {
+                        sum.skipped++;
+                        mb.get(recStart, scratch, 0, recEnd - recStart);
+                        buf.write(scratch, 0, recEnd - recStart);
+                    }
+                    if (buf.size() >= 1 << 16) drain(buf, out);
+                }
+                if (lastComplete == 0) throw new IOException("Record larger than mapping window at offset " + base);
+                base += lastComplete;
+            }
+        }
+        drain(buf, out);
+        return sum;
+    }
+
+    private boolean regradeRow(CsvCodec.Reader rd, int recStart, int recEnd, MappedByteBuffer mb, ByteArrayOutputStream buf,
+                               byte[] scratch, int[] chosen, Summary sum) {
+        if (rd.fieldCount() < 7) return false;
+        int before = rd.parseInt(3), total = rd.parseInt(5);
+        // A stored score outside 0..100 is malformed: copied as is, and it would not fit the deltas
+        if (before < 0 || before > 100 || rd.parseInt(4) < 0 || total != key.length) return false;
+        Arrays.fill(chosen, -1);
+        ResultsBinary.forEachAnswer(rd, (q, c) -> { if (q < chosen.length) chosen[q] = c; });
+        int correct = 0;
+        for (int q = 0; q < total; q++) if (chosen[q] == key[q]) correct++;
+        int after = Math.round((100f * correct) / total);
+        // Bytes up to score_percent, the two new numbers, then from the comma before total_questions
+        int scoreAt = rd.offset(3), totalComma = rd.offset(5) - 1;
+        mb.get(recStart, scratch, 0, scoreAt - recStart);
+        buf.write(scratch, 0, scoreAt - recStart);
+        byte[] digits = (after + "," + correct).getBytes(StandardCharsets.US_ASCII);
+        buf.write(digits, 0, digits.length);
+        mb.get(totalComma, scratch, 0, recEnd - totalComma);
+        buf.write(scratch, 0, recEnd - totalComma);
+        sum.scoreBefore += before;
+        sum.scoreAfter += after;
+        sum.deltas[after - before + 100]++;
+        if (after != before) {
+            sum.changed++;
+            if (after > before) sum.raised++;
+            else sum.lowered++;
+        }
+        return true;
+    }
+
+    private static void drain(ByteArrayOutputStream buf, FileChannel out) throws IOException {
+        if (buf.size() == 0) return;
+        java.nio.ByteBuffer b = java.nio.ByteBuffer.wrap(buf.toByteArray());
+        while (b.hasRemaining()) out.write(b);
+        buf.reset();
+    }
+
+    /**
+     * {@code java Regrader <key e.g. 1,1,1,0,2> [results.csv]}, over every shard of the recorded
+     * layout — offline; the app must not be writing.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: Regrader <correct choice per question, e.g. 1,1,1,0,2> [results.csv]");
+            System.exit(2);
+        }
+        if (unsupported() != null) {
+            System.err.println(unsupported());
+            System.exit(2);
+        }
+        Path results = args.length > 1 ? Paths.get(args[1]) : ResultsCsv.RESULTS_CSV;
+        long t = System.nanoTime();
+        int[] lastPct = {-1};
+        List<Path> files = ResultShards.recordedFiles(results);
+        Summary s = new Regrader(parseKey(args[0])).run(files, SegmentedResultLog.fromSystemProperties(results), null,
+                (done, total) -> {
+                    int pct = (int) (100 * done / Math.max(1, total));
+                    synchronized (lastPct) {
+                        if (pct / 10 > lastPct[0] / 10) System.err.println("  " + pct + "%");
+                        lastPct[0] = Math.max(lastPct[0], pct);
+                    }
+                    return true;
+                });
+        System.out.print(s.report());
+        System.out.printf("in %d ms%n", (System.nanoTime() - t) / 1_000_000);
+    }
+}
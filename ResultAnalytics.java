@@ -0,0 +1,422 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+
+/**
+ * Per-question and score aggregates kept up to date as results are written, so the statistics
+ * view never rescans results.csv.
+ *
+ * Counters are maintained per question position: item difficulty (share correct), choice
+ * frequency (distractor analysis) and a 0..100 score histogram. They are fed by the result writer,
+ * snapshotted periodically to {@code <results>.stats}, and on startup rebuilt in parallel from
+ * the CSV bytes the snapshot does not cover. Difficulty needs an answer key: live results carry
+ * their paper's key, historical rows use {@code rebuildKey} (unknown when null).
+ *
+ * With {@code -Dquiz.bank} every session draws its own paper, so a position mixes many different
+ * questions: only the score figures are kept and the per-question section is left out.
+ */
+final class ResultAnalytics implements ResultWriter.Listener {
+
+    static final int MAX_CHOICES = 8;
+    private static final int SNAP_MAGIC = 0x515A5354; // "QZST"
+    private static final int SNAP_VERSION = 1;
+    private static final int HEAD_BYTES = 4096;
+
+    private static ResultAnalytics shared;
+    private static List<ResultAnalytics> shards;
+
+    private final Path results;
+    private final Path snapshot;
+    private final int[] rebuildKey;
+    private final ScheduledExecutorService snapshots;
+
+    // Guarded by this
+    private Counts counts = new Counts();
+    private long covered;          // results bytes reflected in counts
+    private long rebuildTo = -1;   // live records before this offset are left to the rebuild
+    private int generation;
+    private int fileEpoch;         // bumped when the results file is rolled into a segment
+    private boolean dirty;
+    private volatile boolean ready;
+
+    ResultAnalytics(Path results, int[] rebuildKey, long snapshotSeconds) {
+        this.results = results;
+        this.snapshot = results.resolveSibling(results.getFileName() + ".stats");
+        this.rebuildKey = rebuildKey;
+        this.snapshots = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "analytics-snapshot");
+            t.setDaemon(true);
+            return t;
+        });
+        snapshots.scheduleWithFixedDelay(this::snapshotQuietly, snapshotSeconds, snapshotSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Shared instance for {@link ResultsCsv#RESULTS_CSV}, started on first use. Snapshot interval
+     * is {@code -Dquiz.analytics.snapshotSec} (default 30).
+     */
+    static synchronized ResultAnalytics shared() {
+        if (shared == null) shared = open(ResultsCsv.RESULTS_CSV);
+        return shared;
+    }
+
+    /**
+     * One instance per shard of the results store, in shard order; just {@link #shared} when
+     * unsharded. Counts do not depend on row order, so each shard is kept up to date on its own
+     * and {@link #sharedReport} adds them up.
+     */
+    static synchronized List<ResultAnalytics> sharedShards() {
+        if (shards == null) {
+            List<Path> files = ResultsCsv.files();
+            if (files.size() == 1) {
+                shards = Collections.singletonList(shared());
+            } else {
+                shards = new ArrayList<>(files.size());
+                for (Path f : files) shards.add(open(f));
+            }
+        }
+        return shards;
+    }
+
+    /** {@link #report} over every shard of the results store. */
+    static String sharedReport() {
+        List<ResultAnalytics> all = sharedShards();
+        if (all.size() == 1) return all.get(0).report();
+        Counts c = new Counts();
+        boolean ready = true;
+        for (ResultAnalytics a : all) {
+            c.merge(a.snapshotCounts());
+            ready &= a.isReady();
+        }
+        return report(c, ready);
+    }
+
+    /** Whether a question position means the same question in every row (no bank). */
+    static boolean positional() {
+        return System.getProperty("quiz.bank") == null;
+    }
+
+    private static ResultAnalytics open(Path results) {
+        int[] key = null;
+        if (positional()) {
+            List<Question> qs = QuizEngine.sampleQuestions();
+            key = new int[qs.size()];
+            for (int i = 0; i < key.length; i++) key[i] = qs.get(i).correctIndex;
+        }
+        ResultAnalytics a = new ResultAnalytics(results, key, Long.getLong("quiz.analytics.snapshotSec", 30));
+        a.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(a::snapshotQuietly, "analytics-shutdown"));
+        return a;
+    }
+
+    /** Loads the snapshot if it still matches the file, then rebuilds the rest in the background. */
+    synchronized void start() {
+        counts = new Counts();
+        covered = 0;
+        try {
+            loadSnapshot();
+        } catch (IOException e) {
+            counts = new Counts(); // stale or corrupt: full rebuild
+            covered = 0;
+        }
+        long to;
+        try {
+            to = Files.exists(results) ? Files.size(results) : 0;
+        } catch (IOException e) {
+            to = 0;
+        }
+        if (covered > to) { // file was replaced behind our back
+            counts = new Counts();
+            covered = 0;
+        }
+        rebuild(covered, to);
+    }
+
+    boolean isReady() { return ready; }
+
+    // ---------------- Writer feed ----------------
+    @Override
+    public synchronized void written(QuizResult r, LocalDateTime at, long start, long end) {
+        if (start < rebuildTo) return;
+        Counts c = counts;
+        int[] choices = new int[r.total];
+        for (int i = 0; i < r.total; i++) {
+            Integer a = r.answers.get(i);
+            choices[i] = a == null ? -1 : a;
+        }
+        c.record(r.scorePercent, r.total, choices, positional() ? r.key : null);
+        covered = Math.max(covered, end);
+        dirty = true;
+    }
+
+    @Override
+    public synchronized void reset() {
+        counts = new Counts();
+        covered = 0;
+        dirty = true;
+        long to;
+        try {
+            to = Files.exists(results) ? Files.size(results) : 0;
+        } catch (IOException e) {
+            to = 0;
+        }
+        rebuild(0, to);
+    }
+
+    /**
+     * The results file was sealed into a segment: its records stay counted and offsets restart in
+     * the new file. The snapshot is written at once so a restart does not read new offsets
+     * against the sealed file's coverage.
+     */
+    @Override
+    public void rolled() {
+        synchronized (this) {
+            fileEpoch++;
+            covered = 0;
+            rebuildTo = -1;
+            dirty = true;
+        }
+        snapshotQuietly();
+    }
+
+    // ---------------- Rebuild ----------------
+    private void rebuild(long from, long to) {
+        int gen = ++generation;
+        int epoch = fileEpoch;
+        ready = false;
+        rebuildTo = to;
+        if (from >= to) {
+            rebuildTo = -1;
+            ready = true;
+            return;
+        }
+        Thread t = new Thread(() -> {
+            try {
+                Counts part = ParallelCsv.reduce(results, from, to, Counts::new, (acc, rd, off) -> {
+                    if (rd.fieldCount() >= 7) acc.record(rd, rebuildKey);
+                }, Counts::merge);
+                synchronized (this) {
+                    if (gen != generation) return;
+                    counts.merge(part);
+                    if (epoch == fileEpoch) covered = Math.max(covered, to);
+                    rebuildTo = -1;
+                    dirty = true;
+                    ready = true;
+                }
+            } catch (IOException e) {
+                Metrics.error("analytics_rebuild", e);
+                synchronized (this) {
+                    if (gen == generation) {
+                        rebuildTo = -1;
+                        ready = true;
+                    }
+                }
+            }
+        }, "analytics-rebuild");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    // ---------------- Queries ----------------
+    /** Consistent copy of the current aggregates. */
+    synchronized Counts snapshotCounts() {
+        return new Counts().merge(counts);
+    }
+
+    /** Human-readable summary for the admin statistics view; cost depends only on question count. */
+    String report() {
+        return report(snapshotCounts(), ready);
+    }
+
+    private static String report(Counts c, boolean ready) {
+        StringBuilder sb = new StringBuilder();
+        if (!ready) sb.append("(still rebuilding from results.csv — figures are partial)\n\n");
+        sb.append("Submissions: ").append(c.rows).append('\n');
+        sb.append(String.format("Mean score: %.1f%%%n%n", c.rows == 0 ? 0.0 : (double) c.scoreSum / c.rows));
+        sb.append("Score histogram\n");
+        for (int lo = 0; lo < 100; lo += 10) {
+            int hi = lo == 90 ? 100 : lo + 9;
+            long n = 0;
+            for (int s = lo; s <= hi; s++) n += c.scoreHist[s];
+            sb.append(String.format("  %3d-%3d%%  %8d  %s%n", lo, hi, n, bar(n, c.rows)));
+        }
+        if (!positional()) {
+            sb.append("\nPer-question difficulty and choice frequencies are not shown: papers are drawn from\n")
+                    .append("the question bank per session, so a position in the paper is a different question\n")
+                    .append("in almost every submission.\n");
+            return sb.toString();
+        }
+        sb.append("\nPer question (position in paper)\n");
+        for (int q = 0; q < c.positions(); q++) {
+            sb.append(String.format("  Q%-3d seen %8d", q + 1, c.presented[q]));
+            if (c.keyed[q] > 0) sb.append(String.format("  correct %5.1f%%", 100.0 * c.correct[q] / c.keyed[q]));
+            sb.append("  choices:");
+            long seen = Math.max(1, c.presented[q]);
+            for (int k = 1; k <= MAX_CHOICES; k++) {
+                long n = c.choices[q * (MAX_CHOICES + 1) + k];
+                if (n > 0) sb.append(String.format(" %d=%.1f%%", k - 1, 100.0 * n / seen));
+            }
+            sb.append(String.format(" none=%.1f%%%n", 100.0 * c.choices[q * (MAX_CHOICES + 1)] / seen));
+        }
+        return sb.toString();
+    }
+
+    private static String bar(long n, long total) {
+        int w = total == 0 ? 0 : (int) Math.round(40.0 * n / total);
+        char[] b = new char[w];
+        Arrays.fill(b, '#');
+        return new String(b);
+    }
+
+    // ---------------- Snapshots ----------------
+    private void snapshotQuietly() {
+        try {
+            writeSnapshot();
+        } catch (IOException e) {
+            Metrics.error("analytics_snapshot", e);
+        }
+    }
+
+    void writeSnapshot() throws IOException {
+        Counts c;
+        long cov;
+        synchronized (this) {
+            if (!dirty || !ready) return;
+            c = new Counts().merge(counts);
+            cov = covered;
+            dirty = false;
+        }
+        Path tmp = snapshot.resolveSibling(snapshot.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(SNAP_MAGIC);
+            out.writeInt(SNAP_VERSION);
+            out.writeLong(cov);
+            out.writeLong(headCrc(results, cov));
+            c.write(out);
+        }
+        Files.move(tmp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void loadSnapshot() throws IOException {
+        if (!Files.exists(snapshot)) return;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshot)))) {
+            if (in.readInt() != SNAP_MAGIC || in.readInt() != SNAP_VERSION) throw new IOException("bad snapshot");
+            long cov = in.readLong();
+            long crc = in.readLong();
+            if (!Files.exists(results) || Files.size(results) < cov || headCrc(results, cov) != crc) {
+                throw new IOException("snapshot does not match " + results);
+            }
+            counts = Counts.read(in);
+            covered = cov;
+        }
+    }
+
+    /** CRC of the first bytes of the covered region, to notice a cleared or replaced file. */
+    static long headCrc(Path results, long cov) throws IOException {
+        CRC32 crc = new CRC32();
+        if (cov == 0) return 0;
+        try (FileChannel ch = FileChannel.open(results, StandardOpenOption.READ)) {
+            ByteBuffer b = ByteBuffer.allocate((int) Math.min(HEAD_BYTES, cov));
+            while (b.hasRemaining() && ch.read(b, b.position()) > 0) { }
+            b.flip();
+            crc.update(b);
+        }
+        return crc.getValue();
+    }
+
+    // ---------------- Counters ----------------
+    /** Plain primitive counters; callers provide synchronization. */
+    static final class Counts {
+        long rows;
+        long scoreSum;
+        final long[] scoreHist = new long[101];
+        long[] presented = new long[0];
+        long[] keyed = new long[0];
+        long[] correct = new long[0];
+        long[] choices = new long[0];  // per position: [unanswered, choice 0 .. MAX_CHOICES-1]
+        private int[] scratch = new int[16];
+
+        int positions() { return presented.length; }
+
+        void record(int score, int total, int[] chosen, int[] key) {
+            rows++;
+            scoreSum += score;
+            scoreHist[Math.max(0, Math.min(100, score))]++;
+            ensure(total);
+            for (int q = 0; q < total; q++) {
+                int c = chosen[q];
+                presented[q]++;
+                choices[q * (MAX_CHOICES + 1) + (c >= 0 && c < MAX_CHOICES ? c + 1 : 0)]++;
+                if (key != null && q < key.length) {
+                    keyed[q]++;
+                    if (c == key[q]) correct[q]++;
+                }
+            }
+        }
+
+        void record(CsvCodec.Reader rd, int[] key) {
+            int total = rd.parseInt(5);
+            if (total <= 0) return;
+            if (scratch.length < total) scratch = new int[Math.max(total, scratch.length * 2)];
+            int[] chosen = scratch;
+            Arrays.fill(chosen, 0, total, -1);
+            ResultsBinary.forEachAnswer(rd, (q, c) -> { if (q < total) chosen[q] = c; });
+            record(rd.parseInt(3), total, chosen, key);
+        }
+
+        Counts merge(Counts o) {
+            rows += o.rows;
+            scoreSum += o.scoreSum;
+            for (int i = 0; i < scoreHist.length; i++) scoreHist[i] += o.scoreHist[i];
+            ensure(o.positions());
+            for (int q = 0; q < o.positions(); q++) {
+                presented[q] += o.presented[q];
+                keyed[q] += o.keyed[q];
+                correct[q] += o.correct[q];
+            }
+            for (int i = 0; i < o.choices.length; i++) choices[i] += o.choices[i];
+            return this;
+        }
+
+        private void ensure(int n) {
+            if (n <= presented.length) return;
+            presented = Arrays.copyOf(presented, n);
+            keyed = Arrays.copyOf(keyed, n);
+            correct = Arrays.copyOf(correct, n);
+            choices = Arrays.copyOf(choices, n * (MAX_CHOICES + 1));
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeLong(rows);
+            out.writeLong(scoreSum);
+            for (long v : scoreHist) out.writeLong(v);
+            out.writeInt(positions());
+            for (int q = 0; q < positions(); q++) {
+                out.writeLong(presented[q]);
+                out.writeLong(keyed[q]);
+                out.writeLong(correct[q]);
+            }
+            for (long v : choices) out.writeLong(v);
+        }
+
+        static Counts read(DataInputStream in) throws IOException {
+            Counts c = new Counts();
+            c.rows = in.readLong();
+            c.scoreSum = in.readLong();
+            for (int i = 0; i < c.scoreHist.length; i++) c.scoreHist[i] = in.readLong();
+            c.ensure(in.readInt());
+            for (int q = 0; q < c.positions(); q++) {
+                c.presented[q] = in.readLong();
+                c.keyed[q] = in.readLong();
+                c.correct[q] = in.readLong();
+            }
+            for (int i = 0; i < c.choices.length; i++) c.choices[i] = in.readLong();
+            return c;
+        }
+    }
+}
@@ -0,0 +1,539 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Email-hashed partitioning of the results store. With {@code -Dquiz.results.shards=N} (N > 1)
+ * results go to N files beside the results path ({@code results-0.csv}, {@code results-1.csv},
+ * ...), each appended by its own {@link ResultWriter} thread, so submissions for different shards
+ * never queue behind one another. An email always maps to the same shard, so each shard is in
+ * time order and a user's attempts stay in one file. With one shard the layout is the plain
+ * results file, exactly as before.
+ *
+ * Readers that need the whole history in time order go through {@link #forEachRecord}, a k-way
+ * merge of the shards on the timestamp column. The shard count is recorded in
+ * {@code <results>.shards}; a writer refuses to start with a different count while the old layout
+ * holds rows, and {@link #main} re-partitions the data offline.
+ *
+ * The manifest also holds a layout generation, which {@link #main} bumps so that new shard files
+ * ({@code results-v2-0.csv}, ...) never overwrite the ones the current manifest names. Rewriting
+ * the manifest is the single atomic switch between layouts; files of any other layout are left
+ * over from an interrupted re-shard and are removed the next time it runs.
+ */
+final class ResultShards implements Closeable {
+
+    private static final int CURSOR_BUFFER = 1 << 18;
+
+    private final List<Path> files;
+    private final ResultWriter[] writers;
+    private final FileChannel lockFile;
+    private final FileLock lock;          // shared; the re-shard tool needs it exclusively
+
+    /** Opens one writer per file of {@code files}, the layout of {@code results} (see {@link #layout}). */
+    ResultShards(Path results, List<Path> files) throws IOException {
+        this.files = files;
+        this.lockFile = FileChannel.open(lockPath(results), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.lock = lockFile.lock(0, Long.MAX_VALUE, true);
+        this.writers = new ResultWriter[files.size()];
+        for (int i = 0; i < writers.length; i++) writers[i] = ResultWriter.fromSystemProperties(files.get(i));
+    }
+
+    int count() { return writers.length; }
+
+    Path file(int shard) { return files.get(shard); }
+
+    List<Path> files() { return files; }
+
+    ResultWriter writer(int shard) { return writers[shard]; }
+
+    /** Queues a result on its email's shard; the future completes once the line is durable. */
+    CompletableFuture<Void> append(QuizResult r) {
+        return writers[shardOf(r.user.email, writers.length)].append(r);
+    }
+
+    /** Runs {@code task(shard)} exclusively on every shard's writer (see {@link ResultWriter#exclusive}). */
+    CompletableFuture<Void> exclusive(java.util.function.IntConsumer task) {
+        CompletableFuture<?>[] done = new CompletableFuture<?>[writers.length];
+        for (int i = 0; i < writers.length; i++) {
+            int shard = i;
+            done[i] = writers[i].exclusive(() -> task.accept(shard));
+        }
+        return CompletableFuture.allOf(done);
+    }
+
+    /** Drains and stops every writer, then releases the layout lock. */
+    @Override
+    public void close() {
+        for (ResultWriter w : writers) w.close();
+        try {
+            lock.release();
+            lockFile.close();
+        } catch (IOException e) {
+            Metrics.error("results_writer", e);
+        }
+    }
+
+    // ---------------- Layout ----------------
+    /** Shard for {@code email}: a mixed hash of the trimmed, lower-cased address. Stable across runs. */
+    static int shardOf(String email, int count) {
+        if (count == 1) return 0;
+        int h = email.trim().toLowerCase(Locale.ROOT).hashCode() * 0x9E3779B9;
+        return Math.floorMod(h ^ (h >>> 16), count);
+    }
+
+    /**
+     * The files of a {@code count}-shard layout of generation {@code gen}; one shard is
+     * {@code results} itself.
+     */
+    private static List<Path> files(Path results, int count, int gen) {
+        if (count == 1) return Collections.singletonList(results);
+        String name = baseName(results) + (gen == 0 ? "-" : "-v" + gen + "-");
+        List<Path> out = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) out.add(results.resolveSibling(name + i + ".csv"));
+        return out;
+    }
+
+    private static String baseName(Path results) {
+        return results.getFileName().toString().replaceFirst("\\.csv$", "");
+    }
+
+    /** The files of the layout recorded for {@code results}. */
+    static List<Path> recordedFiles(Path results) throws IOException {
+        int[] m = manifest(results);
+        return files(results, m[0], m[1]);
+    }
+
+    /** Shard count recorded for {@code results}; 1 when there is no manifest. */
+    static int recorded(Path results) throws IOException {
+        return manifest(results)[0];
+    }
+
+    // {count, generation}: "<count>" or "<count> <generation>"; {1, 0} when there is no manifest
+    private static int[] manifest(Path results) throws IOException {
+        Path m = manifestPath(results);
+        if (!Files.exists(m)) return new int[]{1, 0};
+        String s = new String(Files.readAllBytes(m), StandardCharsets.UTF_8).trim();
+        String[] parts = s.split("\\s+");
+        try {
+            int n = Integer.parseInt(parts[0]);
+            int gen = parts.length > 1 ? Integer.parseInt(parts[1]) : 0;
+            if (n >= 1 && gen >= 0 && parts.length <= 2) return new int[]{n, gen};
+        } catch (NumberFormatException e) {
+            // fall through
+        }
+        throw new IOException("Bad shard manifest " + m + ": " + s);
+    }
+
+    /**
+     * Files for the shard count in {@code quiz.results.shards} (default 1). If that differs from the
+     * recorded count, the manifest is updated only when the old layout (and, unsharded, the segment
+     * history in {@code log}) holds no rows; otherwise the data has to be re-sharded first.
+     * Sharding cannot be combined with rolling ({@code quiz.results.roll}).
+     */
+    static List<Path> layout(Path results, SegmentedResultLog log) throws IOException {
+        int want = Integer.getInteger("quiz.results.shards", 1);
+        if (want < 1) throw new IllegalArgumentException("quiz.results.shards must be at least 1: " + want);
+        if (want > 1 && !System.getProperty("quiz.results.roll", "").trim().isEmpty()) {
+            throw new IllegalStateException("quiz.results.roll cannot be combined with quiz.results.shards");
+        }
+        int[] m = manifest(results);
+        int have = m[0];
+        if (have != want) {
+            boolean rows = have == 1 && !log.segments().isEmpty();
+            for (Path f : files(results, have, m[1])) rows |= Files.exists(f) && Files.size(f) > ResultsCsv.HEADER.length();
+            if (rows) {
+                throw new IllegalStateException(results + " holds " + have + " shard(s) but quiz.results.shards=" + want
+                        + "; stop the app and run 'java ResultShards " + want + " " + results + "' to re-shard");
+            }
+            record(results, want, m[1]);
+        }
+        return files(results, want, m[1]);
+    }
+
+    // The atomic switch between layouts
+    private static void record(Path results, int count, int gen) throws IOException {
+        Path m = manifestPath(results);
+        if (count == 1) {
+            Files.deleteIfExists(m);
+            return;
+        }
+        Path tmp = m.resolveSibling(m.getFileName() + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ch.write(ByteBuffer.wrap((count + " " + gen + "\n").getBytes(StandardCharsets.UTF_8)));
+            ch.force(true);
+        }
+        Files.move(tmp, m, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static Path manifestPath(Path results) {
+        return results.resolveSibling(results.getFileName() + ".shards");
+    }
+
+    private static Path lockPath(Path results) {
+        return results.resolveSibling(results.getFileName() + ".lock");
+    }
+
+    // ---------------- Merged reads ----------------
+    /**
+     * Streams every record of {@code files} (missing ones are skipped) in timestamp order through a
+     * k-way merge. Each file must itself be in time order, as a shard is; equal timestamps go to the
+     * earlier file. {@code offset} is the record's offset within its own file.
+     */
+    static void forEachRecord(List<Path> files, CsvCodec.RecordVisitor v) throws IOException {
+        List<InputStream> ins = new ArrayList<>(files.size());
+        try {
+            for (Path f : files) {
+                if (Files.exists(f)) ins.add(Files.newInputStream(f));
+            }
+            merge(ins, v);
+        } finally {
+            for (InputStream in : ins) in.close();
+        }
+    }
+
+    /**
+     * As {@link #forEachRecord(List, CsvCodec.RecordVisitor)} over the byte ranges
+     * {@code [from[i], to[i])} of the files; a range must start at a record, or at 0 to skip the
+     * header. Used to merge just what the shards gained since an earlier merge.
+     */
+    static void forEachRecord(List<Path> files, long[] from, long[] to, CsvCodec.RecordVisitor v) throws IOException {
+        List<InputStream> ins = new ArrayList<>(files.size());
+        boolean[] headers = new boolean[files.size()];
+        try {
+            for (int i = 0; i < files.size(); i++) {
+                if (from[i] >= to[i]) continue;
+                headers[ins.size()] = from[i] == 0;
+                ins.add(range(files.get(i), from[i], to[i]));
+            }
+            merge(ins, Arrays.copyOf(headers, ins.size()), v);
+        } finally {
+            for (InputStream in : ins) in.close();
+        }
+    }
+
+    private static InputStream range(Path file, long from, long to) throws IOException {
+        FileChannel ch = FileChannel.open(file, StandardOpenOption.READ);
+        ch.position(from);
+        return new FilterInputStream(Channels.newInputStream(ch)) {
+            long left = to - from;
+
+            @Override
+            public int read() throws IOException {
+                if (left <= 0) return -1;
+                int b = super.read();
+                if (b >= 0) left--;
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (left <= 0) return -1;
+                int n = super.read(b, off, (int) Math.min(len, left));
+                if (n > 0) left -= n;
+                return n;
+            }
+        };
+    }
+
+    /** Writes the records within {@code [from, to]} (either may be null) as one time-ordered results CSV. */
+    static long export(List<Path> files, LocalDateTime from, LocalDateTime to, OutputStream out) throws IOException {
+        long lo = from == null ? Long.MIN_VALUE : SegmentedResultLog.stamp(from);
+        long hi = to == null ? Long.MAX_VALUE : SegmentedResultLog.stamp(to);
+        out.write(ResultsCsv.HEADER.getBytes(StandardCharsets.UTF_8));
+        long[] rows = {0};
+        forEachRecord(files, (rd, offset) -> {
+            long ts = SegmentedResultLog.stamp(rd, 0);
+            if (ts < lo || ts > hi) return;
+            rd.writeRaw(out);
+            out.write('\n');
+            rows[0]++;
+        });
+        return rows[0];
+    }
+
+    // Sources are results CSVs with a header; the heap holds the cursor with the oldest head record
+    private static void merge(List<InputStream> sources, CsvCodec.RecordVisitor v) throws IOException {
+        boolean[] headers = new boolean[sources.size()];
+        Arrays.fill(headers, true);
+        merge(sources, headers, v);
+    }
+
+    private static void merge(List<InputStream> sources, boolean[] headers, CsvCodec.RecordVisitor v) throws IOException {
+        PriorityQueue<Cursor> heads = new PriorityQueue<>(Math.max(1, sources.size()),
+                (a, b) -> a.stamp != b.stamp ? Long.compare(a.stamp, b.stamp) : Integer.compare(a.source, b.source));
+        for (int i = 0; i < sources.size(); i++) {
+            Cursor c = new Cursor(sources.get(i), i, headers[i]);
+            if (c.advance()) heads.add(c);
+        }
+        while (!heads.isEmpty()) {
+            Cursor c = heads.poll();
+            v.visit(c.rd, c.offset);
+            if (c.advance()) heads.add(c);
+        }
+    }
+
+    /**
+     * Pull-style reader over one source. The current record stays valid in {@link #rd} until the
+     * next {@link #advance}, which is the only place the buffer is refilled or compacted.
+     */
+    private static final class Cursor {
+        final InputStream in;
+        final int source;
+        final CsvCodec.Reader rd = new CsvCodec.Reader(8);
+        byte[] buf = new byte[CURSOR_BUFFER];
+        ByteBuffer bb = ByteBuffer.wrap(buf, 0, 0);
+        int filled;
+        boolean eof, header;
+        long base;              // source offset of buf[0]
+        long offset, stamp;     // of the current record
+
+        Cursor(InputStream in, int source, boolean header) {
+            this.in = in;
+            this.source = source;
+            this.header = header;
+        }
+
+        boolean advance() throws IOException {
+            while (true) {
+                int start = bb.position();
+                if (rd.next(bb) && (buf[bb.position() - 1] == '\n' || eof)) {
+                    if (header) {
+                        header = false;
+                        continue;
+                    }
+                    offset = base + start;
+                    stamp = SegmentedResultLog.stamp(rd, 0);
+                    return true;
+                }
+                if (eof) return false;
+                // Cut by the buffer: keep the partial record, grow if it fills the buffer, refill
+                System.arraycopy(buf, start, buf, 0, filled - start);
+                filled -= start;
+                base += start;
+                if (filled == buf.length) buf = Arrays.copyOf(buf, buf.length * 2);
+                while (!eof && filled < buf.length) {
+                    int n = in.read(buf, filled, buf.length - filled);
+                    if (n < 0) eof = true;
+                    else filled += n;
+                }
+                bb = ByteBuffer.wrap(buf, 0, filled);
+            }
+        }
+    }
+
+    // ---------------- Merged copy ----------------
+    /**
+     * One time-ordered file holding every shard, for views that need a single results file (the
+     * admin table and its search index). {@link #rebuild} writes the whole history once; each
+     * {@link #sync} then appends only the records the shards' writers have written since, so a view
+     * can follow the copy as it follows the plain results file. Records appended by one sync are
+     * merged among themselves, after everything merged earlier.
+     */
+    static final class MergedCopy {
+        final Path file;
+        private final ResultShards shards;
+        private long[] merged;      // per shard: offset up to which its records are in the copy
+
+        MergedCopy(Path file, ResultShards shards) {
+            this.file = file;
+            this.shards = shards;
+        }
+
+        /** Rewrites the copy from every shard, e.g. after a clear or re-grade rewrote them. */
+        synchronized void rebuild() throws IOException {
+            long[] ends = ends();
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16)) {
+                os.write(ResultsCsv.HEADER.getBytes(StandardCharsets.UTF_8));
+                forEachRecord(shards.files(), new long[ends.length], ends, (rd, offset) -> {
+                    rd.writeRaw(os);
+                    os.write('\n');
+                });
+            }
+            // The rename leaves any open mapping of the old copy intact
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            merged = ends;
+        }
+
+        /** Appends what the shards gained since the last sync; rebuilds when one of them shrank. */
+        synchronized void sync() throws IOException {
+            if (merged == null || !Files.exists(file)) {
+                rebuild();
+                return;
+            }
+            long[] ends = ends();
+            boolean grew = false;
+            for (int i = 0; i < ends.length; i++) {
+                if (ends[i] < merged[i]) {
+                    rebuild(); // cleared or replaced
+                    return;
+                }
+                grew |= ends[i] > merged[i];
+            }
+            if (!grew) return;
+            try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(file, StandardOpenOption.APPEND), 1 << 16)) {
+                forEachRecord(shards.files(), merged, ends, (rd, offset) -> {
+                    rd.writeRaw(os);
+                    os.write('\n');
+                });
+            } catch (IOException e) {
+                merged = null; // the copy may end in part of a record: rebuild it next time
+                throw e;
+            }
+            merged = ends;
+        }
+
+        // Record-aligned end of each shard: its writer's offset, not the size of a file being appended to
+        private long[] ends() throws IOException {
+            long[] ends = new long[shards.count()];
+            try {
+                for (int i = 0; i < ends.length; i++) {
+                    Path f = shards.file(i);
+                    ends[i] = Files.exists(f) ? shards.writer(i).writtenTo().join() : 0;
+                }
+            } catch (CompletionException e) {
+                throw new IOException(e.getCause());
+            }
+            return ends;
+        }
+    }
+
+    // ---------------- Re-sharding ----------------
+    /**
+     * {@code java ResultShards <n> [results.csv]}: re-partitions the results (every shard of the
+     * recorded layout, plus the segment history when it was unsharded) into {@code n} shards by
+     * email, in time order, then records the new count. Offline: it refuses to run while an app
+     * has the results open. Derived snapshots ({@code .stats}, {@code .search}) are dropped and
+     * rebuilt on the next start.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: ResultShards <shard count> [results.csv]");
+            System.exit(2);
+        }
+        int n = Integer.parseInt(args[0]);
+        if (n < 1) throw new IllegalArgumentException("shard count must be at least 1: " + n);
+        Path results = args.length > 1 ? Paths.get(args[1]) : ResultsCsv.RESULTS_CSV;
+        long t = System.nanoTime();
+        try (FileChannel lf = FileChannel.open(lockPath(results), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             FileLock l = lf.tryLock()) {
+            if (l == null) {
+                System.err.println(results + " is open by a running app; stop it first");
+                System.exit(1);
+            }
+            int old = recorded(results);
+            if (old == n) {
+                System.out.println(results + " already has " + n + " shard(s)");
+                return;
+            }
+            SegmentedResultLog log = SegmentedResultLog.fromSystemProperties(results);
+            long rows = reshard(results, log, n);
+            System.out.printf("%d rows from %d to %d shard(s) in %d ms%n", rows, old, n, (System.nanoTime() - t) / 1_000_000);
+        }
+    }
+
+    // Caller holds the layout lock exclusively. The new files never share a name with the recorded
+    // layout, which stays intact until the manifest names the new one.
+    private static long reshard(Path results, SegmentedResultLog log, int n) throws IOException {
+        int[] m = manifest(results);
+        int old = m[0];
+        List<Path> from = files(results, old, m[1]);
+        removeStale(results, from, log);
+        int gen = n == 1 ? 0 : m[1] + 1;
+        List<Path> to = files(results, n, gen);
+        List<Path> tmps = new ArrayList<>(n);
+        for (Path f : to) tmps.add(f.resolveSibling(f.getFileName() + ".reshard"));
+        List<InputStream> ins = new ArrayList<>();
+        OutputStream[] outs = new OutputStream[n];
+        long[] rows = {0};
+        try {
+            if (old == 1) {
+                for (SegmentedResultLog.Segment s : log.segments()) {
+                    InputStream in = Files.newInputStream(log.file(s));
+                    ins.add(s.archived() ? new GZIPInputStream(in, 1 << 16) : in);
+                }
+            }
+            for (Path f : from) {
+                if (Files.exists(f)) ins.add(Files.newInputStream(f));
+            }
+            byte[] header = ResultsCsv.HEADER.getBytes(StandardCharsets.UTF_8);
+            for (int i = 0; i < n; i++) {
+                outs[i] = new BufferedOutputStream(Files.newOutputStream(tmps.get(i)), 1 << 16);
+                outs[i].write(header);
+            }
+            merge(ins, (rd, offset) -> {
+                OutputStream out = outs[rd.fieldCount() > 2 ? shardOf(rd.string(2), n) : 0];
+                rd.writeRaw(out);
+                out.write('\n');
+                rows[0]++;
+            });
+            for (int i = 0; i < n; i++) {
+                outs[i].close();
+                outs[i] = null;
+                try (FileChannel ch = FileChannel.open(tmps.get(i), StandardOpenOption.WRITE)) {
+                    ch.force(true);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            for (OutputStream o : outs) {
+                if (o != null) o.close();
+            }
+            for (Path p : tmps) Files.deleteIfExists(p);
+            throw e;
+        } finally {
+            for (InputStream in : ins) in.close();
+        }
+        // Everything is in the new files: give them their names, switch the manifest, then drop the old layout
+        for (int i = 0; i < n; i++) {
+            dropSnapshots(to.get(i));
+            Files.move(tmps.get(i), to.get(i), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        record(results, n, gen);
+        removeStale(results, to, log);
+        return rows[0];
+    }
+
+    /**
+     * Deletes the shard files of every layout but {@code current} with their snapshots, and the
+     * plain file and its segments when {@code current} is sharded: what an interrupted re-shard
+     * left behind. Only the recorded layout is ever read, so none of it holds live rows.
+     */
+    private static void removeStale(Path results, List<Path> current, SegmentedResultLog log) throws IOException {
+        String shard = java.util.regex.Pattern.quote(baseName(results)) + "-(v[0-9]+-)?[0-9]+\\.csv";
+        List<Path> stale = new ArrayList<>();
+        Path dir = results.toAbsolutePath().getParent();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
+            for (Path p : ds) {
+                String name = p.getFileName().toString();
+                if (name.matches(shard + "(\\.reshard)?") && !current.contains(results.resolveSibling(name))) {
+                    stale.add(results.resolveSibling(name));
+                }
+            }
+        }
+        stale.add(results.resolveSibling(results.getFileName() + ".reshard"));
+        if (current.size() > 1) {
+            stale.add(results);
+            log.deleteAll();
+        }
+        for (Path f : stale) {
+            Files.deleteIfExists(f);
+            dropSnapshots(f);
+        }
+    }
+
+    private static void dropSnapshots(Path f) throws IOException {
+        Files.deleteIfExists(f.resolveSibling(f.getFileName() + ".stats"));
+        Files.deleteIfExists(f.resolveSibling(f.getFileName() + ".search"));
+    }
+}
@@ -0,0 +1,436 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Single-writer append pipeline for the results file. Callers enqueue results and get a future
+ * that completes once the line is durable; one thread drains the queue in batches and appends
+ * them through a single open {@link FileChannel}.
+ *
+ * Fsync grouping is configurable: after every record, once per drained batch, or at most every
+ * N milliseconds (futures complete only after the covering fsync).
+ */
+final class ResultWriter implements Closeable {
+
+    enum SyncMode { PER_RECORD, PER_BATCH, INTERVAL }
+
+    /** Observes appended records. Called on the writer thread once a record's bytes are written. */
+    interface Listener {
+        /** {@code r}, stamped {@code at}, occupies bytes {@code [start, end)} of the results file. */
+        void written(QuizResult r, LocalDateTime at, long start, long end);
+        /** The file was cleared or rewritten by a control task; earlier offsets are void. */
+        void reset();
+        /** The file was moved aside intact and a new one started; records seen so far stay valid. */
+        void rolled();
+    }
+
+    /** Decides when the results file is sealed and moves it aside (see {@link SegmentedResultLog}). */
+    interface Roller {
+        /** Whether to seal the file, {@code fileBytes} long, before writing a record stamped {@code at}. */
+        boolean due(long fileBytes, LocalDateTime at);
+        /** Moves the closed file aside. On failure the file must be left in place. */
+        void roll() throws IOException;
+    }
+
+    private static final int ENCODE_CAPACITY = 64 * 1024;
+
+    private final Path path;
+    private final SyncMode mode;
+    private final long syncIntervalNanos;
+    private final int maxBatch;
+    private final BlockingQueue<Op> queue = new LinkedBlockingQueue<>();
+    private final Thread thread;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private volatile Roller roller;
+    private volatile boolean closed = false;
+
+    // Writer-thread state
+    private FileChannel channel;
+    private ByteBuffer buf = ByteBuffer.allocate(ENCODE_CAPACITY);
+    private final CsvCodec.Writer line = new CsvCodec.Writer(256);
+    private final List<CompletableFuture<Void>> unsynced = new ArrayList<>();
+    private final List<Op> encoded = new ArrayList<>(); // in buf, not yet written
+    private long filePos;
+    private long whole;            // file length up to the end of the last record fully written
+    private long repairTo = -1;    // a failed write may have left a torn record past this offset
+    private long lastSync = System.nanoTime();
+
+    private static final class Op {
+        final QuizResult result;      // null for control ops
+        final LocalDateTime at;
+        final Runnable control;
+        final boolean resets;         // control op may rewrite the file: listeners are reset after it
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        final long queued = System.nanoTime();
+        long start, end;
+        Op(QuizResult result, LocalDateTime at, Runnable control) {
+            this(result, at, control, true);
+        }
+        Op(QuizResult result, LocalDateTime at, Runnable control, boolean resets) {
+            this.result = result;
+            this.at = at;
+            this.control = control;
+            this.resets = resets;
+        }
+    }
+
+    ResultWriter(Path path, SyncMode mode, long syncIntervalMs, int maxBatch) {
+        this.path = path;
+        this.mode = mode;
+        this.syncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(syncIntervalMs);
+        this.maxBatch = maxBatch;
+        this.thread = new Thread(this::run, "results-writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Builds a writer from system properties: {@code quiz.results.sync} = {@code batch} (default),
+     * {@code record} or a millisecond interval such as {@code 50ms}; {@code quiz.results.batch} caps
+     * the records per drained batch (default 512). Any other sync value is rejected rather than
+     * quietly falling back to a weaker policy.
+     */
+    static ResultWriter fromSystemProperties(Path path) {
+        String sync = System.getProperty("quiz.results.sync", "batch").trim().toLowerCase(Locale.ROOT);
+        int maxBatch = Integer.getInteger("quiz.results.batch", 512);
+        if (sync.equals("record")) return new ResultWriter(path, SyncMode.PER_RECORD, 0, maxBatch);
+        if (sync.equals("batch")) return new ResultWriter(path, SyncMode.PER_BATCH, 0, maxBatch);
+        if (sync.endsWith("ms")) {
+            long ms;
+            try {
+                ms = Long.parseLong(sync.substring(0, sync.length() - 2).trim());
+            } catch (NumberFormatException e) {
+                ms = -1;
+            }
+            if (ms < 0) throw new IllegalArgumentException("quiz.results.sync interval must be '<n>ms' with n >= 0: " + sync);
+            return new ResultWriter(path, SyncMode.INTERVAL, ms, maxBatch);
+        }
+        throw new IllegalArgumentException("quiz.results.sync must be 'batch', 'record' or '<n>ms': " + sync);
+    }
+
+    /** Queues a result; the future completes when it is on disk per the sync mode. */
+    CompletableFuture<Void> append(QuizResult r) {
+        return enqueue(new Op(r, LocalDateTime.now(), null));
+    }
+
+    /** Deletes the results file once everything queued before this call has been written. */
+    CompletableFuture<Void> clear() {
+        return enqueue(new Op(null, null, () -> {
+            closeChannel();
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }));
+    }
+
+    /**
+     * Runs {@code task} on the writer thread after all previously queued records are durable and
+     * before any later ones are written. The channel is closed while the task runs, so the task may
+     * replace or rewrite the file.
+     */
+    CompletableFuture<Void> exclusive(Runnable task) {
+        return enqueue(new Op(null, null, () -> {
+            closeChannel();
+            task.run();
+        }));
+    }
+
+    /**
+     * Offset just past the last record queued before this call, once it is written. Unlike the file
+     * size while a batch is being written, it always ends on a record boundary; later records are
+     * not held back and listeners are not reset.
+     */
+    CompletableFuture<Long> writtenTo() {
+        CompletableFuture<Long> end = new CompletableFuture<>();
+        enqueue(new Op(null, null, () -> {
+            try {
+                openIfNeeded();
+                flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            end.complete(filePos);
+        }, false)).whenComplete((v, e) -> {
+            if (e != null) end.completeExceptionally(e);
+        });
+        return end;
+    }
+
+    void addListener(Listener l) {
+        listeners.add(l);
+    }
+
+    /** Installs the policy that seals the file into segments; checked before each record. */
+    void setRoller(Roller r) {
+        roller = r;
+    }
+
+    // Checked and queued under the lock that close() queues the poison under, so nothing lands after it
+    private CompletableFuture<Void> enqueue(Op op) {
+        synchronized (queue) {
+            if (!closed) {
+                queue.add(op);
+                return op.done;
+            }
+        }
+        op.done.completeExceptionally(new IllegalStateException("Result writer is closed"));
+        return op.done;
+    }
+
+    /** Drains outstanding records, syncs and stops the writer thread. */
+    @Override
+    public void close() {
+        synchronized (queue) {
+            if (closed) return;
+            closed = true;
+            queue.add(new Op(null, null, null)); // poison
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // ---------------- Writer thread ----------------
+    private void run() {
+        List<Op> batch = new ArrayList<>(maxBatch);
+        try {
+            while (true) {
+                try {
+                    Op first = unsynced.isEmpty()
+                            ? queue.take()
+                            : queue.poll(Math.max(0, syncIntervalNanos - (System.nanoTime() - lastSync)), TimeUnit.NANOSECONDS);
+                    if (first == null) {
+                        sync(); // interval elapsed with nothing new
+                        continue;
+                    }
+                    batch.add(first);
+                    queue.drainTo(batch, maxBatch - 1);
+                    if (Metrics.ENABLED) {
+                        long now = System.nanoTime();
+                        for (Op op : batch) {
+                            if (op.result != null) Metrics.RESULT_QUEUE_WAIT.record(now - op.queued);
+                        }
+                    }
+                    if (process(batch)) return;
+                } catch (InterruptedException e) {
+                    return;
+                } catch (Throwable e) {
+                    // An I/O error or a bug in encoding, a listener or the roller fails this batch only
+                    fail(batch, e);
+                    for (Op op : batch) {
+                        if (op.result == null && op.control == null) return; // poison
+                    }
+                } finally {
+                    batch.clear();
+                }
+            }
+        } finally {
+            // Nothing is queued after the poison, but an interrupted writer must not strand callers either
+            closeChannel();
+            IllegalStateException stopped = new IllegalStateException("Result writer is closed");
+            for (CompletableFuture<Void> f : unsynced) f.completeExceptionally(stopped);
+            List<Op> left = new ArrayList<>();
+            queue.drainTo(left);
+            for (Op op : left) op.done.completeExceptionally(stopped);
+        }
+    }
+
+    /** Writes one drained batch. Returns true when the poison pill was seen. */
+    private boolean process(List<Op> batch) throws IOException {
+        List<CompletableFuture<Void>> written = new ArrayList<>(batch.size());
+        for (Op op : batch) {
+            if (op.result != null) {
+                openIfNeeded();
+                Roller r = roller;
+                if (r != null && r.due(filePos, op.at)) {
+                    flush();
+                    unsynced.addAll(written);
+                    written.clear();
+                    sync();
+                    roll(r);
+                }
+                encode(op);
+                written.add(op.done);
+                if (mode == SyncMode.PER_RECORD) {
+                    flush();
+                    long t0 = System.nanoTime();
+                    channel.force(false);
+                    Metrics.RESULT_FSYNC.recordSince(t0);
+                    completeAll(written);
+                }
+                continue;
+            }
+            // Control op or poison: make everything before it durable first
+            if (repairTo >= 0) openIfNeeded();
+            flush();
+            unsynced.addAll(written);
+            written.clear();
+            sync();
+            if (op.control == null) {
+                closeChannel();
+                return true;
+            }
+            try {
+                op.control.run();
+                op.done.complete(null);
+            } catch (RuntimeException e) {
+                op.done.completeExceptionally(e);
+            }
+            if (!op.resets) continue;
+            for (Listener l : listeners) {
+                try {
+                    l.reset();
+                } catch (RuntimeException e) {
+                    Metrics.error("results_listener", e);
+                }
+            }
+        }
+        flush();
+        unsynced.addAll(written);
+        if (mode != SyncMode.INTERVAL || System.nanoTime() - lastSync >= syncIntervalNanos) {
+            sync();
+        }
+        return false;
+    }
+
+    // Fails every record of the batch still pending and everything awaiting fsync, drops buffered
+    // bytes and reopens the file, cutting off whatever part of the batch did reach it
+    private void fail(List<Op> batch, Throwable e) {
+        int failed = 0;
+        for (CompletableFuture<Void> f : unsynced) {
+            if (f.completeExceptionally(e)) failed++;
+        }
+        for (Op op : batch) {
+            if (op.done.completeExceptionally(e) && op.result != null) failed++;
+        }
+        Metrics.RESULTS_FAILED.add(failed);
+        Metrics.error("results_writer", e);
+        unsynced.clear();
+        buf.clear();
+        encoded.clear();
+        if (channel != null) repairTo = whole;
+        closeChannel();
+        try {
+            openIfNeeded();
+        } catch (IOException ex) {
+            closeChannel(); // repaired on the next write
+        }
+    }
+
+    // Seals the current file; everything written so far is already durable
+    private void roll(Roller r) throws IOException {
+        closeChannel();
+        try {
+            r.roll();
+        } catch (IOException | RuntimeException e) {
+            Metrics.error("results_roll", e); // keep appending to the current file
+            openIfNeeded();
+            return;
+        }
+        for (Listener l : listeners) {
+            try {
+                l.rolled();
+            } catch (RuntimeException e) {
+                Metrics.error("results_listener", e);
+            }
+        }
+        openIfNeeded();
+    }
+
+    private void encode(Op op) throws IOException {
+        openIfNeeded();
+        line.reset();
+        ResultsCsv.encode(line, op.result, op.at);
+        int n = line.length();
+        if (n > buf.remaining()) {
+            flush();
+            if (n > buf.capacity()) buf = ByteBuffer.allocate(n);
+        }
+        buf.put(line.array(), 0, n);
+        op.start = filePos;
+        op.end = filePos += n;
+        encoded.add(op);
+    }
+
+    private void openIfNeeded() throws IOException {
+        if (channel != null) return;
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        filePos = channel.size();
+        if (repairTo >= 0 && filePos > repairTo) {
+            // The next record must not be glued onto a torn one
+            channel.truncate(repairTo);
+            channel.force(true);
+            filePos = repairTo;
+        }
+        repairTo = -1;
+        whole = filePos;
+        if (filePos == 0) {
+            byte[] header = ResultsCsv.HEADER.getBytes(StandardCharsets.UTF_8);
+            buf.put(header);
+            filePos = header.length;
+        }
+    }
+
+    private void flush() throws IOException {
+        long t0 = System.nanoTime();
+        buf.flip();
+        while (buf.hasRemaining()) channel.write(buf);
+        buf.clear();
+        whole = filePos;
+        if (!encoded.isEmpty()) {
+            Metrics.RESULT_WRITE.recordSince(t0);
+            Metrics.RESULTS_APPENDED.add(encoded.size());
+        }
+        for (Op op : encoded) {
+            for (Listener l : listeners) {
+                try {
+                    l.written(op.result, op.at, op.start, op.end);
+                } catch (RuntimeException e) {
+                    Metrics.error("results_listener", e);
+                }
+            }
+        }
+        encoded.clear();
+    }
+
+    private void sync() {
+        if (unsynced.isEmpty()) return;
+        try {
+            long t0 = System.nanoTime();
+            if (channel != null) channel.force(false);
+            Metrics.RESULT_FSYNC.recordSince(t0);
+            completeAll(unsynced);
+        } catch (IOException e) {
+            Metrics.RESULTS_FAILED.add(unsynced.size());
+            Metrics.error("results_writer", e);
+            for (CompletableFuture<Void> f : unsynced) f.completeExceptionally(e);
+            unsynced.clear();
+        }
+        lastSync = System.nanoTime();
+    }
+
+    private static void completeAll(List<CompletableFuture<Void>> fs) {
+        for (CompletableFuture<Void> f : fs) f.complete(null);
+        fs.clear();
+    }
+
+    private void closeChannel() {
+        if (channel == null) return;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            Metrics.error("results_writer", e);
+        }
+        channel = null;
+    }
+}
@@ -0,0 +1,445 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.*;
+import java.util.*;
+import java.util.function.*;
+
+/**
+ * Compact columnar results format, an alternative to results.csv for large histories.
+ *
+ * <pre>
+ * header   magic "QZRB", version, rowCount, maxQuestions, bitsPerAnswer, userCount
+ * columns  offset/length directory, then each column stored contiguously:
+ *          TS      long   epoch millis
+ *          USER    int    id into the user dictionary
+ *          SCORE   byte   0..100
+ *          CORRECT short
+ *          TOTAL   short
+ *          ANSWERS bit-packed, maxQuestions codes of bitsPerAnswer bits per row
+ *                  (0 = unanswered, k + 1 = choice k)
+ *          USERS   dictionary: per user, length-prefixed UTF-8 name and email
+ * </pre>
+ *
+ * Each column can be scanned on its own without touching the others.
+ */
+final class ResultsBinary implements Closeable {
+
+    static final int MAGIC = 0x515A5242; // "QZRB"
+    static final int VERSION = 1;
+
+    static final int TS = 0, USER = 1, SCORE = 2, CORRECT = 3, TOTAL = 4, ANSWERS = 5, USERS = 6;
+    private static final int COLUMN_COUNT = 7;
+    private static final int HEADER_BYTES = 4 + 4 + 8 + 4 + 4 + 4 + COLUMN_COUNT * 16;
+    private static final int IO_BUF = 1 << 16;
+
+    private final FileChannel ch;
+    final long rowCount;
+    final int maxQuestions;
+    final int bitsPerAnswer;
+    final int userCount;
+    private final long[] colOffset = new long[COLUMN_COUNT];
+    private final long[] colLength = new long[COLUMN_COUNT];
+    private String[] names;   // dictionary, decoded on first use
+    private String[] emails;
+
+    private ResultsBinary(FileChannel ch) throws IOException {
+        this.ch = ch;
+        ByteBuffer h = ByteBuffer.allocate(HEADER_BYTES);
+        readFully(ch, h, 0);
+        h.flip();
+        if (h.getInt() != MAGIC) throw new IOException("Not a binary results file");
+        int version = h.getInt();
+        if (version != VERSION) throw new IOException("Unsupported binary results version " + version);
+        rowCount = h.getLong();
+        maxQuestions = h.getInt();
+        bitsPerAnswer = h.getInt();
+        userCount = h.getInt();
+        for (int i = 0; i < COLUMN_COUNT; i++) {
+            colOffset[i] = h.getLong();
+            colLength[i] = h.getLong();
+        }
+    }
+
+    static ResultsBinary open(Path file) throws IOException {
+        return new ResultsBinary(FileChannel.open(file, StandardOpenOption.READ));
+    }
+
+    @Override
+    public void close() throws IOException { ch.close(); }
+
+    // ---------------- Column scans ----------------
+    void scanTimestamps(LongConsumer c) throws IOException {
+        scan(TS, b -> c.accept(b.getLong()), 8);
+    }
+
+    void scanUsers(IntConsumer c) throws IOException {
+        scan(USER, b -> c.accept(b.getInt()), 4);
+    }
+
+    void scanScores(IntConsumer c) throws IOException {
+        scan(SCORE, b -> c.accept(b.get()), 1);
+    }
+
+    void scanCorrect(IntConsumer c) throws IOException {
+        scan(CORRECT, b -> c.accept(b.getShort()), 2);
+    }
+
+    void scanTotals(IntConsumer c) throws IOException {
+        scan(TOTAL, b -> c.accept(b.getShort()), 2);
+    }
+
+    /** Streams the chosen index (-1 = unanswered) of question {@code q} for every row. */
+    void scanAnswers(int q, IntConsumer c) throws IOException {
+        if (q < 0 || q >= maxQuestions) throw new IndexOutOfBoundsException("question " + q);
+        long len = colLength[ANSWERS];
+        if (len == 0) return;
+        MappedByteBuffer[] windows = mapColumn(ANSWERS);
+        long stride = (long) maxQuestions * bitsPerAnswer;
+        for (long row = 0; row < rowCount; row++) {
+            c.accept(code(windows, row * stride + (long) q * bitsPerAnswer) - 1);
+        }
+    }
+
+    String userName(int id) throws IOException { loadUsers(); return names[id]; }
+    String userEmail(int id) throws IOException { loadUsers(); return emails[id]; }
+
+    private interface RowReader { void read(ByteBuffer b); }
+
+    private void scan(int col, RowReader r, int width) throws IOException {
+        ByteBuffer b = ByteBuffer.allocate(IO_BUF - IO_BUF % width);
+        long pos = colOffset[col], end = pos + colLength[col];
+        while (pos < end) {
+            b.clear();
+            if (end - pos < b.capacity()) b.limit((int) (end - pos));
+            readFully(ch, b, pos);
+            pos += b.limit();
+            b.flip();
+            while (b.hasRemaining()) r.read(b);
+        }
+    }
+
+    private MappedByteBuffer[] mapColumn(int col) throws IOException {
+        long len = colLength[col], window = 1L << 30;
+        MappedByteBuffer[] out = new MappedByteBuffer[(int) ((len + window - 1) / window)];
+        for (int i = 0; i < out.length; i++) {
+            long base = i * window;
+            out[i] = ch.map(FileChannel.MapMode.READ_ONLY, colOffset[col] + base, Math.min(window, len - base));
+        }
+        return out;
+    }
+
+    private int code(MappedByteBuffer[] w, long bit) {
+        // bitsPerAnswer <= 8, so a code spans at most two bytes
+        long byteIdx = bit >>> 3;
+        int shift = (int) (bit & 7);
+        int v = byteAt(w, byteIdx) & 0xFF;
+        if (shift + bitsPerAnswer > 8) v |= (byteAt(w, byteIdx + 1) & 0xFF) << 8;
+        return (v >>> shift) & ((1 << bitsPerAnswer) - 1);
+    }
+
+    private static byte byteAt(MappedByteBuffer[] w, long i) {
+        return w[(int) (i >>> 30)].get((int) (i & ((1 << 30) - 1)));
+    }
+
+    private synchronized void loadUsers() throws IOException {
+        if (names != null) return;
+        String[] n = new String[userCount], e = new String[userCount];
+        // Wrapper keeps the shared channel open when the stream is dropped
+        InputStream raw = new FilterInputStream(Channels.newInputStream(ch.position(colOffset[USERS]))) {
+            @Override public void close() {}
+        };
+        DataInputStream in = new DataInputStream(new BufferedInputStream(raw, IO_BUF));
+        for (int i = 0; i < userCount; i++) {
+            n[i] = readString(in);
+            e[i] = readString(in);
+        }
+        names = n;
+        emails = e;
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] b = new byte[in.readInt()];
+        in.readFully(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    // ---------------- CSV -> binary ----------------
+    /**
+     * Converts a results CSV into the binary format. The first pass sizes every column and builds
+     * the user dictionary; the second pass streams rows into their column regions.
+     */
+    static long fromCsv(Path csv, Path out, ZoneId zone) throws IOException {
+        Map<String, Integer> userIds = new HashMap<>();
+        List<String[]> users = new ArrayList<>();
+        long[] rows = {0};
+        int[] maxQ = {0}, maxChoice = {0};
+        forEachRecord(csv, (rd, offset) -> {
+            String key = rd.string(1) + '\u0000' + rd.string(2);
+            if (!userIds.containsKey(key)) {
+                userIds.put(key, users.size());
+                users.add(new String[]{rd.string(1), rd.string(2)});
+            }
+            forEachAnswer(rd, (q, choice) -> {
+                maxQ[0] = Math.max(maxQ[0], q + 1);
+                maxChoice[0] = Math.max(maxChoice[0], choice);
+            });
+            maxQ[0] = Math.max(maxQ[0], rd.parseInt(5));
+            rows[0]++;
+        });
+
+        long n = rows[0];
+        int bits = Math.max(1, 32 - Integer.numberOfLeadingZeros(maxChoice[0] + 1));
+        if (bits > 8) throw new IOException("Choice index too large for packed answers: " + maxChoice[0]);
+        long[] off = new long[COLUMN_COUNT], len = new long[COLUMN_COUNT];
+        len[TS] = n * 8;
+        len[USER] = n * 4;
+        len[SCORE] = n;
+        len[CORRECT] = n * 2;
+        len[TOTAL] = n * 2;
+        len[ANSWERS] = (n * maxQ[0] * bits + 7) / 8;
+        long pos = HEADER_BYTES;
+        for (int c = 0; c < USERS; c++) {
+            off[c] = pos;
+            pos += len[c];
+        }
+        off[USERS] = pos;
+
+        try (FileChannel oc = FileChannel.open(out, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ColumnOut ts = new ColumnOut(oc, off[TS]), user = new ColumnOut(oc, off[USER]),
+                    score = new ColumnOut(oc, off[SCORE]), correct = new ColumnOut(oc, off[CORRECT]),
+                    total = new ColumnOut(oc, off[TOTAL]), answers = new ColumnOut(oc, off[ANSWERS]);
+            int[] codes = new int[maxQ[0]];
+            int width = maxQ[0];
+            forEachRecord(csv, (rd, offset) -> {
+                ts.buf().putLong(parseTimestamp(rd, 0, zone));
+                user.buf().putInt(userIds.get(rd.string(1) + '\u0000' + rd.string(2)));
+                score.buf().put((byte) rd.parseInt(3));
+                correct.buf().putShort((short) rd.parseInt(4));
+                total.buf().putShort((short) rd.parseInt(5));
+                Arrays.fill(codes, 0);
+                forEachAnswer(rd, (q, choice) -> codes[q] = choice + 1);
+                for (int q = 0; q < width; q++) answers.bits(codes[q], bits);
+            });
+            for (ColumnOut c : new ColumnOut[]{ts, user, score, correct, total, answers}) c.finish();
+
+            ColumnOut dict = new ColumnOut(oc, off[USERS]);
+            for (String[] u : users) {
+                dict.string(u[0]);
+                dict.string(u[1]);
+            }
+            dict.finish();
+            len[USERS] = dict.written();
+
+            ByteBuffer h = ByteBuffer.allocate(HEADER_BYTES);
+            h.putInt(MAGIC).putInt(VERSION).putLong(n).putInt(maxQ[0]).putInt(bits).putInt(users.size());
+            for (int c = 0; c < COLUMN_COUNT; c++) h.putLong(off[c]).putLong(len[c]);
+            h.flip();
+            while (h.hasRemaining()) oc.write(h, h.position());
+            oc.force(true);
+        }
+        return n;
+    }
+
+    // ---------------- binary -> CSV ----------------
+    /** Writes the rows back as a results CSV, reading every column through its own cursor. */
+    static void toCsv(Path bin, Path csv, ZoneId zone) throws IOException {
+        try (ResultsBinary rb = open(bin);
+             OutputStream os = new BufferedOutputStream(Files.newOutputStream(csv), IO_BUF)) {
+            os.write(ResultsCsv.HEADER.getBytes(StandardCharsets.UTF_8));
+            ColumnIn ts = rb.column(TS), user = rb.column(USER), score = rb.column(SCORE),
+                    correct = rb.column(CORRECT), total = rb.column(TOTAL);
+            MappedByteBuffer[] ans = rb.colLength[ANSWERS] == 0 ? new MappedByteBuffer[0] : rb.mapColumn(ANSWERS);
+            long stride = (long) rb.maxQuestions * rb.bitsPerAnswer;
+            CsvCodec.Writer w = new CsvCodec.Writer(512);
+            for (long r = 0; r < rb.rowCount; r++) {
+                long at = ts.buf(8).getLong();
+                int u = user.buf(4).getInt(), sc = score.buf(1).get(), co = correct.buf(2).getShort(), tot = total.buf(2).getShort();
+                Map<Integer, Integer> answers = new HashMap<>();
+                for (int q = 0; q < tot; q++) {
+                    int code = rb.code(ans, r * stride + (long) q * rb.bitsPerAnswer);
+                    if (code > 0) answers.put(q, code - 1);
+                }
+                QuizResult res = new QuizResult(new User(rb.userName(u), rb.userEmail(u)), sc, co, tot, answers);
+                w.reset();
+                ResultsCsv.encode(w, res, LocalDateTime.ofInstant(Instant.ofEpochMilli(at), zone));
+                os.write(w.array(), 0, w.length());
+            }
+        }
+    }
+
+    private ColumnIn column(int col) {
+        return new ColumnIn(ch, colOffset[col], colOffset[col] + colLength[col]);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: ResultsBinary to-bin <results.csv> <out.qzr> | to-csv <in.qzr> <out.csv> | stats <in.qzr>");
+            System.exit(2);
+        }
+        ZoneId zone = ZoneId.systemDefault();
+        switch (args[0]) {
+            case "to-bin":
+                long t = System.nanoTime();
+                long rows = fromCsv(Paths.get(args[1]), Paths.get(args[2]), zone);
+                System.out.printf("%d rows -> %s (%d bytes) in %d ms%n", rows, args[2], Files.size(Paths.get(args[2])),
+                        (System.nanoTime() - t) / 1_000_000);
+                break;
+            case "to-csv":
+                toCsv(Paths.get(args[1]), Paths.get(args[2]), zone);
+                break;
+            case "stats":
+                try (ResultsBinary rb = open(Paths.get(args[1]))) {
+                    long[] sum = {0};
+                    rb.scanScores(v -> sum[0] += v);
+                    System.out.printf("rows=%d users=%d questions=%d bits/answer=%d mean score=%.2f%n", rb.rowCount,
+                            rb.userCount, rb.maxQuestions, rb.bitsPerAnswer, rb.rowCount == 0 ? 0.0 : (double) sum[0] / rb.rowCount);
+                }
+                break;
+            default:
+                System.err.println("Unknown command: " + args[0]);
+                System.exit(2);
+        }
+    }
+
+    // ---------------- CSV helpers ----------------
+    interface AnswerVisitor { void visit(int question, int choice); }
+
+    /** Streams every data record (header skipped, short rows ignored) of a results CSV. */
+    static void forEachRecord(Path csv, CsvCodec.RecordVisitor v) throws IOException {
+        CsvCodec.forEachRecord(csv, (rd, offset) -> {
+            if (rd.fieldCount() >= 7) v.visit(rd, offset);
+        });
+    }
+
+    /** Parses the answers field ({@code q1:1|q2:-|...}) in place; unanswered questions are skipped. */
+    static void forEachAnswer(CsvCodec.Reader rd, AnswerVisitor v) {
+        int p = rd.offset(6), end = p + rd.length(6);
+        while (p < end) {
+            if (rd.byteAt(p) != 'q') { p++; continue; }
+            int q = 0;
+            for (p++; p < end && rd.byteAt(p) != ':'; p++) q = q * 10 + (rd.byteAt(p) - '0');
+            p++; // ':'
+            if (p < end && rd.byteAt(p) != '-') {
+                int c = 0;
+                for (; p < end && rd.byteAt(p) != '|'; p++) c = c * 10 + (rd.byteAt(p) - '0');
+                if (q > 0) v.visit(q - 1, c);
+            }
+            while (p < end && rd.byteAt(p) != '|') p++;
+        }
+    }
+
+    /** Parses a {@code yyyy-MM-dd HH:mm:ss} field without allocating. */
+    static long parseTimestamp(CsvCodec.Reader rd, int field, ZoneId zone) {
+        int p = rd.offset(field);
+        if (rd.length(field) != 19) {
+            return LocalDateTime.parse(rd.string(field), ResultsCsv.TS_FMT).atZone(zone).toInstant().toEpochMilli();
+        }
+        LocalDateTime t = LocalDateTime.of(num(rd, p, 4), num(rd, p + 5, 2), num(rd, p + 8, 2),
+                num(rd, p + 11, 2), num(rd, p + 14, 2), num(rd, p + 17, 2));
+        return t.atZone(zone).toInstant().toEpochMilli();
+    }
+
+    private static int num(CsvCodec.Reader rd, int p, int width) {
+        int v = 0;
+        for (int i = 0; i < width; i++) v = v * 10 + (rd.byteAt(p + i) - '0');
+        return v;
+    }
+
+    private static void readFully(FileChannel ch, ByteBuffer b, long pos) throws IOException {
+        while (b.hasRemaining()) {
+            int n = ch.read(b, pos);
+            if (n < 0) throw new EOFException();
+            pos += n;
+        }
+    }
+
+    /** Buffered positional reader over one column region, so columns can be read side by side. */
+    private static final class ColumnIn {
+        private final FileChannel ch;
+        private final ByteBuffer buf = ByteBuffer.allocate(IO_BUF);
+        private final long end;
+        private long pos;
+
+        ColumnIn(FileChannel ch, long start, long end) {
+            this.ch = ch;
+            this.pos = start;
+            this.end = end;
+            buf.limit(0);
+        }
+
+        /** The buffer, refilled when fewer than {@code width} bytes are left in it. */
+        ByteBuffer buf(int width) throws IOException {
+            if (buf.remaining() >= width) return buf;
+            buf.compact();
+            if (end - pos < buf.remaining()) buf.limit(buf.position() + (int) (end - pos));
+            int from = buf.position();
+            readFully(ch, buf, pos);
+            pos += buf.position() - from;
+            buf.flip();
+            if (buf.remaining() < width) throw new EOFException("Column ends inside a row");
+            return buf;
+        }
+    }
+
+    /** Buffered positional writer for one column region. */
+    private static final class ColumnOut {
+        private final FileChannel ch;
+        private final ByteBuffer buf = ByteBuffer.allocate(IO_BUF);
+        private final long start;
+        private long pos;
+        private long bitAcc;
+        private int bitCount;
+
+        ColumnOut(FileChannel ch, long start) {
+            this.ch = ch;
+            this.start = start;
+            this.pos = start;
+        }
+
+        ByteBuffer buf() throws IOException {
+            if (buf.remaining() < 16) flush();
+            return buf;
+        }
+
+        void bits(int value, int n) throws IOException {
+            bitAcc |= (long) value << bitCount;
+            bitCount += n;
+            while (bitCount >= 8) {
+                buf().put((byte) bitAcc);
+                bitAcc >>>= 8;
+                bitCount -= 8;
+            }
+        }
+
+        void string(String s) throws IOException {
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            buf().putInt(b.length);
+            for (int i = 0; i < b.length; ) {
+                ByteBuffer bb = buf();
+                int n = Math.min(bb.remaining(), b.length - i);
+                bb.put(b, i, n);
+                i += n;
+            }
+        }
+
+        void finish() throws IOException {
+            if (bitCount > 0) buf().put((byte) bitAcc);
+            bitCount = 0;
+            flush();
+        }
+
+        long written() { return pos - start; }
+
+        private void flush() throws IOException {
+            buf.flip();
+            while (buf.hasRemaining()) pos += ch.write(buf, pos);
+            buf.clear();
+        }
+    }
+}
@@ -0,0 +1,163 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.*;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Non-UI helpers for the results CSV file, shared by the Swing client and the HTTP front end.
+ */
+final class ResultsCsv {
+
+    // Results CSV file (override with -Dquiz.results=path)
+    static final Path RESULTS_CSV = Paths.get(System.getProperty("quiz.results", "results.csv"));
+    static final DateTimeFormatter TS_FMT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    static final String HEADER = "timestamp,name,email,score_percent,correct,total_questions,answers\n";
+
+    private ResultsCsv() {}
+
+    private static List<Path> files;
+    private static ResultShards shards;
+    private static SegmentedResultLog log;
+
+    /**
+     * Shard files of {@link #RESULTS_CSV} for {@code quiz.results.shards}; just {@link #RESULTS_CSV}
+     * when unsharded (see {@link ResultShards#layout}).
+     */
+    static synchronized List<Path> files() {
+        if (files == null) {
+            try {
+                files = ResultShards.layout(RESULTS_CSV, log());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return files;
+    }
+
+    static boolean sharded() {
+        return files().size() > 1;
+    }
+
+    /**
+     * Shared group-commit writers, one per shard of {@link #RESULTS_CSV}, started on first use.
+     * Unsharded, the one writer also feeds the search index and rolls segments; sharded, each
+     * writer feeds its own analytics and all of them the leaderboard.
+     */
+    static synchronized ResultShards shards() {
+        if (shards == null) {
+            ResultShards s;
+            try {
+                s = new ResultShards(RESULTS_CSV, files());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            List<ResultAnalytics> analytics = ResultAnalytics.sharedShards();
+            for (int i = 0; i < s.count(); i++) {
+                ResultWriter w = s.writer(i);
+                w.addListener(analytics.get(i)); // before the first append, so no record is missed
+                w.addListener(Leaderboard.shared());
+            }
+            if (s.count() == 1) {
+                s.writer(0).addListener(ResultsIndex.shared());
+                log().attach(s.writer(0));
+            }
+            Runtime.getRuntime().addShutdownHook(new Thread(s::close, "results-writer-shutdown"));
+            shards = s;
+        }
+        return shards;
+    }
+
+    /** Segment history of {@link #RESULTS_CSV} (rolling is off unless {@code quiz.results.roll} is set). */
+    static synchronized SegmentedResultLog log() {
+        if (log == null) {
+            try {
+                log = SegmentedResultLog.fromSystemProperties(RESULTS_CSV);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return log;
+    }
+
+    /** Deletes every shard and sealed segment, in order with queued writes. */
+    static CompletableFuture<Void> clearAll() {
+        ResultShards s = shards();
+        return s.exclusive(shard -> {
+            try {
+                Files.deleteIfExists(s.file(shard));
+                if (s.count() == 1) log().deleteAll();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /** Writes the records within {@code [from, to]} (either may be null) as one time-ordered results CSV. */
+    static long export(LocalDateTime from, LocalDateTime to, OutputStream out) throws IOException {
+        return sharded() ? ResultShards.export(files(), from, to, out) : log().export(from, to, out);
+    }
+
+    /** Queues a result on its shard's writer; the future completes once the line is durable. */
+    static CompletableFuture<Void> save(QuizResult r) {
+        return shards().append(r);
+    }
+
+    /** Encodes one CSV record (with trailing newline) for {@code r}, stamped with {@code at}. */
+    static void encode(CsvCodec.Writer w, QuizResult r, LocalDateTime at) {
+        w.timestamp(at).field(r.user.name).field(r.user.email)
+                .field(r.scorePercent).field(r.correct).field(r.total);
+        // answers format: q1:idx|q2:idx|...
+        w.beginField();
+        for (int i = 0; i < r.total; i++) {
+            Integer a = r.answers.get(i);
+            if (i > 0) w.ascii('|');
+            w.ascii('q').digits(i + 1).ascii(':');
+            if (a == null) w.ascii('-'); else w.digits(a);
+        }
+        w.endRecord();
+    }
+
+    static String escapeCsv(String s) {
+        if (s == null) return "";
+        if (s.contains(",") || s.contains("\"") || s.contains("\n")) return "\"" + s.replace("\"", "\"\"") + "\"";
+        return s;
+    }
+
+    // Basic CSV splitter that handles simple quoted fields
+    static String[] splitCsvLine(String line) {
+        List<String> out = new ArrayList<>();
+        StringBuilder cur = new StringBuilder();
+        boolean inQuotes = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (inQuotes) {
+                if (c == '"') {
+                    if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        cur.append('"');
+                        i++; // skip escaped quote
+                    } else {
+                        inQuotes = false;
+                    }
+                } else {
+                    cur.append(c);
+                }
+            } else {
+                if (c == '"') {
+                    inQuotes = true;
+                } else if (c == ',') {
+                    out.add(cur.toString());
+                    cur.setLength(0);
+                } else {
+                    cur.append(c);
+                }
+            }
+        }
+        out.add(cur.toString());
+        return out.toArray(new String[0]);
+    }
+}
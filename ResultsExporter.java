@@ -0,0 +1,382 @@
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Streams stored results to CSV or JSON Lines, optionally gzip-compressed, keeping only rows
+ * within a date range, a score range and a set of email domains. Sources are the sealed segments
+ * overlapping the date range, oldest first, and then the live results file.
+ *
+ * Plain files are cut into line-aligned chunks that are parsed, filtered and encoded on the
+ * fork-join pool. Finished chunks are written strictly in file order and only a few run ahead of
+ * the writer, so memory stays at a handful of chunks however large the source is. With gzip each
+ * chunk is compressed by its worker into its own gzip member; concatenated members are one valid
+ * gzip stream. gzip archives are streamed on the calling thread.
+ *
+ * A sharded store (see {@link ResultShards}) is exported as one time-ordered stream: the shards
+ * are k-way merged on the calling thread and encoded in blocks like an archive.
+ */
+final class ResultsExporter {
+
+    static final long CHUNK = 1L << 20;
+
+    enum Format { CSV, JSONL }
+
+    /** Row criteria; unset fields match everything. */
+    static final class Filter {
+        long fromStamp = Long.MIN_VALUE, toStamp = Long.MAX_VALUE; // yyyyMMddHHmmss, inclusive
+        int minScore = Integer.MIN_VALUE, maxScore = Integer.MAX_VALUE;
+        final List<String> domains = new ArrayList<>();           // lower-cased; subdomains match too
+
+        /** Whole days {@code from} to {@code to}, inclusive; either may be null. */
+        Filter days(LocalDate from, LocalDate to) {
+            if (from != null) fromStamp = SegmentedResultLog.stamp(from.atStartOfDay());
+            if (to != null) toStamp = SegmentedResultLog.stamp(to.atTime(23, 59, 59));
+            return this;
+        }
+
+        /** Adds the domains of a comma-separated list such as {@code example.edu, @school.org}. */
+        Filter domains(String list) {
+            for (String d : list.split(",")) {
+                d = d.trim().toLowerCase(Locale.ROOT);
+                if (d.startsWith("@")) d = d.substring(1);
+                if (!d.isEmpty()) domains.add(d);
+            }
+            return this;
+        }
+
+        boolean isEmpty() {
+            return fromStamp == Long.MIN_VALUE && toStamp == Long.MAX_VALUE && minScore == Integer.MIN_VALUE
+                    && maxScore == Integer.MAX_VALUE && domains.isEmpty();
+        }
+
+        boolean accepts(CsvCodec.Reader rd) {
+            if (isEmpty()) return true;
+            if (rd.fieldCount() < 4) return false;
+            if (fromStamp != Long.MIN_VALUE || toStamp != Long.MAX_VALUE) {
+                long ts = SegmentedResultLog.stamp(rd, 0);
+                if (ts < fromStamp || ts > toStamp) return false;
+            }
+            if (minScore != Integer.MIN_VALUE || maxScore != Integer.MAX_VALUE) {
+                int score = rd.parseInt(3);
+                if (score < minScore || score > maxScore) return false;
+            }
+            if (domains.isEmpty()) return true;
+            String email = rd.string(2).trim().toLowerCase(Locale.ROOT);
+            String domain = email.substring(email.lastIndexOf('@') + 1);
+            for (String d : domains) {
+                if (domain.equals(d) || domain.endsWith("." + d)) return true;
+            }
+            return false;
+        }
+    }
+
+    /** Called as source bytes are processed; return false to cancel. */
+    interface Progress { boolean update(long doneBytes, long totalBytes); }
+
+    /** What a run wrote. */
+    static final class Summary {
+        long rows;
+        long bytesRead;
+        long bytesWritten;
+    }
+
+    private static final String[] COLUMNS = ResultsCsv.HEADER.trim().split(",");
+    private static final boolean[] NUMERIC = {false, false, false, true, true, true, false};
+
+    private final Filter filter;
+    private final Format format;
+    private final boolean gzip;
+
+    ResultsExporter(Filter filter, Format format, boolean gzip) {
+        this.filter = filter;
+        this.format = format;
+        this.gzip = gzip;
+    }
+
+    /**
+     * Exports into {@code target} through a temporary sibling that replaces it only when the
+     * export completes; on failure or cancellation {@code target} is left untouched.
+     */
+    Summary exportTo(Path results, SegmentedResultLog log, Path target, Progress progress) throws IOException {
+        return exportTo(Collections.singletonList(results), log, target, progress);
+    }
+
+    /** {@link #exportTo(Path, SegmentedResultLog, Path, Progress)} over the shard {@code files} of the store. */
+    Summary exportTo(List<Path> files, SegmentedResultLog log, Path target, Progress progress) throws IOException {
+        Path tmp = target.resolveSibling(target.getFileName() + ".part");
+        try {
+            Summary sum;
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16)) {
+                sum = files.size() == 1 ? export(files.get(0), log, out, progress) : exportMerged(files, out, progress);
+            }
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return sum;
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Writes the matching rows of the sealed segments of {@code log} (may be null) and then of
+     * {@code results} to {@code out}, in file order. Rows appended to {@code results} after the
+     * export starts are not included. Cancelling via {@code progress} throws
+     * {@link CancellationException}.
+     */
+    Summary export(Path results, SegmentedResultLog log, OutputStream out, Progress progress) throws IOException {
+        // The segment list is taken on both sides of opening the live file, so a roll in between
+        // is retried instead of exporting the rolled records twice or not at all
+        List<SegmentedResultLog.Segment> segs;
+        FileChannel opened;
+        for (int attempt = 0; ; attempt++) {
+            segs = segments(log);
+            opened = Files.exists(results) ? FileChannel.open(results, StandardOpenOption.READ) : null;
+            if (attempt >= 2 || names(segs).equals(names(segments(log)))) break;
+            if (opened != null) opened.close();
+        }
+        try (FileChannel live = opened) {
+            long liveSize = live == null ? 0 : live.size();
+            Run run = new Run(out, progress, liveSize);
+            for (SegmentedResultLog.Segment s : segs) run.total += s.bytes;
+            if (format == Format.CSV) {
+                Block header = new Block(ResultsCsv.HEADER.length());
+                header.buf.write(ResultsCsv.HEADER.getBytes(StandardCharsets.UTF_8));
+                run.write(header.seal());
+            }
+            for (SegmentedResultLog.Segment s : segs) {
+                try {
+                    if (s.archived()) {
+                        exportArchive(log.file(s), s.bytes, run);
+                    } else {
+                        try (FileChannel ch = FileChannel.open(log.file(s), StandardOpenOption.READ)) {
+                            exportChannel(ch, ch.size(), run);
+                        }
+                    }
+                } catch (NoSuchFileException e) {
+                    continue; // archived or dropped by retention meanwhile
+                }
+            }
+            if (live != null) exportChannel(live, liveSize, run);
+            return run.sum;
+        }
+    }
+
+    /**
+     * Writes the matching rows of every shard in {@code files} to {@code out} in timestamp order.
+     * Shards are read as they are when each is reached; cancelling throws {@link CancellationException}.
+     */
+    Summary exportMerged(List<Path> files, OutputStream out, Progress progress) throws IOException {
+        long total = 0;
+        for (Path f : files) total += Files.exists(f) ? Files.size(f) : 0;
+        Run run = new Run(out, progress, total);
+        if (format == Format.CSV) {
+            Block header = new Block(ResultsCsv.HEADER.length());
+            header.buf.write(ResultsCsv.HEADER.getBytes(StandardCharsets.UTF_8));
+            run.write(header.seal());
+        }
+        Block[] b = {new Block(1 << 16)};
+        ResultShards.forEachRecord(files, (rd, offset) -> {
+            int last = rd.fieldCount() - 1;
+            b[0].source += rd.offset(last) + rd.length(last) - rd.offset(0) + 1;
+            if (filter.accepts(rd)) b[0].add(rd);
+            if (b[0].buf.size() >= CHUNK) {
+                run.write(b[0].seal());
+                b[0] = new Block(1 << 16);
+            }
+        });
+        run.write(b[0].seal());
+        run.finish(total);
+        return run.sum;
+    }
+
+    private List<SegmentedResultLog.Segment> segments(SegmentedResultLog log) {
+        return log == null ? new ArrayList<>() : log.overlapping(filter.fromStamp, filter.toStamp);
+    }
+
+    private static List<String> names(List<SegmentedResultLog.Segment> segs) {
+        List<String> out = new ArrayList<>(segs.size());
+        for (SegmentedResultLog.Segment s : segs) out.add(s.file);
+        return out;
+    }
+
+    // Chunks run ahead of the writer on the pool, at most a few at a time
+    private void exportChannel(FileChannel ch, long size, Run run) throws IOException {
+        List<long[]> chunks = ParallelCsv.chunks(ch, 0, size, CHUNK);
+        int window = ForkJoinPool.getCommonPoolParallelism() + 2;
+        ArrayDeque<ForkJoinTask<Block>> inFlight = new ArrayDeque<>();
+        int next = 0;
+        try {
+            while (next < chunks.size() || !inFlight.isEmpty()) {
+                while (next < chunks.size() && inFlight.size() < window) {
+                    long[] c = chunks.get(next++);
+                    inFlight.add(ForkJoinPool.commonPool().submit(() -> encode(ch, c[0], c[1])));
+                }
+                Block b;
+                try {
+                    b = inFlight.poll().join();
+                } catch (UncheckedIOException e) {
+                    throw e.getCause();
+                }
+                run.write(b);
+            }
+            run.finish(size);
+        } finally {
+            for (ForkJoinTask<Block> t : inFlight) t.cancel(false);
+        }
+    }
+
+    private Block encode(FileChannel ch, long start, long end) {
+        try {
+            MappedByteBuffer mb = ch.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+            CsvCodec.Reader rd = new CsvCodec.Reader(8);
+            Block b = new Block((int) (end - start) * (format == Format.CSV ? 1 : 3)); // JSON runs ~2.5x the CSV
+            while (rd.next(mb)) {
+                if (filter.accepts(rd)) b.add(rd);
+            }
+            b.source = end - start;
+            return b.seal();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Archives cannot be mapped or split: stream them, writing a block every CHUNK bytes of output
+    private void exportArchive(Path file, long bytes, Run run) throws IOException {
+        Block[] b = {new Block(1 << 16)};
+        long[] last = {0};
+        SegmentedResultLog.forEachGzipRecord(file, (rd, offset) -> {
+            if (filter.accepts(rd)) b[0].add(rd);
+            if (b[0].buf.size() >= CHUNK) {
+                b[0].source = offset - last[0];
+                last[0] = offset;
+                run.write(b[0].seal());
+                b[0] = new Block(1 << 16);
+            }
+        });
+        run.write(b[0].seal());
+        run.finish(bytes);
+    }
+
+    /** Encoded rows of one chunk; with gzip, {@link #seal} turns them into one gzip member. */
+    private final class Block {
+        ByteArrayOutputStream buf;
+        final StringBuilder json = new StringBuilder(256);
+        long rows;
+        long source;            // source bytes covered, for progress
+
+        Block(int capacity) {
+            buf = new ByteArrayOutputStream(capacity);
+        }
+
+        void add(CsvCodec.Reader rd) throws IOException {
+            rows++;
+            if (format == Format.CSV) {
+                rd.writeRaw(buf);
+                buf.write('\n');
+                return;
+            }
+            json.setLength(0);
+            json.append('{');
+            for (int i = 0; i < COLUMNS.length; i++) {
+                if (i > 0) json.append(',');
+                json.append('"').append(COLUMNS[i]).append("\":");
+                int v;
+                if (i >= rd.fieldCount()) json.append("null");
+                else if (NUMERIC[i] && (v = rd.parseInt(i)) >= 0) json.append(v);
+                else json.append(QuizHttpServer.json(rd.string(i)));
+            }
+            json.append("}\n");
+            buf.write(json.toString().getBytes(StandardCharsets.UTF_8));
+        }
+
+        Block seal() throws IOException {
+            if (!gzip || buf.size() == 0) return this;
+            ByteArrayOutputStream z = new ByteArrayOutputStream(buf.size() / 4 + 64);
+            try (GZIPOutputStream gz = new GZIPOutputStream(z, 1 << 16)) {
+                buf.writeTo(gz);
+            }
+            buf = z;
+            return this;
+        }
+    }
+
+    /** Output side of one export: ordered writes, totals and progress. */
+    private static final class Run {
+        final OutputStream out;
+        final Progress progress;
+        final Summary sum = new Summary();
+        long total;
+        long sourceRead;        // bytes of the current source reported so far
+
+        Run(OutputStream out, Progress progress, long total) {
+            this.out = out;
+            this.progress = progress;
+            this.total = total;
+        }
+
+        void write(Block b) throws IOException {
+            b.buf.writeTo(out);
+            sum.rows += b.rows;
+            sum.bytesWritten += b.buf.size();
+            sourceRead += b.source;
+            read(b.source);
+        }
+
+        /** Reports whatever of a {@code bytes}-long source the blocks did not cover (header, tail). */
+        void finish(long bytes) {
+            read(Math.max(0, bytes - sourceRead));
+            sourceRead = 0;
+        }
+
+        private void read(long bytes) {
+            sum.bytesRead += bytes;
+            if (progress != null && !progress.update(sum.bytesRead, Math.max(total, sum.bytesRead))) {
+                throw new CancellationException();
+            }
+        }
+    }
+
+    /**
+     * {@code ResultsExporter <out> [from=yyyy-mm-dd] [to=yyyy-mm-dd] [min=score] [max=score]
+     * [domains=a.edu,b.org]}: the format follows the name ({@code .jsonl} or CSV, plus {@code .gz}).
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: ResultsExporter <out.csv|out.jsonl[.gz]> [from=yyyy-mm-dd] [to=yyyy-mm-dd] [min=n] [max=n] [domains=a,b]");
+            System.exit(2);
+        }
+        Path target = Paths.get(args[0]);
+        String name = target.getFileName().toString().toLowerCase(Locale.ROOT);
+        boolean gzip = name.endsWith(".gz");
+        if (gzip) name = name.substring(0, name.length() - 3);
+        Format format = name.endsWith(".jsonl") || name.endsWith(".json") ? Format.JSONL : Format.CSV;
+        Filter f = new Filter();
+        for (int i = 1; i < args.length; i++) {
+            int eq = args[i].indexOf('=');
+            String k = eq < 0 ? args[i] : args[i].substring(0, eq), v = eq < 0 ? "" : args[i].substring(eq + 1);
+            switch (k) {
+                case "from": f.days(LocalDate.parse(v), null); break;
+                case "to": f.days(null, LocalDate.parse(v)); break;
+                case "min": f.minScore = Integer.parseInt(v); break;
+                case "max": f.maxScore = Integer.parseInt(v); break;
+                case "domains": f.domains(v); break;
+                default:
+                    System.err.println("Unknown option: " + args[i]);
+                    System.exit(2);
+            }
+        }
+        Path results = ResultsCsv.RESULTS_CSV;
+        long t = System.nanoTime();
+        List<Path> files = ResultShards.recordedFiles(results);
+        Summary s = new ResultsExporter(f, format, gzip).exportTo(files, SegmentedResultLog.fromSystemProperties(results), target, null);
+        System.out.printf("%d rows, %d MB read, %d MB written in %d ms%n", s.rows, s.bytesRead >> 20,
+                s.bytesWritten >> 20, (System.nanoTime() - t) / 1_000_000);
+    }
+}
@@ -0,0 +1,736 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Secondary indexes over the rows of the results file, answering the admin filter bar without
+ * reading the CSV: exact and prefix lookup on email and name (whole name or any word of it), and
+ * range lookup on timestamp and score. Every match is a row's byte offset in the file.
+ *
+ * Rows are kept as primitive columns (offset, stamp, score, email id, name id) in file order.
+ * Email, name and name-word keys are interned into compact dictionaries kept in key order for
+ * prefix ranges; every key and score value heads a chain of its rows through int arrays, and
+ * timestamps are binary-searched while rows arrive in time order. The indexes are fed by the
+ * result writer, snapshotted to {@code <results>.search}, and on startup the rows the snapshot
+ * does not cover are indexed in parallel. A snapshot that no longer matches the file (cleared,
+ * rewritten, rolled) is discarded and everything is rebuilt.
+ */
+final class ResultsIndex implements ResultWriter.Listener {
+
+    private static final int SNAP_MAGIC = 0x515A5358; // "QZSX"
+    private static final int SNAP_VERSION = 1;
+
+    /** Filter criteria; unset fields match everything. Text matches ignore case. */
+    static final class Query {
+        String email;             // exact, or prefix when it ends with '*'
+        String name;              // prefix of the whole name or of any word in it
+        long fromStamp = Long.MIN_VALUE, toStamp = Long.MAX_VALUE; // yyyyMMddHHmmss, inclusive
+        int minScore = Integer.MIN_VALUE, maxScore = Integer.MAX_VALUE;
+    }
+
+    private static ResultsIndex shared;
+
+    private final Path results;
+    private final Path snapshot;
+    private final ScheduledExecutorService snapshots; // null when never snapshotted
+
+    // Guarded by this
+    private Rows rows = new Rows();
+    private long covered;                      // results bytes reflected in rows
+    private long rebuildTo = -1;               // live records before this offset are left to the rebuild
+    private final List<Object[]> pending = new ArrayList<>(); // live rows held back while rebuilding
+    private int generation;
+    private boolean dirty;
+    private volatile boolean ready;
+
+    /**
+     * Index over {@code results}; with {@code snapshotSeconds <= 0} it is never snapshotted and
+     * starts no snapshot thread.
+     */
+    ResultsIndex(Path results, long snapshotSeconds) {
+        this.results = results;
+        this.snapshot = results.resolveSibling(results.getFileName() + ".search");
+        if (snapshotSeconds > 0) {
+            this.snapshots = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "search-index-snapshot");
+                t.setDaemon(true);
+                return t;
+            });
+            snapshots.scheduleWithFixedDelay(this::snapshotQuietly, snapshotSeconds, snapshotSeconds, TimeUnit.SECONDS);
+        } else {
+            this.snapshots = null;
+        }
+    }
+
+    /** Stops periodic snapshots. A rebuild already running finishes on its own daemon thread. */
+    void close() {
+        if (snapshots != null) snapshots.shutdownNow();
+    }
+
+    /** Shared index for {@link ResultsCsv#RESULTS_CSV}; snapshot interval {@code -Dquiz.search.snapshotSec} (default 30). */
+    static synchronized ResultsIndex shared() {
+        if (shared == null) {
+            shared = new ResultsIndex(ResultsCsv.RESULTS_CSV, Long.getLong("quiz.search.snapshotSec", 30));
+            shared.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(shared::snapshotQuietly, "search-index-shutdown"));
+        }
+        return shared;
+    }
+
+    /** Loads the snapshot if it still matches the file, then indexes the rest in the background. */
+    synchronized void start() {
+        rows = new Rows();
+        covered = 0;
+        try {
+            loadSnapshot();
+        } catch (IOException e) {
+            rows = new Rows(); // stale or corrupt: full rebuild
+            covered = 0;
+        }
+        rebuild(covered, size());
+    }
+
+    boolean isReady() { return ready; }
+
+    synchronized int rowCount() { return rows.count; }
+
+    private long size() {
+        try {
+            return Files.exists(results) ? Files.size(results) : 0;
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    // ---------------- Writer feed ----------------
+    @Override
+    public synchronized void written(QuizResult r, LocalDateTime at, long start, long end) {
+        if (start < rebuildTo) return;
+        long stamp = SegmentedResultLog.stamp(at);
+        if (rebuildTo >= 0) {
+            pending.add(new Object[]{start, stamp, r.scorePercent, r.user.email, r.user.name});
+        } else {
+            rows.add(start, stamp, r.scorePercent, r.user.email, r.user.name);
+        }
+        covered = Math.max(covered, end);
+        dirty = true;
+    }
+
+    /**
+     * Indexes whatever was appended to the file since it was last covered, for an index that is
+     * not fed by a results writer (the merged copy of a sharded store).
+     */
+    synchronized void catchUp() {
+        long size = size();
+        if (rebuildTo < 0 && size > covered) rebuild(covered, size);
+    }
+
+    @Override
+    public synchronized void reset() {
+        rows = new Rows();
+        covered = 0;
+        dirty = true;
+        rebuild(0, size());
+    }
+
+    /** Offsets restart in the new file, which is what the admin view shows: start over empty. */
+    @Override
+    public synchronized void rolled() {
+        ++generation;
+        rows = new Rows();
+        covered = 0;
+        rebuildTo = -1;
+        pending.clear();
+        dirty = true;
+        ready = true;
+    }
+
+    // ---------------- Rebuild ----------------
+    // Caller holds the lock
+    private void rebuild(long from, long to) {
+        int gen = ++generation;
+        pending.clear();
+        if (from >= to) {
+            rebuildTo = -1;
+            ready = true;
+            return;
+        }
+        ready = false;
+        rebuildTo = to;
+        Thread t = new Thread(() -> {
+            Rows part;
+            try {
+                part = ParallelCsv.reduce(results, from, to, Rows::new, (acc, rd, off) -> {
+                    if (rd.fieldCount() < 4) return;
+                    long stamp = SegmentedResultLog.stamp(rd, 0);
+                    acc.add(off, stamp, rd.parseInt(3), rd.string(2), rd.string(1));
+                }, Rows::append);
+                part.seal(); // sorted off the lock
+            } catch (Throwable e) {
+                Metrics.error("search_index_rebuild", e);
+                part = null;
+            }
+            synchronized (this) {
+                if (gen != generation) return;
+                // Whatever happens, live rows stop being held back; a failed rebuild leaves the
+                // index partial, so it stays not ready (never snapshotted) until the next reset
+                try {
+                    if (part != null) {
+                        rows = rows.count == 0 ? part : rows.append(part);
+                        covered = Math.max(covered, to);
+                    }
+                    for (Object[] p : pending) {
+                        rows.add((Long) p[0], (Long) p[1], (Integer) p[2], (String) p[3], (String) p[4]);
+                    }
+                    rows.seal();
+                    dirty = true;
+                    ready = part != null;
+                } catch (Throwable e) {
+                    Metrics.error("search_index_rebuild", e);
+                } finally {
+                    pending.clear();
+                    rebuildTo = -1;
+                }
+            }
+        }, "search-index-rebuild");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    // ---------------- Queries ----------------
+    /** Byte offsets, in file order, of the rows matching {@code q}. */
+    synchronized long[] find(Query q) {
+        long t0 = System.nanoTime();
+        Rows rs = rows;
+        String email = q.email == null ? null : q.email.trim().toLowerCase(Locale.ROOT);
+        boolean emailPrefix = email != null && email.endsWith("*");
+        if (emailPrefix) email = email.substring(0, email.length() - 1);
+        String name = q.name == null ? null : q.name.trim().toLowerCase(Locale.ROOT);
+        if (email != null && email.isEmpty()) email = null;
+        if (name != null && name.isEmpty()) name = null;
+
+        BitSet emailKeys = email == null ? null : rs.emails.matching(Rows.key(email), emailPrefix);
+        BitSet nameKeys = name == null ? null : rs.nameKeys(Rows.key(name));
+        boolean scored = q.minScore != Integer.MIN_VALUE || q.maxScore != Integer.MAX_VALUE;
+
+        // Candidates from the most selective index, then the other criteria on the columns; past
+        // an eighth of the rows a straight pass over the columns beats gathering and sorting
+        int[] span = rs.stampSpan(q.fromStamp, q.toStamp);
+        long byEmail = emailKeys == null ? Long.MAX_VALUE : rs.emails.rows(emailKeys);
+        long byName = nameKeys == null ? Long.MAX_VALUE : rs.names.rows(nameKeys);
+        long byScore = scored ? rs.scoreRows(q.minScore, q.maxScore) : Long.MAX_VALUE;
+        long byStamp = span == null ? Long.MAX_VALUE : span[1] - span[0];
+        long best = Math.min(Math.min(byEmail, byName), Math.min(byScore, rs.count / 8));
+        int[] ids = null;
+        int lo = 0, hi = rs.count;
+        if (byStamp <= best) {
+            lo = span[0];
+            hi = span[1];
+        } else if (best == byEmail) {
+            ids = rs.emails.rows(emailKeys, rs.nextEmail);
+        } else if (best == byName) {
+            ids = rs.names.rows(nameKeys, rs.nextName);
+        } else if (best == byScore) {
+            ids = rs.scoreRange(q.minScore, q.maxScore);
+        }
+        int n = ids == null ? hi - lo : ids.length;
+        long[] out = new long[n];
+        int m = 0;
+        for (int i = 0; i < n; i++) {
+            int row = ids == null ? lo + i : ids[i];
+            if (rs.stamps[row] < q.fromStamp || rs.stamps[row] > q.toStamp) continue;
+            if (rs.scores[row] < q.minScore || rs.scores[row] > q.maxScore) continue;
+            if (emailKeys != null && !emailKeys.get(rs.emailIds[row])) continue;
+            if (nameKeys != null && !nameKeys.get(rs.nameIds[row])) continue;
+            out[m++] = rs.offsets[row];
+        }
+        Metrics.SEARCH_QUERY.recordSince(t0);
+        return m == n ? out : Arrays.copyOf(out, m);
+    }
+
+    // ---------------- Rows and indexes ----------------
+    /** Primitive row columns plus the key dictionaries and posting chains over them; callers provide synchronization. */
+    static final class Rows {
+        int count;
+        long[] offsets = new long[1024];
+        long[] stamps = new long[1024];
+        int[] scores = new int[1024];
+        int[] emailIds = new int[1024];
+        int[] nameIds = new int[1024];
+        int[] nextEmail = new int[1024];      // next row with the same email, -1 at the end
+        int[] nextName = new int[1024];
+        int[] nextScore = new int[1024];
+        boolean stampsSorted = true;
+        Dict emails = new Dict();             // lower-cased
+        Dict names = new Dict();              // lower-cased
+        final Dict words = new Dict();        // words of multi-word names; chains run over pairs
+        int[] pairName = new int[256];        // pair -> name id containing the word
+        int[] pairNext = new int[256];
+        int pairs;
+        final int[] scoreHead = new int[101], scoreLast = new int[101], scoreCount = new int[101];
+
+        Rows() {
+            Arrays.fill(scoreHead, -1);
+        }
+
+        void add(long offset, long stamp, int score, String email, String name) {
+            byte[] e = key(email), n = key(name);
+            add(offset, stamp, score, emails.intern(e, 0, e.length), internName(n, 0, n.length));
+        }
+
+        private void add(long offset, long stamp, int score, int emailId, int nameId) {
+            if (count == offsets.length) {
+                int cap = count * 2;
+                offsets = Arrays.copyOf(offsets, cap);
+                stamps = Arrays.copyOf(stamps, cap);
+                scores = Arrays.copyOf(scores, cap);
+                emailIds = Arrays.copyOf(emailIds, cap);
+                nameIds = Arrays.copyOf(nameIds, cap);
+                nextEmail = Arrays.copyOf(nextEmail, cap);
+                nextName = Arrays.copyOf(nextName, cap);
+                nextScore = Arrays.copyOf(nextScore, cap);
+            }
+            int row = count++;
+            if (row > 0 && stamp < stamps[row - 1]) stampsSorted = false;
+            offsets[row] = offset;
+            stamps[row] = stamp;
+            scores[row] = score;
+            emailIds[row] = emailId;
+            nameIds[row] = nameId;
+            emails.link(emailId, row, nextEmail);
+            names.link(nameId, row, nextName);
+            nextScore[row] = -1;
+            if (score >= 0 && score <= 100) {
+                if (scoreHead[score] < 0) scoreHead[score] = row;
+                else nextScore[scoreLast[score]] = row;
+                scoreLast[score] = row;
+                scoreCount[score]++;
+            }
+        }
+
+        static byte[] key(String s) {
+            return s.trim().toLowerCase(Locale.ROOT).getBytes(StandardCharsets.UTF_8);
+        }
+
+        private int internName(byte[] b, int off, int len) {
+            int before = names.size;
+            int id = names.intern(b, off, len);
+            if (id == before) indexWords(id);
+            return id;
+        }
+
+        // Links each word of a multi-word name to the name
+        private void indexWords(int nameId) {
+            int s = names.starts[nameId], e = names.starts[nameId + 1];
+            for (int i = s; i < e; ) {
+                while (i < e && isSpace(names.bytes[i])) i++;
+                int w0 = i;
+                while (i < e && !isSpace(names.bytes[i])) i++;
+                if (i == w0 || (w0 == s && i == e)) continue; // empty, or the whole name
+                int w = words.intern(names.bytes, w0, i - w0);
+                if (words.last[w] >= 0 && pairName[words.last[w]] == nameId) continue; // repeated word
+                if (pairs == pairName.length) {
+                    pairName = Arrays.copyOf(pairName, pairs * 2);
+                    pairNext = Arrays.copyOf(pairNext, pairs * 2);
+                }
+                pairName[pairs] = nameId;
+                words.link(w, pairs++, pairNext);
+            }
+        }
+
+        private static boolean isSpace(byte b) {
+            return b == ' ' || b == '\t' || b == '\n' || b == '\r' || b == '\f' || b == 0x0B;
+        }
+
+        /** Appends the rows of {@code o}, which come after this one's in the file. */
+        Rows append(Rows o) {
+            int[] emailMap = new int[o.emails.size], nameMap = new int[o.names.size];
+            Arrays.fill(emailMap, -1);
+            Arrays.fill(nameMap, -1);
+            for (int i = 0; i < o.count; i++) {
+                int e = o.emailIds[i], n = o.nameIds[i];
+                if (emailMap[e] < 0) emailMap[e] = emails.intern(o.emails.bytes, o.emails.starts[e], o.emails.length(e));
+                if (nameMap[n] < 0) nameMap[n] = internName(o.names.bytes, o.names.starts[n], o.names.length(n));
+                add(o.offsets[i], o.stamps[i], o.scores[i], emailMap[e], nameMap[n]);
+            }
+            return this;
+        }
+
+        /** Sorts every dictionary, so prefix lookups start from a fully sorted key order. */
+        void seal() {
+            emails.seal();
+            names.seal();
+            words.seal();
+        }
+
+        /** Name ids whose whole name or any word of it starts with {@code prefix}. */
+        BitSet nameKeys(byte[] prefix) {
+            BitSet out = names.matching(prefix, true);
+            BitSet ws = words.matching(prefix, true);
+            for (int w = ws.nextSetBit(0); w >= 0; w = ws.nextSetBit(w + 1)) {
+                for (int p = words.head[w]; p >= 0; p = pairNext[p]) out.set(pairName[p]);
+            }
+            return out;
+        }
+
+        /** {@code [lo, hi)} of the rows stamped within {@code [from, to]}, or null when rows are out of time order. */
+        int[] stampSpan(long from, long to) {
+            if (!stampsSorted) return null;
+            return new int[]{lowerBound(from), to == Long.MAX_VALUE ? count : lowerBound(to + 1)};
+        }
+
+        private int lowerBound(long stamp) {
+            int lo = 0, hi = count;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (stamps[mid] < stamp) lo = mid + 1;
+                else hi = mid;
+            }
+            return lo;
+        }
+
+        long scoreRows(int min, int max) {
+            long n = 0;
+            for (int s = Math.max(0, min); s <= Math.min(100, max); s++) n += scoreCount[s];
+            return n;
+        }
+
+        // Ascending rows scored within [min, max]
+        int[] scoreRange(int min, int max) {
+            int[] out = new int[(int) scoreRows(min, max)];
+            int m = 0, lists = 0;
+            for (int s = Math.max(0, min); s <= Math.min(100, max); s++) {
+                if (scoreHead[s] >= 0) lists++;
+                for (int r = scoreHead[s]; r >= 0; r = nextScore[r]) out[m++] = r;
+            }
+            if (lists > 1) Arrays.sort(out);
+            return out;
+        }
+
+        /** Copy of the columns and dictionaries only (no chains or hash tables), for writing a snapshot. */
+        Rows columns() {
+            Rows r = new Rows();
+            r.count = count;
+            r.offsets = Arrays.copyOf(offsets, count);
+            r.stamps = Arrays.copyOf(stamps, count);
+            r.scores = Arrays.copyOf(scores, count);
+            r.emailIds = Arrays.copyOf(emailIds, count);
+            r.nameIds = Arrays.copyOf(nameIds, count);
+            r.emails = emails.copy();
+            r.names = names.copy();
+            return r;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            emails.write(out);
+            names.write(out);
+            out.writeInt(count);
+            for (int i = 0; i < count; i++) {
+                out.writeLong(offsets[i]);
+                out.writeLong(stamps[i]);
+                out.writeInt(scores[i]);
+                out.writeInt(emailIds[i]);
+                out.writeInt(nameIds[i]);
+            }
+        }
+
+        static Rows read(DataInputStream in) throws IOException {
+            Rows r = new Rows();
+            r.emails = Dict.read(in);
+            r.names = Dict.read(in);
+            for (int id = 0; id < r.names.size; id++) r.indexWords(id);
+            r.words.seal();
+            for (int i = in.readInt(); i > 0; i--) {
+                long off = in.readLong(), stamp = in.readLong();
+                int score = in.readInt(), e = in.readInt(), n = in.readInt();
+                if (e < 0 || e >= r.emails.size || n < 0 || n >= r.names.size) throw new IOException("bad search index snapshot");
+                r.add(off, stamp, score, e, n);
+            }
+            return r;
+        }
+    }
+
+    /**
+     * Distinct keys stored back to back as UTF-8 in one byte array, a few bytes each rather than a
+     * String and a map entry. Ids are dense in arrival order; an open-addressing table interns keys,
+     * and an id array kept in key order serves prefix ranges (ids past it are few and are checked
+     * one by one). Each id heads a posting chain whose links live in the caller's {@code next} array.
+     */
+    static final class Dict {
+        private static final int UNSORTED_MAX = 4096;
+
+        int size;
+        byte[] bytes = new byte[4096];
+        int used;
+        int[] starts = new int[257];          // key i is bytes[starts[i], starts[i + 1])
+        int[] head = new int[256], last = new int[256], count = new int[256];
+        int[] sorted = new int[0];            // ids below sorted.length, in key order
+        private int[] table = new int[512];   // id + 1, 0 when free
+
+        int length(int id) {
+            return starts[id + 1] - starts[id];
+        }
+
+        /** Id of {@code b[off, off + len)}, added if new. */
+        int intern(byte[] b, int off, int len) {
+            int mask = table.length - 1;
+            int h = hash(b, off, len) & mask;
+            for (int t; (t = table[h]) != 0; h = (h + 1) & mask) {
+                if (equals(t - 1, b, off, len)) return t - 1;
+            }
+            if (size + 1 == head.length) {
+                int cap = head.length * 2;
+                head = Arrays.copyOf(head, cap);
+                last = Arrays.copyOf(last, cap);
+                count = Arrays.copyOf(count, cap);
+                starts = Arrays.copyOf(starts, cap + 1);
+            }
+            if (used + len > bytes.length) bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, used + len));
+            System.arraycopy(b, off, bytes, used, len);
+            used += len;
+            int id = size++;
+            starts[size] = used;
+            head[id] = last[id] = -1;
+            table[h] = id + 1;
+            if (size * 2 > table.length) rehash(table.length * 2);
+            return id;
+        }
+
+        int find(byte[] key) {
+            int mask = table.length - 1;
+            for (int h = hash(key, 0, key.length) & mask, t; (t = table[h]) != 0; h = (h + 1) & mask) {
+                if (equals(t - 1, key, 0, key.length)) return t - 1;
+            }
+            return -1;
+        }
+
+        /** Appends {@code member} to {@code id}'s chain. */
+        void link(int id, int member, int[] next) {
+            next[member] = -1;
+            if (head[id] < 0) head[id] = member;
+            else next[last[id]] = member;
+            last[id] = member;
+            count[id]++;
+        }
+
+        /** Ids of the keys equal to {@code key}, or starting with it when {@code prefix}. */
+        BitSet matching(byte[] key, boolean prefix) {
+            BitSet out = new BitSet();
+            if (!prefix) {
+                int id = find(key);
+                if (id >= 0) out.set(id);
+                return out;
+            }
+            if (size - sorted.length > UNSORTED_MAX) seal();
+            int lo = 0, hi = sorted.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (Arrays.compareUnsigned(bytes, starts[sorted[mid]], starts[sorted[mid] + 1], key, 0, key.length) < 0) lo = mid + 1;
+                else hi = mid;
+            }
+            for (int i = lo; i < sorted.length && startsWith(sorted[i], key); i++) out.set(sorted[i]);
+            for (int id = sorted.length; id < size; id++) {
+                if (startsWith(id, key)) out.set(id);
+            }
+            return out;
+        }
+
+        /** Total chain length over {@code ids}. */
+        long rows(BitSet ids) {
+            long n = 0;
+            for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) n += count[id];
+            return n;
+        }
+
+        /** Ascending members of the chains of {@code ids}. */
+        int[] rows(BitSet ids, int[] next) {
+            int[] out = new int[(int) rows(ids)];
+            int m = 0;
+            for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) {
+                for (int r = head[id]; r >= 0; r = next[r]) out[m++] = r;
+            }
+            if (ids.cardinality() > 1) Arrays.sort(out);
+            return out;
+        }
+
+        /** Merges the ids added since the last call into the key order. */
+        void seal() {
+            int done = sorted.length;
+            if (done == size) return;
+            int[] tail = new int[size - done];
+            for (int i = 0; i < tail.length; i++) tail[i] = done + i;
+            sort(tail, new int[tail.length], 0, tail.length);
+            int[] out = new int[size];
+            int i = 0, j = 0, k = 0;
+            while (i < done && j < tail.length) out[k++] = compare(sorted[i], tail[j]) <= 0 ? sorted[i++] : tail[j++];
+            while (i < done) out[k++] = sorted[i++];
+            while (j < tail.length) out[k++] = tail[j++];
+            sorted = out;
+        }
+
+        // Merge sort of ids by key
+        private void sort(int[] a, int[] tmp, int from, int to) {
+            if (to - from < 16) {
+                for (int i = from + 1; i < to; i++) {
+                    int x = a[i], j = i - 1;
+                    for (; j >= from && compare(a[j], x) > 0; j--) a[j + 1] = a[j];
+                    a[j + 1] = x;
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            sort(a, tmp, from, mid);
+            sort(a, tmp, mid, to);
+            if (compare(a[mid - 1], a[mid]) <= 0) return;
+            System.arraycopy(a, from, tmp, from, to - from);
+            for (int i = from, j = mid, k = from; k < to; k++) {
+                a[k] = j >= to || (i < mid && compare(tmp[i], tmp[j]) <= 0) ? tmp[i++] : tmp[j++];
+            }
+        }
+
+        private int compare(int a, int b) {
+            return Arrays.compareUnsigned(bytes, starts[a], starts[a + 1], bytes, starts[b], starts[b + 1]);
+        }
+
+        private boolean startsWith(int id, byte[] prefix) {
+            int s = starts[id];
+            return length(id) >= prefix.length && Arrays.equals(bytes, s, s + prefix.length, prefix, 0, prefix.length);
+        }
+
+        private boolean equals(int id, byte[] b, int off, int len) {
+            int s = starts[id];
+            return length(id) == len && Arrays.equals(bytes, s, s + len, b, off, off + len);
+        }
+
+        private static int hash(byte[] b, int off, int len) {
+            int h = 0x811C9DC5; // FNV-1a
+            for (int i = off; i < off + len; i++) h = (h ^ b[i]) * 0x01000193;
+            return h ^ (h >>> 16);
+        }
+
+        private void rehash(int cap) {
+            table = new int[cap];
+            int mask = cap - 1;
+            for (int id = 0; id < size; id++) {
+                int h = hash(bytes, starts[id], length(id)) & mask;
+                while (table[h] != 0) h = (h + 1) & mask;
+                table[h] = id + 1;
+            }
+        }
+
+        /** Keys and key order only, for writing a snapshot. */
+        Dict copy() {
+            Dict d = new Dict();
+            d.size = size;
+            d.used = used;
+            d.bytes = Arrays.copyOf(bytes, used);
+            d.starts = Arrays.copyOf(starts, size + 1);
+            d.sorted = sorted.clone();
+            return d;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeInt(size);
+            out.writeInt(used);
+            out.write(bytes, 0, used);
+            for (int i = 1; i <= size; i++) out.writeInt(starts[i]);
+            out.writeInt(sorted.length);
+            for (int id : sorted) out.writeInt(id);
+        }
+
+        static Dict read(DataInputStream in) throws IOException {
+            Dict d = new Dict();
+            int size = in.readInt(), used = in.readInt();
+            if (size < 0 || used < 0) throw new IOException("bad search index snapshot");
+            d.size = size;
+            d.used = used;
+            d.bytes = new byte[Math.max(used, 16)];
+            in.readFully(d.bytes, 0, used);
+            d.starts = new int[size + 2];
+            for (int i = 1; i <= size; i++) {
+                d.starts[i] = in.readInt();
+                if (d.starts[i] < d.starts[i - 1] || d.starts[i] > used) throw new IOException("bad search index snapshot");
+            }
+            d.head = new int[size + 1];
+            d.last = new int[size + 1];
+            d.count = new int[size + 1];
+            Arrays.fill(d.head, -1);
+            Arrays.fill(d.last, -1);
+            int n = in.readInt();
+            if (n < 0 || n > size) throw new IOException("bad search index snapshot");
+            d.sorted = new int[n];
+            for (int i = 0; i < n; i++) {
+                d.sorted[i] = in.readInt();
+                if (d.sorted[i] < 0 || d.sorted[i] >= n) throw new IOException("bad search index snapshot");
+            }
+            d.rehash(Integer.highestOneBit(Math.max(size, 128) * 2) * 2);
+            return d;
+        }
+    }
+
+    // ---------------- Snapshots ----------------
+    private void snapshotQuietly() {
+        try {
+            writeSnapshot();
+        } catch (IOException e) {
+            Metrics.error("search_index_snapshot", e);
+        }
+    }
+
+    void writeSnapshot() throws IOException {
+        Rows r;
+        long cov;
+        synchronized (this) {
+            if (!dirty || !ready) return;
+            r = rows.columns();
+            cov = covered;
+            dirty = false;
+        }
+        Path tmp = snapshot.resolveSibling(snapshot.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+            out.writeInt(SNAP_MAGIC);
+            out.writeInt(SNAP_VERSION);
+            out.writeLong(cov);
+            out.writeLong(ResultAnalytics.headCrc(results, cov));
+            r.write(out);
+        }
+        Files.move(tmp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void loadSnapshot() throws IOException {
+        if (!Files.exists(snapshot)) return;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshot), 1 << 16))) {
+            if (in.readInt() != SNAP_MAGIC || in.readInt() != SNAP_VERSION) throw new IOException("bad snapshot");
+            long cov = in.readLong();
+            long crc = in.readLong();
+            if (!Files.exists(results) || Files.size(results) < cov || ResultAnalytics.headCrc(results, cov) != crc) {
+                throw new IOException("snapshot does not match " + results);
+            }
+            Rows r = Rows.read(in);
+            if (r.count > 0 && !rowStartsAt(r.offsets[r.count - 1], r.stamps[r.count - 1])) {
+                throw new IOException("snapshot does not match " + results); // rewritten past the head
+            }
+            rows = r;
+            covered = cov;
+        }
+    }
+
+    // Whether a record stamped {@code stamp} starts at {@code offset} (the byte before it ends a line)
+    private boolean rowStartsAt(long offset, long stamp) throws IOException {
+        try (FileChannel ch = FileChannel.open(results, StandardOpenOption.READ)) {
+            ByteBuffer b = ByteBuffer.allocate(20);
+            ch.read(b, offset - 1);
+            b.flip();
+            if (b.remaining() < 20 || b.get(0) != '\n') return false;
+            CsvCodec.Reader rd = new CsvCodec.Reader(8);
+            b.position(1);
+            return rd.next(b) && SegmentedResultLog.stamp(rd, 0) == stamp;
+        }
+    }
+}
@@ -0,0 +1,420 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import javax.swing.RowSorter;
+import javax.swing.SortOrder;
+import javax.swing.SwingUtilities;
+import javax.swing.table.AbstractTableModel;
+
+/**
+ * Read-only table model over a memory-mapped results file. A background thread builds an index
+ * of record start offsets; rows are parsed only when the table asks for them (plus a prefetch
+ * window) and kept in a small LRU, so opening the view costs the same for any file size.
+ *
+ * A following model keeps the file open after indexing: it waits for change notifications from a
+ * {@link WatchService} on the file's directory (or polls every {@code quiz.admin.pollMs}, default
+ * 500, where watching is unavailable), indexes only the bytes appended since the last scan and
+ * hands new rows to the EDT in batches, at most once per {@code PUBLISH_NANOS}. A file that shrinks
+ * or is replaced (cleared, rolled, re-graded) is indexed again from the start. Only the last,
+ * still-growing mapping window is remapped as the file grows.
+ *
+ * Sorting is done by the model: {@link #sorter} gives the table a row sorter whose header clicks
+ * reorder the rows on a background thread, reading just the sorted column of each row. Like a
+ * filter, a sort shows rows appended later only once it is applied again.
+ */
+final class ResultsTableModel extends AbstractTableModel {
+
+    private static final long serialVersionUID = 1L;
+
+    static final String[] COLUMNS = {"Timestamp", "Name", "Email", "Score%", "Correct", "Total", "Answers"};
+
+    private static final int CACHE_ROWS = 2048;
+    private static final int PREFETCH = 64;
+    private static final long PUBLISH_NANOS = 50_000_000L; // row-count updates to the EDT at most every 50 ms
+    private static final long POLL_MILLIS = Long.getLong("quiz.admin.pollMs", 500);
+
+    private final Path path;
+    private final boolean follow;
+    private final Consumer<Exception> onError;
+
+    // EDT-only; the indexer hands over (mappings, offsets, count) together via publish()
+    private MappedByteBuffer[] segments = new MappedByteBuffer[0];
+    private long[] offsets = new long[0];
+    private long dataEnd;
+    private int rowCount;
+    private boolean lastOpen;            // last row had no line terminator yet; re-parse it when it grows
+    private int[] filterRows;            // file rows matching the filter, else null
+    private int[] view;                  // file rows shown, filtered and sorted, else null
+    private int sortColumn = -1;
+    private boolean sortAscending = true;
+    private volatile int sortToken;      // read by the sort thread to drop a superseded sort
+    private int generation;
+    private Thread indexer;
+    private final LinkedHashMap<Integer, String[]> cache = new LinkedHashMap<Integer, String[]>(CACHE_ROWS, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry<Integer, String[]> e) { return size() > CACHE_ROWS; }
+    };
+    private byte[] scratch = new byte[512];
+    private ByteBuffer scratchBuf = ByteBuffer.wrap(scratch);
+    private final CsvCodec.Reader reader = new CsvCodec.Reader(COLUMNS.length);
+
+    ResultsTableModel(Path path, Consumer<Exception> onError) {
+        this(path, false, onError);
+    }
+
+    /** With {@code follow}, rows appended to the file after indexing keep appearing until {@link #close}. */
+    ResultsTableModel(Path path, boolean follow, Consumer<Exception> onError) {
+        this.path = path;
+        this.follow = follow;
+        this.onError = onError;
+    }
+
+    /** Drops the current view and re-indexes the file in the background. Call on the EDT. */
+    void reload() {
+        close();
+        clear();
+        int gen = ++generation;
+        indexer = new Thread(() -> run(gen), follow ? "results-tail" : "results-indexer");
+        indexer.setDaemon(true);
+        indexer.start();
+    }
+
+    private void clear() {
+        segments = new MappedByteBuffer[0];
+        offsets = new long[0];
+        dataEnd = 0;
+        lastOpen = false;
+        filterRows = null;
+        view = null;
+        sortToken++;
+        cache.clear();
+        rowCount = 0;
+        fireTableDataChanged();
+    }
+
+    /**
+     * Shows only the rows starting at {@code rowOffsets} (ascending byte offsets, e.g. from
+     * {@link ResultsIndex#find}), or every row again when null. Offsets this model has not indexed
+     * yet are left out. Call on the EDT.
+     */
+    void setFilter(long[] rowOffsets) {
+        if (rowOffsets == null) {
+            filterRows = null;
+        } else {
+            int[] rows = new int[rowOffsets.length];
+            int n = 0;
+            for (long off : rowOffsets) {
+                int r = Arrays.binarySearch(offsets, 0, rowCount, off);
+                if (r >= 0) rows[n++] = r;
+            }
+            filterRows = Arrays.copyOf(rows, n);
+        }
+        applySort();
+    }
+
+    boolean isFiltered() { return filterRows != null; }
+
+    /**
+     * Orders the rows by {@code column} ({@code -1} for file order). The filtered rows, or all rows
+     * indexed so far, are sorted in the background; the current order stays until that finishes.
+     * Call on the EDT.
+     */
+    void sort(int column, boolean ascending) {
+        sortColumn = column;
+        sortAscending = ascending;
+        applySort();
+    }
+
+    private void applySort() {
+        int token = ++sortToken;
+        if (sortColumn < 0) {
+            view = filterRows;
+            fireTableDataChanged();
+            return;
+        }
+        int[] rows = filterRows;
+        if (rows == null) {
+            rows = new int[rowCount];
+            for (int i = 0; i < rows.length; i++) rows[i] = i;
+        }
+        int[] base = rows;
+        int gen = generation;
+        int column = sortColumn;
+        boolean ascending = sortAscending;
+        MappedByteBuffer[] segs = segments;
+        long[] offs = offsets;
+        int count = rowCount;
+        long end = dataEnd;
+        Thread t = new Thread(() -> {
+            int[] sorted = sortRows(segs, offs, count, end, base, column, ascending, () -> token == sortToken);
+            SwingUtilities.invokeLater(() -> {
+                if (sorted == null || token != sortToken || gen != generation) return;
+                view = sorted;
+                fireTableDataChanged();
+            });
+        }, "results-sort");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /** A row sorter for a table over this model: header clicks call {@link #sort}, rows are not remapped. */
+    RowSorter<ResultsTableModel> sorter() {
+        return new RowSorter<ResultsTableModel>() {
+            private List<SortKey> keys = Collections.emptyList();
+
+            @Override public ResultsTableModel getModel() { return ResultsTableModel.this; }
+
+            @Override
+            public void toggleSortOrder(int column) {
+                boolean asc = keys.isEmpty() || keys.get(0).getColumn() != column
+                        || keys.get(0).getSortOrder() != SortOrder.ASCENDING;
+                setSortKeys(Collections.singletonList(new SortKey(column, asc ? SortOrder.ASCENDING : SortOrder.DESCENDING)));
+            }
+
+            @Override
+            public void setSortKeys(List<? extends SortKey> k) {
+                keys = k == null || k.isEmpty() || k.get(0).getSortOrder() == SortOrder.UNSORTED
+                        ? Collections.emptyList() : Collections.singletonList(k.get(0));
+                fireSortOrderChanged();
+                if (keys.isEmpty()) sort(-1, true);
+                else sort(keys.get(0).getColumn(), keys.get(0).getSortOrder() == SortOrder.ASCENDING);
+            }
+
+            @Override public List<? extends SortKey> getSortKeys() { return keys; }
+            @Override public int convertRowIndexToModel(int index) { return index; }
+            @Override public int convertRowIndexToView(int index) { return index; }
+            @Override public int getViewRowCount() { return getRowCount(); }
+            @Override public int getModelRowCount() { return getRowCount(); }
+            @Override public void modelStructureChanged() { }
+            @Override public void allRowsChanged() { }
+            @Override public void rowsInserted(int firstRow, int endRow) { }
+            @Override public void rowsDeleted(int firstRow, int endRow) { }
+            @Override public void rowsUpdated(int firstRow, int endRow) { }
+            @Override public void rowsUpdated(int firstRow, int endRow, int column) { }
+        };
+    }
+
+    /** Rows in the file, whether or not a filter hides some of them. */
+    int fileRowCount() { return rowCount; }
+
+    /** Stops indexing and following. Mappings are released when the model is garbage collected. */
+    void close() {
+        if (indexer != null) {
+            indexer.interrupt();
+            indexer = null;
+        }
+    }
+
+    boolean isIndexing() { return indexer != null && indexer.isAlive(); }
+
+    @Override public int getRowCount() { return view == null ? rowCount : view.length; }
+    @Override public int getColumnCount() { return COLUMNS.length; }
+    @Override public String getColumnName(int c) { return COLUMNS[c]; }
+    @Override public boolean isCellEditable(int r, int c) { return false; }
+
+    @Override
+    public Object getValueAt(int r, int c) {
+        int fileRow = view == null ? r : view[r];
+        String[] row = cache.get(fileRow);
+        if (row == null) {
+            int end = Math.min(getRowCount(), r + PREFETCH);
+            for (int i = r; i < end; i++) {
+                int f = view == null ? i : view[i];
+                if (i == r || !cache.containsKey(f)) cache.put(f, parseRow(f));
+            }
+            row = cache.get(fileRow);
+        }
+        return c < row.length ? row[c] : "";
+    }
+
+    // ---------------- Parsing ----------------
+    private String[] parseRow(int r) {
+        long start = offsets[r];
+        long end = r + 1 < rowCount ? offsets[r + 1] : dataEnd;
+        int len = (int) (end - start);
+        if (len > scratch.length) {
+            scratch = new byte[Math.max(len, scratch.length * 2)];
+            scratchBuf = ByteBuffer.wrap(scratch);
+        }
+        RecordIndex.copy(segments, start, scratch, len);
+        scratchBuf.limit(len).position(0);
+        if (!reader.next(scratchBuf)) return new String[0];
+        String[] row = new String[reader.fieldCount()];
+        for (int i = 0; i < row.length; i++) row[i] = reader.string(i);
+        return row;
+    }
+
+    /**
+     * {@code rows} ordered by {@code column}: numerically for the score and count columns, else by
+     * text. Ties keep file order. Returns null once {@code current} turns false.
+     */
+    private static int[] sortRows(MappedByteBuffer[] segs, long[] offs, int count, long dataEnd, int[] rows,
+                                  int column, boolean ascending, BooleanSupplier current) {
+        CsvCodec.Reader rd = new CsvCodec.Reader(COLUMNS.length);
+        byte[] buf = new byte[512];
+        boolean numeric = column >= 3 && column <= 5;
+        long[] packed = numeric ? new long[rows.length] : null;
+        String[] text = numeric ? null : new String[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            if ((i & 0xFFFF) == 0 && !current.getAsBoolean()) return null;
+            int r = rows[i];
+            long start = offs[r];
+            int len = (int) ((r + 1 < count ? offs[r + 1] : dataEnd) - start);
+            if (len > buf.length) buf = new byte[Math.max(len, buf.length * 2)];
+            RecordIndex.copy(segs, start, buf, len);
+            boolean ok = rd.next(ByteBuffer.wrap(buf, 0, len)) && column < rd.fieldCount();
+            if (numeric) {
+                int v = ok ? rd.parseInt(column) : -1;
+                packed[i] = (long) (ascending ? v : ~v) << 32 | i; // i breaks ties in file order
+            } else {
+                text[i] = ok ? rd.string(column) : "";
+            }
+        }
+        int[] out = new int[rows.length];
+        if (numeric) {
+            Arrays.sort(packed);
+            for (int i = 0; i < out.length; i++) out[i] = rows[(int) packed[i]];
+        } else {
+            Integer[] idx = new Integer[rows.length];
+            for (int i = 0; i < idx.length; i++) idx[i] = i;
+            Comparator<Integer> byText = Comparator.comparing(i -> text[i]);
+            Arrays.sort(idx, ascending ? byText : byText.reversed()); // stable
+            for (int i = 0; i < out.length; i++) out[i] = rows[idx[i]];
+        }
+        return out;
+    }
+
+    // ---------------- Background indexing and following ----------------
+    private void run(int gen) {
+        WatchService watcher = follow ? watch() : null;
+        try {
+            while (follow(gen, watcher)) { // the file was replaced: start over
+                SwingUtilities.invokeLater(() -> {
+                    if (gen == generation) clear();
+                });
+            }
+        } catch (InterruptedException | ClosedWatchServiceException | ClosedByInterruptException e) {
+            // closed, or superseded by a reload
+        } catch (IOException e) {
+            SwingUtilities.invokeLater(() -> {
+                if (gen == generation) onError.accept(e);
+            });
+        } finally {
+            if (watcher != null) {
+                try {
+                    watcher.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    // Indexes the current file, then (when following) its appends; true when the file was replaced
+    private boolean follow(int gen, WatchService watcher) throws IOException, InterruptedException {
+        while (!Files.exists(path)) {
+            if (!follow) return false; // nothing saved yet
+            awaitChange(watcher);
+        }
+        RecordIndex.Scanner sc = new RecordIndex.Scanner();
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            Object fileKey = fileKey();
+            long t0 = System.nanoTime();
+            MappedByteBuffer[] initial = RecordIndex.map(ch);
+            long size = initial.length == 0 ? 0 : (initial.length - 1) * RecordIndex.SEGMENT + initial[initial.length - 1].limit();
+            long[] lastPublish = {System.nanoTime()};
+            boolean done = sc.scan(initial, size, (offs, count) -> {
+                if (Thread.currentThread().isInterrupted()) return false;
+                long now = System.nanoTime();
+                if (now - lastPublish[0] > PUBLISH_NANOS && count > 0) {
+                    publish(gen, initial, offs, count - 1, offs[count - 1], false); // last row's end is not known yet
+                    lastPublish[0] = now;
+                }
+                return true;
+            });
+            if (!done) throw new InterruptedException();
+            Metrics.RESULTS_LOAD.recordSince(t0);
+            publish(gen, initial, sc.offsets, sc.count, sc.pos, sc.lastOpen());
+            SwingUtilities.invokeLater(() -> {
+                if (gen == generation && sortColumn >= 0) applySort(); // rows streamed in unsorted
+            });
+            if (!follow) return false;
+            MappedByteBuffer[] segs = initial;
+            while (true) {
+                long waited = System.nanoTime();
+                awaitChange(watcher);
+                long rest = PUBLISH_NANOS - (System.nanoTime() - waited);
+                if (rest > 0) Thread.sleep(rest / 1_000_000); // bound the UI update rate; appends coalesce meanwhile
+                if (!Files.exists(path) || !Objects.equals(fileKey, fileKey())) return true;
+                size = ch.size();
+                if (size < sc.pos) return true; // truncated or rewritten in place
+                if (size == sc.pos) continue;
+                segs = RecordIndex.extend(ch, segs, size);
+                sc.scan(segs, size, null);
+                publish(gen, segs, sc.offsets, sc.count, sc.pos, sc.lastOpen());
+            }
+        }
+    }
+
+    private WatchService watch() {
+        if (Boolean.getBoolean("quiz.admin.poll")) return null;
+        try {
+            Path dir = path.toAbsolutePath().getParent();
+            WatchService ws = dir.getFileSystem().newWatchService();
+            dir.register(ws, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+                    StandardWatchEventKinds.ENTRY_DELETE);
+            return ws;
+        } catch (IOException | UnsupportedOperationException e) {
+            return null; // poll instead
+        }
+    }
+
+    // Returns after a change in the directory or the poll interval, whichever comes first
+    private static void awaitChange(WatchService watcher) throws InterruptedException {
+        if (watcher == null) {
+            Thread.sleep(POLL_MILLIS);
+            return;
+        }
+        // Events are only a hint (other files share the directory, some file systems drop them), so
+        // the caller always checks the file itself and the timeout doubles as a polling fallback
+        WatchKey key = watcher.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+        while (key != null) {
+            key.pollEvents();
+            key.reset();
+            key = watcher.poll();
+        }
+    }
+
+    private Object fileKey() {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private void publish(int gen, MappedByteBuffer[] segs, long[] offs, int count, long end, boolean open) {
+        SwingUtilities.invokeLater(() -> {
+            if (gen != generation || count < rowCount || (count == rowCount && !lastOpen)) return;
+            int first = rowCount;
+            if (lastOpen) {
+                cache.remove(first - 1); // its bytes were still being written
+            }
+            segments = segs;
+            offsets = offs;
+            dataEnd = end;
+            boolean wasOpen = lastOpen;
+            lastOpen = open;
+            rowCount = count;
+            if (view != null) return; // the filtered or sorted rows are unchanged; re-apply to see new ones
+            if (wasOpen) fireTableRowsUpdated(first - 1, first - 1);
+            if (count > first) fireTableRowsInserted(first, count - 1);
+        });
+    }
+}
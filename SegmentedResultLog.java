@@ -0,0 +1,428 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Time-partitioned results history. The results file is the live head; when it crosses a day
+ * boundary or a size limit the writer moves it into the segment directory as a sealed segment and
+ * starts a new one. A manifest records each segment's min/max timestamp, row count and size, so a
+ * date-range query opens only the segments that overlap the range (plus the live head).
+ *
+ * Retention archives (gzip) or drops sealed segments whose newest row is older than the configured
+ * number of days. Segments keep the results header, so every segment is itself a results CSV.
+ */
+final class SegmentedResultLog implements ResultWriter.Roller {
+
+    enum Roll { NONE, DAY, SIZE }
+
+    private static final String MANIFEST = "manifest.csv";
+    private static final String MANIFEST_HEADER = "segment,min_ts,max_ts,rows,bytes\n";
+
+    /** One sealed segment as recorded in the manifest. Timestamps are yyyyMMddHHmmss longs. */
+    static final class Segment {
+        final String file;
+        final long minTs, maxTs;
+        final long rows, bytes;
+        Segment(String file, long minTs, long maxTs, long rows, long bytes) {
+            this.file = file;
+            this.minTs = minTs;
+            this.maxTs = maxTs;
+            this.rows = rows;
+            this.bytes = bytes;
+        }
+        boolean archived() { return file.endsWith(".gz"); }
+    }
+
+    private final Path active;
+    private final Path dir;
+    private final Roll roll;
+    private final long maxBytes;
+    private final int retainDays;
+    private final boolean archive;
+    private final ExecutorService retention = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "results-retention");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // Guarded by this
+    private final List<Segment> segments = new ArrayList<>();
+    // Writer-thread state
+    private LocalDate activeDay;
+    private long retryAt;                  // after a failed roll, System.nanoTime() of the next attempt
+
+    SegmentedResultLog(Path active, Path dir, Roll roll, long maxBytes, int retainDays, boolean archive) throws IOException {
+        this.active = active;
+        this.dir = dir;
+        this.roll = roll;
+        this.maxBytes = maxBytes;
+        this.retainDays = retainDays;
+        this.archive = archive;
+        loadManifest();
+        long first = firstStamp(active);
+        activeDay = first < 0 ? null : day(first);
+        retryAt = System.nanoTime();
+    }
+
+    /**
+     * Builds the log for {@code active} from system properties: {@code quiz.results.roll} =
+     * {@code day}, {@code <n>mb} or unset (no rolling); {@code quiz.results.segments} = segment
+     * directory (default {@code <results>-segments}); {@code quiz.results.retain.days} (0 keeps
+     * everything) and {@code quiz.results.retain.mode} = {@code archive} (default) or {@code drop}.
+     */
+    static SegmentedResultLog fromSystemProperties(Path active) throws IOException {
+        String r = System.getProperty("quiz.results.roll", "").trim().toLowerCase(Locale.ROOT);
+        Roll roll = Roll.NONE;
+        long maxBytes = Long.MAX_VALUE;
+        if (r.equals("day")) {
+            roll = Roll.DAY;
+        } else if (r.endsWith("mb")) {
+            roll = Roll.SIZE;
+            maxBytes = Long.parseLong(r.substring(0, r.length() - 2).trim()) << 20;
+        } else if (!r.isEmpty()) {
+            throw new IllegalArgumentException("quiz.results.roll must be 'day' or '<n>mb': " + r);
+        }
+        String name = active.getFileName().toString().replaceFirst("\\.csv$", "");
+        Path dir = Paths.get(System.getProperty("quiz.results.segments", active.resolveSibling(name + "-segments").toString()));
+        int retainDays = Integer.getInteger("quiz.results.retain.days", 0);
+        boolean archive = !"drop".equalsIgnoreCase(System.getProperty("quiz.results.retain.mode", "archive"));
+        return new SegmentedResultLog(active, dir, roll, maxBytes, retainDays, archive);
+    }
+
+    /** Installs this log as the writer's roller and starts retention of old segments. */
+    void attach(ResultWriter w) {
+        w.setRoller(this);
+        if (retainDays > 0) retention.execute(this::applyRetention);
+    }
+
+    synchronized List<Segment> segments() {
+        return new ArrayList<>(segments);
+    }
+
+    Path file(Segment s) {
+        return dir.resolve(s.file);
+    }
+
+    // ---------------- Rolling (writer thread) ----------------
+    @Override
+    public boolean due(long fileBytes, LocalDateTime at) {
+        if (fileBytes <= ResultsCsv.HEADER.length()) { // nothing to seal yet
+            activeDay = at.toLocalDate();
+            return false;
+        }
+        if (System.nanoTime() < retryAt) return false;
+        if (activeDay == null) activeDay = at.toLocalDate();
+        return (roll == Roll.SIZE && fileBytes >= maxBytes) || (roll == Roll.DAY && !at.toLocalDate().equals(activeDay));
+    }
+
+    // Called with the results file closed; everything in it is durable
+    @Override
+    public void roll() throws IOException {
+        try {
+            seal();
+            activeDay = null;
+        } catch (IOException | RuntimeException e) {
+            retryAt = System.nanoTime() + TimeUnit.MINUTES.toNanos(1);
+            throw e;
+        }
+    }
+
+    private void seal() throws IOException {
+        if (!Files.exists(active)) return;
+        long[] stats = stats(active); // min, max, rows
+        Files.createDirectories(dir);
+        String base = active.getFileName().toString().replaceFirst("\\.csv$", "");
+        String day = String.valueOf(stats[0] / 1_000_000);
+        Path target;
+        int seq = 0;
+        do {
+            target = dir.resolve(String.format("%s-%s-%04d.csv", base, day, seq++));
+        } while (Files.exists(target) || Files.exists(target.resolveSibling(target.getFileName() + ".gz")));
+        Segment seg = new Segment(target.getFileName().toString(), stats[0], stats[1], stats[2], Files.size(active));
+        // Listed before the move: a crash in between leaves an entry without a file, which loading
+        // drops (the rows are still in the results file), never a sealed file nothing refers to
+        synchronized (this) {
+            List<Segment> next = new ArrayList<>(segments);
+            next.add(seg);
+            writeManifest(next);
+        }
+        try {
+            try {
+                Files.move(active, target, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                // Segment directory on another file system: copy in whole, then drop the source
+                // (loading drops a source that survived a crash, see loadManifest)
+                Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+                Files.copy(active, tmp, StandardCopyOption.REPLACE_EXISTING);
+                try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                    ch.force(true);
+                }
+                Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+                Files.delete(active);
+            }
+        } catch (IOException | RuntimeException e) {
+            synchronized (this) {
+                try {
+                    writeManifest(segments);
+                } catch (IOException ex) {
+                    e.addSuppressed(ex); // the entry without a file is dropped on the next load
+                }
+            }
+            throw e;
+        }
+        synchronized (this) {
+            segments.add(seg);
+        }
+        if (retainDays > 0) retention.execute(this::applyRetention); // gzip off the writer thread
+    }
+
+    /** Archives or drops sealed segments whose newest row is older than the retention window. */
+    private void applyRetention() {
+        long cutoff = stamp(LocalDateTime.now().minusDays(retainDays));
+        List<Segment> expired = new ArrayList<>();
+        synchronized (this) {
+            for (Segment s : segments) {
+                if (s.maxTs < cutoff && !(archive && s.archived())) expired.add(s);
+            }
+        }
+        for (Segment s : expired) {
+            try {
+                Path p = dir.resolve(s.file);
+                Segment replacement = null;
+                if (archive) {
+                    Path gz = dir.resolve(s.file + ".gz");
+                    Path tmp = dir.resolve(s.file + ".gz.tmp");
+                    try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(tmp), 1 << 16)) {
+                        Files.copy(p, out);
+                    }
+                    Files.move(tmp, gz, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                    replacement = new Segment(gz.getFileName().toString(), s.minTs, s.maxTs, s.rows, Files.size(gz));
+                }
+                synchronized (this) {
+                    int i = segments.indexOf(s);
+                    if (i < 0) continue; // cleared meanwhile
+                    if (replacement != null) segments.set(i, replacement);
+                    else segments.remove(i);
+                    writeManifest(segments);
+                }
+                Files.deleteIfExists(p);
+            } catch (IOException e) {
+                Metrics.error("results_retention", e);
+            }
+        }
+    }
+
+    /**
+     * Atomically replaces sealed segment {@code s} with {@code rewritten}, which must hold the same
+     * rows (see {@link Regrader}). Returns false, leaving both files alone, when {@code s} has since
+     * been archived, dropped or cleared.
+     */
+    synchronized boolean replace(Segment s, Path rewritten) throws IOException {
+        int i = segments.indexOf(s);
+        if (i < 0 || s.archived()) return false;
+        Files.move(rewritten, dir.resolve(s.file), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        segments.set(i, new Segment(s.file, s.minTs, s.maxTs, s.rows, Files.size(dir.resolve(s.file))));
+        writeManifest(segments);
+        return true;
+    }
+
+    /** Deletes every sealed segment and the manifest. Call from a writer control task. */
+    synchronized void deleteAll() throws IOException {
+        for (Segment s : segments) Files.deleteIfExists(dir.resolve(s.file));
+        segments.clear();
+        Files.deleteIfExists(dir.resolve(MANIFEST));
+    }
+
+    // ---------------- Queries ----------------
+    /**
+     * Streams the records stamped within {@code [from, to]} (inclusive, either may be null) from the
+     * overlapping segments in time order, then from the live head. Segments wholly inside the range
+     * are passed through without timestamp checks.
+     */
+    void forEachRecord(LocalDateTime from, LocalDateTime to, CsvCodec.RecordVisitor v) throws IOException {
+        long lo = from == null ? Long.MIN_VALUE : stamp(from);
+        long hi = to == null ? Long.MAX_VALUE : stamp(to);
+        for (Segment s : overlapping(lo, hi)) {
+            boolean inside = s.minTs >= lo && s.maxTs <= hi;
+            CsvCodec.RecordVisitor f = inside ? v : filter(lo, hi, v);
+            Path p = dir.resolve(s.file);
+            if (s.archived()) forEachGzipRecord(p, f);
+            else CsvCodec.forEachRecord(p, f);
+        }
+        if (Files.exists(active)) CsvCodec.forEachRecord(active, filter(lo, hi, v));
+    }
+
+    /** Writes the records within {@code [from, to]} as a results CSV (with header) to {@code out}. */
+    long export(LocalDateTime from, LocalDateTime to, OutputStream out) throws IOException {
+        out.write(ResultsCsv.HEADER.getBytes(StandardCharsets.UTF_8));
+        long[] rows = {0};
+        forEachRecord(from, to, (rd, offset) -> {
+            rd.writeRaw(out);
+            out.write('\n');
+            rows[0]++;
+        });
+        return rows[0];
+    }
+
+    synchronized List<Segment> overlapping(long lo, long hi) {
+        List<Segment> out = new ArrayList<>();
+        for (Segment s : segments) {
+            if (s.maxTs >= lo && s.minTs <= hi) out.add(s);
+        }
+        out.sort(Comparator.comparingLong(s -> s.minTs));
+        return out;
+    }
+
+    private static CsvCodec.RecordVisitor filter(long lo, long hi, CsvCodec.RecordVisitor v) {
+        return (rd, offset) -> {
+            long ts = stamp(rd, 0);
+            if (ts >= lo && ts <= hi) v.visit(rd, offset);
+        };
+    }
+
+    /** Streams a gzip-archived segment through a reusable buffer (archives are not mappable). */
+    static void forEachGzipRecord(Path p, CsvCodec.RecordVisitor v) throws IOException {
+        CsvCodec.Reader rd = new CsvCodec.Reader(8);
+        byte[] buf = new byte[1 << 20];
+        int filled = 0;
+        boolean header = true, eof = false;
+        long offset = 0; // in the uncompressed stream
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(p), 1 << 16)) {
+            while (!eof || filled > 0) {
+                while (!eof && filled < buf.length) {
+                    int n = in.read(buf, filled, buf.length - filled);
+                    if (n < 0) eof = true;
+                    else filled += n;
+                }
+                ByteBuffer bb = ByteBuffer.wrap(buf, 0, filled);
+                int consumed = 0;
+                while (true) {
+                    int recordStart = bb.position();
+                    if (!rd.next(bb)) break;
+                    if (buf[bb.position() - 1] != '\n' && !eof) break; // cut by the buffer
+                    consumed = bb.position();
+                    if (header) { header = false; continue; }
+                    v.visit(rd, offset + recordStart);
+                }
+                if (consumed == 0) {
+                    if (eof) break;
+                    buf = Arrays.copyOf(buf, buf.length * 2); // record longer than the buffer
+                    continue;
+                }
+                System.arraycopy(buf, consumed, buf, 0, filled - consumed);
+                filled -= consumed;
+                offset += consumed;
+            }
+        }
+    }
+
+    // ---------------- Timestamps ----------------
+    /** {@code yyyyMMddHHmmss} as a long, read from a {@code yyyy-MM-dd HH:mm:ss} field; -1 if malformed. */
+    static long stamp(CsvCodec.Reader rd, int field) {
+        if (rd.length(field) != 19) return -1;
+        int p = rd.offset(field);
+        long v = 0;
+        for (int i = 0; i < 19; i++) {
+            if (i == 4 || i == 7 || i == 10 || i == 13 || i == 16) continue;
+            int d = rd.byteAt(p + i) - '0';
+            if (d < 0 || d > 9) return -1;
+            v = v * 10 + d;
+        }
+        return v;
+    }
+
+    static long stamp(LocalDateTime t) {
+        return ((((t.getYear() * 100L + t.getMonthValue()) * 100 + t.getDayOfMonth()) * 100 + t.getHour()) * 100
+                + t.getMinute()) * 100 + t.getSecond();
+    }
+
+    private static LocalDate day(long stamp) {
+        long d = stamp / 1_000_000;
+        return LocalDate.of((int) (d / 10000), (int) (d / 100 % 100), (int) (d % 100));
+    }
+
+    private static String format(long stamp) {
+        return String.format("%04d-%02d-%02d %02d:%02d:%02d", stamp / 10_000_000_000L, stamp / 100_000_000 % 100,
+                stamp / 1_000_000 % 100, stamp / 10_000 % 100, stamp / 100 % 100, stamp % 100);
+    }
+
+    private static long parse(String s) {
+        return stamp(LocalDateTime.parse(s, ResultsCsv.TS_FMT));
+    }
+
+    // {min, max, rows} over a results file
+    private static long[] stats(Path file) throws IOException {
+        long[] st = {Long.MAX_VALUE, Long.MIN_VALUE, 0};
+        CsvCodec.forEachRecord(file, (rd, offset) -> {
+            long ts = stamp(rd, 0);
+            if (ts < 0) return;
+            st[0] = Math.min(st[0], ts);
+            st[1] = Math.max(st[1], ts);
+            st[2]++;
+        });
+        if (st[2] == 0) st[0] = st[1] = stamp(LocalDateTime.now());
+        return st;
+    }
+
+    private static long firstStamp(Path file) throws IOException {
+        if (!Files.exists(file)) return -1;
+        try (BufferedReader br = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            br.readLine(); // header
+            String ln = br.readLine();
+            if (ln == null || ln.length() < 19) return -1;
+            try {
+                return parse(ln.substring(0, 19));
+            } catch (RuntimeException e) {
+                return -1;
+            }
+        }
+    }
+
+    // ---------------- Manifest ----------------
+    private void loadManifest() throws IOException {
+        Path m = dir.resolve(MANIFEST);
+        if (!Files.exists(m)) return;
+        try (BufferedReader br = Files.newBufferedReader(m, StandardCharsets.UTF_8)) {
+            br.readLine(); // header
+            for (String ln; (ln = br.readLine()) != null; ) {
+                if (ln.trim().isEmpty()) continue;
+                String[] f = ResultsCsv.splitCsvLine(ln);
+                // Removed by hand, or sealing stopped before the move and the rows are still live
+                if (!Files.exists(dir.resolve(f[0]))) continue;
+                segments.add(new Segment(f[0], parse(f[1]), parse(f[2]), Long.parseLong(f[3]), Long.parseLong(f[4])));
+            }
+        }
+        // A copy across file systems that stopped before deleting its source: the newest segment
+        // already holds exactly these bytes
+        if (!segments.isEmpty() && Files.exists(active)) {
+            Segment last = segments.get(segments.size() - 1);
+            Path p = dir.resolve(last.file);
+            if (!last.archived() && Files.size(active) == last.bytes && Files.mismatch(active, p) == -1) {
+                Files.delete(active);
+            }
+        }
+    }
+
+    // Caller holds the lock
+    private void writeManifest(List<Segment> list) throws IOException {
+        Path m = dir.resolve(MANIFEST);
+        Path tmp = dir.resolve(MANIFEST + ".tmp");
+        try (Writer w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            w.write(MANIFEST_HEADER);
+            for (Segment s : list) {
+                w.write(ResultsCsv.escapeCsv(s.file) + "," + format(s.minTs) + "," + format(s.maxTs) + "," + s.rows + "," + s.bytes + "\n");
+            }
+        }
+        Files.move(tmp, m, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+}
@@ -0,0 +1,414 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.zip.CRC32C;
+
+/**
+ * Write-ahead journal of in-progress sessions, so a crash or a closed window does not lose a
+ * student's work. Every state change (start, answer, advance, pause/resume, finish) is appended as
+ * a small checksummed binary record; on startup the engine replays the journal, resumes unfinished
+ * sessions and compacts the file down to one state record per open session.
+ *
+ * Records are written with a plain {@code write} per event, which survives a JVM crash; the file is
+ * forced to disk every {@code syncMillis} for power loss. A torn record at the tail is dropped. Once
+ * the file grows past {@code maxBytes} it is compacted again while running, so a long-lived
+ * process does not grow it without bound.
+ *
+ * Record: {@code int length | byte type | long idHi | long idLo | long wallMillis | payload | int crc32c}
+ */
+final class SessionJournal implements Closeable {
+
+    private static final byte START = 1, ANSWER = 2, ADVANCE = 3, PAUSE = 4, RESUME = 5, FINISH = 6, STATE = 7;
+    static final byte PAPER_FIXED = 0, PAPER_BANK = 1, PAPER_INLINE = 2;
+    private static final int FIXED_BYTES = 1 + 8 + 8 + 8;
+
+    /** Session state rebuilt from the journal. */
+    static final class Recovered {
+        final String id;
+        User user;
+        int secondsPerQuestion;
+        byte paperKind;
+        long[] bankOffsets;           // PAPER_BANK
+        List<Question> inline;        // PAPER_INLINE
+        int paperSize;
+        int currentIndex;
+        byte[] answers;
+        long remainingNanos;          // as of clockWall
+        boolean paused;
+        long clockWall;               // wall millis when remainingNanos was recorded
+        Recovered(String id) { this.id = id; }
+    }
+
+    private final Path path;
+    private final long maxBytes;
+    private FileChannel channel;
+    private ByteBuffer buf = ByteBuffer.allocate(4096);
+    private final CRC32C crc = new CRC32C();
+    private final ScheduledExecutorService syncer;
+
+    private SessionJournal(Path path, long syncMillis, long maxBytes) throws IOException {
+        this.path = path;
+        this.maxBytes = maxBytes;
+        this.channel = openAppend(path);
+        this.syncer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "journal-sync");
+            t.setDaemon(true);
+            return t;
+        });
+        syncer.scheduleWithFixedDelay(() -> {
+            force();
+            compactIfLarge();
+        }, syncMillis, syncMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Opens the journal at {@code path} for appending after compacting it to the state of
+     * {@code keep} (normally the sessions {@link #replay} returned that the engine resumed). The
+     * file is compacted again whenever it grows past {@code maxBytes}.
+     */
+    static SessionJournal open(Path path, long syncMillis, long maxBytes, List<Recovered> keep) throws IOException {
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeCompacted(out, keep, System.currentTimeMillis());
+            out.force(true);
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return new SessionJournal(path, syncMillis, maxBytes);
+    }
+
+    // Buffer-only instance used while compacting
+    private SessionJournal(FileChannel out) {
+        this.path = null;
+        this.maxBytes = Long.MAX_VALUE;
+        this.channel = out;
+        this.syncer = null;
+    }
+
+    private static FileChannel openAppend(Path path) throws IOException {
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    // One START and STATE per session, clocks stamped at wall (or each session's own clock when 0)
+    private static void writeCompacted(FileChannel out, List<Recovered> sessions, long wall) throws IOException {
+        SessionJournal w = new SessionJournal(out);
+        for (Recovered r : sessions) {
+            w.compacted(r, wall != 0 ? wall : r.clockWall);
+            if (w.buf.position() > 1 << 20) w.flushTo(out);
+        }
+        w.flushTo(out);
+    }
+
+    /**
+     * Compacts the live journal once it outgrows {@code maxBytes}. The records up to now are replayed
+     * and rewritten without holding the lock; only what was appended meanwhile is copied across under
+     * it, before the compacted file replaces the journal.
+     */
+    private void compactIfLarge() {
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            long mark;
+            synchronized (this) {
+                if (!channel.isOpen() || channel.size() <= maxBytes) return;
+                mark = channel.size();
+            }
+            List<Recovered> open = replay(path, mark);
+            try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                writeCompacted(out, open, 0);
+                synchronized (this) {
+                    if (!channel.isOpen()) return;
+                    try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+                        for (long p = mark, size = in.size(); p < size; ) p += in.transferTo(p, size - p, out);
+                    }
+                    out.force(true);
+                    channel.close(); // before the move, which some platforms refuse over an open file
+                    try {
+                        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    } finally {
+                        channel = openAppend(path);
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            Metrics.error("session_journal", e);
+        } finally {
+            try {
+                Files.deleteIfExists(tmp);
+            } catch (IOException e) {
+                Metrics.error("session_journal", e);
+            }
+        }
+    }
+
+    // ---------------- Events ----------------
+    void started(QuizSession s, byte paperKind, long[] bankOffsets) {
+        synchronized (this) {
+            begin(START, s.id, System.currentTimeMillis());
+            string(s.user.name);
+            string(s.user.email);
+            buf.putInt(s.secondsPerQuestion);
+            paper(paperKind, s.questions.size(), s.questions, bankOffsets);
+            end();
+        }
+    }
+
+    void answered(QuizSession s, int question, int choice) {
+        synchronized (this) {
+            begin(ANSWER, s.id, System.currentTimeMillis());
+            buf.putInt(question).put((byte) (choice + 1));
+            end();
+        }
+    }
+
+    void advanced(QuizSession s, int index, long remainingNanos) {
+        event(ADVANCE, s, index, remainingNanos);
+    }
+
+    void paused(QuizSession s, long remainingNanos) {
+        event(PAUSE, s, -1, remainingNanos);
+    }
+
+    void resumed(QuizSession s, long remainingNanos) {
+        event(RESUME, s, -1, remainingNanos);
+    }
+
+    void finished(QuizSession s) {
+        synchronized (this) {
+            begin(FINISH, s.id, System.currentTimeMillis());
+            end();
+        }
+    }
+
+    private void event(byte type, QuizSession s, int index, long remainingNanos) {
+        synchronized (this) {
+            begin(type, s.id, System.currentTimeMillis());
+            buf.putInt(index).putLong(remainingNanos);
+            end();
+        }
+    }
+
+    // One START plus one STATE record for a recovered session, its clock stamped at wall
+    private void compacted(Recovered r, long wall) {
+        begin(START, r.id, wall);
+        string(r.user.name);
+        string(r.user.email);
+        buf.putInt(r.secondsPerQuestion);
+        paper(r.paperKind, r.paperSize, r.inline, r.bankOffsets);
+        end(false);
+        begin(STATE, r.id, wall);
+        ensure(4 + 8 + 1 + 4 + r.answers.length);
+        buf.putInt(r.currentIndex).putLong(r.remainingNanos).put((byte) (r.paused ? 1 : 0));
+        buf.putInt(r.answers.length).put(r.answers);
+        end(false);
+    }
+
+    // ---------------- Encoding (caller holds the lock) ----------------
+    private int recordStart;
+
+    private void begin(byte type, String id, long wall) {
+        ensure(256);
+        recordStart = buf.position();
+        UUID u = UUID.fromString(id);
+        buf.putInt(0).put(type).putLong(u.getMostSignificantBits()).putLong(u.getLeastSignificantBits()).putLong(wall);
+    }
+
+    private void end() {
+        end(true);
+    }
+
+    private void end(boolean write) {
+        ensure(4);
+        int len = buf.position() - recordStart - 4;
+        buf.putInt(recordStart, len);
+        crc.reset();
+        crc.update(buf.array(), recordStart + 4, len);
+        buf.putInt((int) crc.getValue());
+        if (write) {
+            try {
+                flushTo(channel);
+            } catch (IOException e) {
+                Metrics.error("session_journal", e);
+                buf.clear();
+            }
+        }
+    }
+
+    private void flushTo(FileChannel ch) throws IOException {
+        if (!ch.isOpen()) { // closed at shutdown; late events are dropped
+            buf.clear();
+            return;
+        }
+        buf.flip();
+        while (buf.hasRemaining()) ch.write(buf);
+        buf.clear();
+    }
+
+    private void paper(byte kind, int size, List<Question> questions, long[] bankOffsets) {
+        ensure(5 + 8 * size);
+        buf.put(kind).putInt(size);
+        if (kind == PAPER_BANK) {
+            for (long o : bankOffsets) buf.putLong(o);
+        } else if (kind == PAPER_INLINE) {
+            for (Question q : questions) {
+                string(q.text);
+                ensure(8);
+                buf.put((byte) q.correctIndex).put((byte) q.choices.length);
+                for (String c : q.choices) string(c);
+            }
+        }
+    }
+
+    private void string(String s) {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        ensure(4 + b.length + 64);
+        buf.putInt(b.length).put(b);
+    }
+
+    private void ensure(int n) {
+        if (buf.remaining() >= n) return;
+        ByteBuffer bigger = ByteBuffer.allocate(Math.max(buf.capacity() * 2, buf.position() + n));
+        buf.flip();
+        bigger.put(buf);
+        buf = bigger;
+    }
+
+    private synchronized void force() {
+        try {
+            if (channel.isOpen()) channel.force(false);
+        } catch (IOException e) {
+            Metrics.error("session_journal", e);
+        }
+    }
+
+    /** Stops the syncer and forces and closes the file; later events are dropped. */
+    @Override
+    public synchronized void close() {
+        if (syncer != null) syncer.shutdownNow();
+        if (!channel.isOpen()) return;
+        try {
+            channel.force(true);
+            channel.close();
+        } catch (IOException e) {
+            Metrics.error("session_journal", e);
+        }
+    }
+
+    // ---------------- Replay ----------------
+    /**
+     * Unfinished sessions in the journal, in start order. The time a session was active is charged
+     * up to the journal's last record (the latest moment the process is known to have been alive).
+     */
+    static List<Recovered> replay(Path path) throws IOException {
+        return replay(path, Long.MAX_VALUE);
+    }
+
+    /** As {@link #replay(Path)} over the first {@code limit} bytes of the journal. */
+    static List<Recovered> replay(Path path, long limit) throws IOException {
+        Map<UUID, Recovered> open = new LinkedHashMap<>();
+        long lastWall = 0;
+        if (!Files.exists(path)) return new ArrayList<>();
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = Math.min(ch.size(), limit);
+            if (size > Integer.MAX_VALUE) throw new IOException("Journal too large to replay: " + path);
+            MappedByteBuffer b = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            CRC32C crc = new CRC32C();
+            while (b.remaining() >= 4) {
+                int start = b.position();
+                int len = b.getInt();
+                if (len < FIXED_BYTES || len > b.remaining() - 4) break; // torn tail
+                crc.reset();
+                crc.update(b.duplicate().position(start + 4).limit(start + 4 + len));
+                if ((int) crc.getValue() != b.getInt(start + 4 + len)) break;
+                ByteBuffer r = b.duplicate().position(start + 4).limit(start + 4 + len);
+                b.position(start + 8 + len);
+                byte type = r.get();
+                UUID id = new UUID(r.getLong(), r.getLong());
+                long wall = r.getLong();
+                lastWall = Math.max(lastWall, wall);
+                if (type == START) {
+                    Recovered s = new Recovered(id.toString());
+                    s.user = new User(string(r), string(r));
+                    s.secondsPerQuestion = r.getInt();
+                    s.paperKind = r.get();
+                    int n = r.getInt();
+                    s.paperSize = n;
+                    if (s.paperKind == PAPER_BANK) {
+                        s.bankOffsets = new long[n];
+                        for (int i = 0; i < n; i++) s.bankOffsets[i] = r.getLong();
+                    } else if (s.paperKind == PAPER_INLINE) {
+                        s.inline = new ArrayList<>(n);
+                        for (int i = 0; i < n; i++) {
+                            String text = string(r);
+                            int correct = r.get(), k = r.get();
+                            String[] choices = new String[k];
+                            for (int c = 0; c < k; c++) choices[c] = string(r);
+                            s.inline.add(new Question(text, choices, correct));
+                        }
+                    }
+                    s.answers = new byte[n];
+                    s.remainingNanos = TimeUnit.SECONDS.toNanos(s.secondsPerQuestion);
+                    s.clockWall = wall;
+                    open.put(id, s);
+                    continue;
+                }
+                Recovered s = open.get(id);
+                if (s == null) continue; // finished before the last compaction
+                switch (type) {
+                    case ANSWER: {
+                        int q = r.getInt();
+                        if (q >= 0 && q < s.answers.length) s.answers[q] = r.get();
+                        break;
+                    }
+                    case ADVANCE:
+                        s.currentIndex = r.getInt();
+                        s.remainingNanos = r.getLong();
+                        s.clockWall = wall;
+                        s.paused = false;
+                        break;
+                    case PAUSE:
+                    case RESUME:
+                        r.getInt();
+                        s.remainingNanos = r.getLong();
+                        s.clockWall = wall;
+                        s.paused = type == PAUSE;
+                        break;
+                    case STATE: {
+                        s.currentIndex = r.getInt();
+                        s.remainingNanos = r.getLong();
+                        s.clockWall = wall;
+                        s.paused = r.get() != 0;
+                        byte[] a = new byte[r.getInt()];
+                        r.get(a);
+                        System.arraycopy(a, 0, s.answers, 0, Math.min(a.length, s.answers.length));
+                        break;
+                    }
+                    case FINISH:
+                        open.remove(id);
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+        for (Recovered s : open.values()) {
+            if (!s.paused) {
+                s.remainingNanos = Math.max(0, s.remainingNanos - TimeUnit.MILLISECONDS.toNanos(lastWall - s.clockWall));
+                s.clockWall = lastWall;
+            }
+        }
+        return new ArrayList<>(open.values());
+    }
+
+    private static String string(ByteBuffer r) {
+        byte[] b = new byte[r.getInt()];
+        r.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,5 @@
+final class User {
+    final String name;
+    final String email;
+    User(String name, String email) { this.name = name; this.email = email; }
+}
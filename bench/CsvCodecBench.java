@@ -0,0 +1,138 @@
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDateTime;
+import java.util.*;
+
+/**
+ * Compares {@link CsvCodec} with {@code splitCsvLine}/{@code escapeCsv} on a generated results
+ * file. Reports throughput and bytes allocated per record (from the thread allocation counter).
+ *
+ * Usage: java CsvCodecBench [fileMB=1024] [iterations=3] [file=results-bench.csv]
+ */
+public class CsvCodecBench {
+
+    public static void main(String[] args) throws Exception {
+        long targetMb = args.length > 0 ? Long.parseLong(args[0]) : 1024;
+        int iters = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        Path file = Paths.get(args.length > 2 ? args[2] : "results-bench.csv");
+        if (!Files.exists(file) || Files.size(file) < targetMb << 20) generate(file, targetMb << 20);
+        long bytes = Files.size(file);
+        System.out.printf("file=%s size=%d MB%n", file, bytes >> 20);
+
+        for (int i = 0; i <= iters; i++) {
+            String tag = i == 0 ? "warmup " : "";
+            report(tag + "read  splitCsvLine", bytes, () -> readLegacy(file));
+            report(tag + "read  CsvCodec    ", bytes, () -> readCodec(file));
+            report(tag + "write escapeCsv   ", 0, CsvCodecBench::writeLegacy);
+            report(tag + "write CsvCodec    ", 0, CsvCodecBench::writeCodec);
+        }
+    }
+
+    interface Run { long run() throws Exception; }
+
+    private static void report(String name, long bytes, Run r) throws Exception {
+        com.sun.management.ThreadMXBean tmx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long tid = Thread.currentThread().getId();
+        long a0 = tmx.getThreadAllocatedBytes(tid);
+        long t0 = System.nanoTime();
+        long records = r.run();
+        long ns = System.nanoTime() - t0;
+        long alloc = tmx.getThreadAllocatedBytes(tid) - a0;
+        System.out.printf("%s  %,12d rec  %8.0f krec/s  %s  %7.1f B/rec alloc%n", name, records, records / (ns / 1e6),
+                bytes > 0 ? String.format("%7.1f MB/s", (bytes / 1048576.0) / (ns / 1e9)) : "           ",
+                (double) alloc / records);
+    }
+
+    // ---------------- Read ----------------
+    private static long readLegacy(Path file) throws IOException {
+        long rows = 0, sum = 0;
+        try (BufferedReader br = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            br.readLine(); // header
+            for (String ln; (ln = br.readLine()) != null; ) {
+                String[] parts = ResultsCsv.splitCsvLine(ln);
+                sum += Integer.parseInt(parts[3]);
+                rows++;
+            }
+        }
+        if (sum < 0) throw new AssertionError();
+        return rows;
+    }
+
+    private static long readCodec(Path file) throws IOException {
+        long[] rows = {0}, sum = {0};
+        CsvCodec.forEachRecord(file, (rd, offset) -> {
+            sum[0] += rd.parseInt(3);
+            rows[0]++;
+        });
+        if (sum[0] < 0) throw new AssertionError();
+        return rows[0];
+    }
+
+    // ---------------- Write ----------------
+    private static final int WRITE_RECORDS = 2_000_000;
+    private static final QuizResult SAMPLE = sample();
+
+    private static long writeLegacy() {
+        long total = 0;
+        for (int i = 0; i < WRITE_RECORDS; i++) {
+            String line = String.format("%s,%s,%s,%d,%d,%d,%s\n",
+                    ResultsCsv.escapeCsv("2026-01-01 10:00:00"), ResultsCsv.escapeCsv(SAMPLE.user.name),
+                    ResultsCsv.escapeCsv(SAMPLE.user.email), SAMPLE.scorePercent, SAMPLE.correct, SAMPLE.total,
+                    ResultsCsv.escapeCsv("q1:1|q2:-|q3:0|q4:2|q5:3"));
+            total += line.getBytes(StandardCharsets.UTF_8).length;
+        }
+        if (total < 0) throw new AssertionError();
+        return WRITE_RECORDS;
+    }
+
+    private static long writeCodec() {
+        CsvCodec.Writer w = new CsvCodec.Writer(256);
+        LocalDateTime at = LocalDateTime.of(2026, 1, 1, 10, 0);
+        long total = 0;
+        for (int i = 0; i < WRITE_RECORDS; i++) {
+            w.reset();
+            ResultsCsv.encode(w, SAMPLE, at);
+            total += w.length();
+        }
+        if (total < 0) throw new AssertionError();
+        return WRITE_RECORDS;
+    }
+
+    private static QuizResult sample() {
+        Map<Integer, Integer> answers = new HashMap<>();
+        answers.put(0, 1);
+        answers.put(2, 0);
+        answers.put(3, 2);
+        answers.put(4, 3);
+        return new QuizResult(new User("Doe, \"Jane\"", "jane.doe@example.com"), 60, 3, 5, answers);
+    }
+
+    // ---------------- Data ----------------
+    static void generate(Path file, long bytes) throws IOException {
+        Random rnd = new Random(42);
+        CsvCodec.Writer w = new CsvCodec.Writer(1 << 16);
+        LocalDateTime t = LocalDateTime.of(2026, 1, 1, 8, 0);
+        try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(file), 1 << 20)) {
+            os.write(ResultsCsv.HEADER.getBytes(StandardCharsets.UTF_8));
+            long written = 0;
+            for (int i = 0; written < bytes; i++) {
+                Map<Integer, Integer> ans = new HashMap<>();
+                int correct = 0;
+                for (int q = 0; q < 5; q++) {
+                    int a = rnd.nextInt(5) - 1;
+                    if (a >= 0) ans.put(q, a);
+                    if (a == 1) correct++;
+                }
+                String name = (i % 10 == 0) ? "Last, First " + i : "Student " + i;
+                QuizResult r = new QuizResult(new User(name, "student" + i + "@example.com"),
+                        Math.round(100f * correct / 5), correct, 5, ans);
+                w.reset();
+                ResultsCsv.encode(w, r, t.plusSeconds(i));
+                os.write(w.array(), 0, w.length());
+                written += w.length();
+            }
+        }
+    }
+}
@@ -0,0 +1,112 @@
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Scheduling overhead for N concurrent question countdowns: the shared {@link DeadlineWheel}
+ * (one deadline per question, re-armed on expiry, with pause/resume churn) versus the old model of
+ * one one-second ticking timer per session (here a ScheduledThreadPoolExecutor task, which is
+ * cheaper than a javax.swing.Timer but has the same per-tick cost shape).
+ *
+ * Usage: java DeadlineWheelBench [sessions=100000] [seconds=20] [questionSeconds=5]
+ */
+public class DeadlineWheelBench {
+
+    public static void main(String[] args) throws Exception {
+        int sessions = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int questionSeconds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        System.out.printf("sessions=%d run=%ds question=%ds cpus=%d%n", sessions, seconds, questionSeconds,
+                Runtime.getRuntime().availableProcessors());
+        wheel(sessions, seconds, questionSeconds);
+        ticking(sessions, seconds, questionSeconds);
+        System.exit(0);
+    }
+
+    private static void wheel(int sessions, int seconds, int questionSeconds) throws Exception {
+        ExecutorService dispatch = Executors.newSingleThreadExecutor();
+        DeadlineWheel w = new DeadlineWheel(100, 512, dispatch);
+        long q = TimeUnit.SECONDS.toNanos(questionSeconds);
+        AtomicLong fired = new AtomicLong();
+        long[] lateness = new long[sessions * (seconds / questionSeconds + 2)];
+        AtomicInteger lateN = new AtomicInteger();
+        DeadlineWheel.Timeout[] live = new DeadlineWheel.Timeout[sessions];
+
+        long cpu0 = cpu();
+        long t0 = System.nanoTime();
+        for (int i = 0; i < sessions; i++) arm(w, live, i, q + (long) (Math.random() * q), fired, lateness, lateN);
+        long scheduleNs = System.nanoTime() - t0;
+
+        // Pause/resume churn: every second 1% of sessions pause and resume
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        Random rnd = new Random(3);
+        long churn = 0;
+        while (System.nanoTime() < end) {
+            Thread.sleep(1000);
+            for (int k = 0; k < sessions / 100; k++) {
+                int i = rnd.nextInt(sessions);
+                DeadlineWheel.Timeout t = live[i];
+                if (t != null && t.cancel()) {
+                    arm(w, live, i, Math.max(0, t.remainingNanos()), fired, lateness, lateN);
+                    churn++;
+                }
+            }
+        }
+        long cpu = cpu() - cpu0;
+        w.close();
+        dispatch.shutdownNow();
+
+        long[] l = Arrays.copyOf(lateness, Math.min(lateN.get(), lateness.length));
+        Arrays.sort(l);
+        System.out.printf("wheel:   schedule %.0f ns/op, fired=%d, pause/resume=%d, lateness ms p50=%.1f p99=%.1f max=%.1f, cpu=%d ms (%.2f%% of one core)%n",
+                (double) scheduleNs / sessions, fired.get(), churn, pct(l, 50), pct(l, 99), l.length == 0 ? 0 : l[l.length - 1] / 1e6,
+                cpu / 1_000_000, 100.0 * cpu / TimeUnit.SECONDS.toNanos(seconds));
+    }
+
+    private static void arm(DeadlineWheel w, DeadlineWheel.Timeout[] live, int i, long delay,
+                            AtomicLong fired, long[] lateness, AtomicInteger lateN) {
+        long due = System.nanoTime() + delay;
+        long q = delay;
+        live[i] = w.schedule(delay, () -> {
+            fired.incrementAndGet();
+            int n = lateN.getAndIncrement();
+            if (n < lateness.length) lateness[n] = System.nanoTime() - due;
+            arm(w, live, i, Math.max(q, TimeUnit.SECONDS.toNanos(1)), fired, lateness, lateN); // next question
+        });
+    }
+
+    private static void ticking(int sessions, int seconds, int questionSeconds) throws Exception {
+        ScheduledThreadPoolExecutor ex = new ScheduledThreadPoolExecutor(1);
+        AtomicLong fired = new AtomicLong();
+        int[] left = new int[sessions];
+        long cpu0 = cpu();
+        long t0 = System.nanoTime();
+        for (int i = 0; i < sessions; i++) {
+            final int s = i;
+            left[s] = questionSeconds;
+            ex.scheduleAtFixedRate(() -> {
+                if (--left[s] <= 0) {
+                    fired.incrementAndGet();
+                    left[s] = questionSeconds;
+                }
+            }, 1, 1, TimeUnit.SECONDS);
+        }
+        long scheduleNs = System.nanoTime() - t0;
+        Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+        long cpu = cpu() - cpu0;
+        ex.shutdownNow();
+        System.out.printf("ticking: schedule %.0f ns/op, fired=%d, cpu=%d ms (%.2f%% of one core)%n",
+                (double) scheduleNs / sessions, fired.get(), cpu / 1_000_000, 100.0 * cpu / TimeUnit.SECONDS.toNanos(seconds));
+    }
+
+    private static long cpu() {
+        return ((com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean()).getProcessCpuTime();
+    }
+
+    private static double pct(long[] sorted, double p) {
+        if (sorted.length == 0) return 0;
+        int i = (int) Math.ceil(p / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, i))] / 1e6;
+    }
+}
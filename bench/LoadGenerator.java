@@ -0,0 +1,316 @@
+import java.io.*;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Soak harness: N virtual test-takers run quizzes back to back against an in-process engine for a
+ * fixed duration. Each one makes the calls the Swing client makes (start, answer and advance per
+ * question, finish, then the result breakdown and leaderboard rank the results dialog shows), with
+ * the dialogs left out. Users are state machines on a small scheduled pool, so thousands fit on
+ * one box.
+ *
+ * Every interval it prints throughput, latency percentiles per step, results-file growth, heap
+ * and GC activity; {@code -Dload.out=file} also appends each interval as a JSON line.
+ *
+ * Usage: java -Dquiz.results=/tmp/load.csv LoadGenerator [users] [duration, e.g. 90s, 30m, 4h]
+ *
+ * Properties: load.thinkMs (mean think time per question, default 3000), load.think
+ * (exp|uniform|fixed), load.correct (probability of the right choice, 0.6), load.skip (leave
+ * unanswered, 0.05), load.timeouts (let the countdown expire, 0.01), load.questionSec (20),
+ * load.gapMs (pause between a user's quizzes, 5000), load.rampSec (10), load.reportSec (10),
+ * load.threads (4), load.seed.
+ */
+public class LoadGenerator {
+
+    static final long THINK_MS = Long.getLong("load.thinkMs", 3000);
+    static final String THINK = System.getProperty("load.think", "exp");
+    static final double CORRECT = Double.parseDouble(System.getProperty("load.correct", "0.6"));
+    static final double SKIP = Double.parseDouble(System.getProperty("load.skip", "0.05"));
+    static final double TIMEOUTS = Double.parseDouble(System.getProperty("load.timeouts", "0.01"));
+    static final int QUESTION_SEC = Integer.getInteger("load.questionSec", 20);
+    static final long GAP_MS = Long.getLong("load.gapMs", 5000);
+    static final long RAMP_SEC = Long.getLong("load.rampSec", 10);
+    static final long REPORT_SEC = Long.getLong("load.reportSec", 10);
+    static final int THREADS = Integer.getInteger("load.threads", 4);
+    static final long SEED = Long.getLong("load.seed", System.nanoTime());
+    static final String OUT = System.getProperty("load.out");
+
+    /** Latency of one step of the flow, per report interval and over the whole run. */
+    static final class Step {
+        final String name;
+        volatile LatencyHistogram interval;
+        final LatencyHistogram total;
+
+        Step(String name) {
+            this.name = name;
+            this.interval = new LatencyHistogram(name, name);
+            this.total = new LatencyHistogram(name, name);
+        }
+
+        void record(long nanos) {
+            interval.record(nanos);
+            total.record(nanos);
+        }
+
+        LatencyHistogram roll() {
+            LatencyHistogram h = interval;
+            interval = new LatencyHistogram(name, name);
+            return h;
+        }
+    }
+
+    static final Step START = new Step("start");
+    static final Step ANSWER = new Step("answer");      // record the choice and advance
+    static final Step FINISH = new Step("finish");      // score until the result is durable
+    static final Step RESULTS = new Step("results");    // breakdown and leaderboard rank
+    static final Step[] STEPS = {START, ANSWER, FINISH, RESULTS};
+
+    static final LongAdder started = new LongAdder(), finished = new LongAdder(), failed = new LongAdder();
+    static final LongAdder answered = new LongAdder(), skipped = new LongAdder(), expired = new LongAdder();
+
+    static QuizEngine engine;
+    static ScheduledExecutorService pool;
+    static volatile boolean stopping;
+    static volatile int sink;                           // keeps the results text from being optimized away
+
+    public static void main(String[] args) throws Exception {
+        int users = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        long durationMs = args.length > 1 ? millis(args[1]) : 60_000;
+        if (System.getProperty("quiz.results") == null) {
+            System.err.println("Set -Dquiz.results to a scratch file; refusing to write to results.csv");
+            System.exit(2);
+        }
+        if (System.getProperty("quiz.journal") == null) System.setProperty("quiz.journal", "off");
+        engine = QuizEngine.fromSystemProperties(QUESTION_SEC);
+        ResultsCsv.shards(); // start the writers and their listeners before the clock
+        pool = Executors.newScheduledThreadPool(THREADS, r -> {
+            Thread t = new Thread(r, "virtual-user");
+            t.setDaemon(true);
+            return t;
+        });
+        System.out.printf("users=%d duration=%ds think=%s %dms correct=%.2f skip=%.2f timeouts=%.2f questionSec=%d seed=%d%n",
+                users, durationMs / 1000, THINK, THINK_MS, CORRECT, SKIP, TIMEOUTS, QUESTION_SEC, SEED);
+
+        Sample first = new Sample();
+        for (int i = 0; i < users; i++) {
+            VirtualUser u = new VirtualUser(i, new Random(SEED + i));
+            pool.schedule(u::begin, RAMP_SEC * 1000 * i / Math.max(1, users), TimeUnit.MILLISECONDS);
+        }
+        Sample prev = first;
+        long end = first.nanos + TimeUnit.MILLISECONDS.toNanos(durationMs);
+        while (System.nanoTime() < end) {
+            Thread.sleep(Math.max(1, Math.min(REPORT_SEC * 1000, TimeUnit.NANOSECONDS.toMillis(end - System.nanoTime()))));
+            Sample now = new Sample();
+            report(first, prev, now, false);
+            prev = now;
+        }
+
+        // Let quizzes in progress run out rather than cutting them off mid-way
+        stopping = true;
+        long drainUntil = System.nanoTime() + TimeUnit.SECONDS.toNanos(Long.getLong("load.drainSec", 30));
+        while (started.sum() > finished.sum() + failed.sum() && System.nanoTime() < drainUntil) Thread.sleep(100);
+        Sample last = new Sample();
+        report(first, first, last, true);
+        System.exit(0);
+    }
+
+    // ---------------- Virtual test-taker ----------------
+    static final class VirtualUser implements QuizEngine.SessionListener {
+        final User user;
+        final Random rnd;                                // thread-safe; steps run on any pool thread
+        volatile QuizSession s;
+
+        VirtualUser(int i, Random rnd) {
+            this.user = new User("Load User" + i, "load" + i + "@load.test");
+            this.rnd = rnd;
+        }
+
+        void begin() {
+            if (stopping) return;
+            long t0 = System.nanoTime();
+            s = engine.start(user, this);
+            START.record(System.nanoTime() - t0);
+            started.increment();
+            step();
+        }
+
+        // Plans the current question: answer after a think time, or let its countdown expire
+        void step() {
+            QuizSession cur = s;
+            int expect = cur.currentIndex();
+            if (rnd.nextDouble() < TIMEOUTS) return; // timedOut() picks up from the next question
+            pool.schedule(() -> act(cur, expect), think(), TimeUnit.MILLISECONDS);
+        }
+
+        void act(QuizSession cur, int expect) {
+            boolean more;
+            synchronized (cur) {
+                if (cur.currentIndex() != expect || cur != s) return; // the countdown got there first
+                double r = rnd.nextDouble();
+                int choice = choice(cur.currentQuestion(), rnd);
+                long t0 = System.nanoTime();
+                if (r >= SKIP) {
+                    engine.answer(cur, choice);
+                    answered.increment();
+                } else {
+                    skipped.increment();
+                }
+                more = engine.next(cur);
+                ANSWER.record(System.nanoTime() - t0);
+            }
+            if (more) {
+                step();
+                return;
+            }
+            long t0 = System.nanoTime();
+            CompletableFuture<QuizResult> f;
+            try {
+                f = engine.finish(cur.id);
+            } catch (NoSuchElementException e) {
+                return; // the last question just timed out; timedOut() finishes
+            }
+            finished(cur, f, t0);
+        }
+
+        @Override
+        public void timedOut(QuizSession cur, CompletableFuture<QuizResult> done) {
+            expired.increment();
+            if (done != null) {
+                finished(cur, done, System.nanoTime());
+            } else {
+                pool.execute(this::step);
+            }
+        }
+
+        // The future completes on the writer thread; everything after it runs on the pool
+        void finished(QuizSession cur, CompletableFuture<QuizResult> f, long t0) {
+            f.whenComplete((r, ex) -> {
+                FINISH.record(System.nanoTime() - t0);
+                if (ex != null) {
+                    failed.increment();
+                    pool.schedule(this::begin, GAP_MS, TimeUnit.MILLISECONDS);
+                    return;
+                }
+                pool.execute(() -> {
+                    long t1 = System.nanoTime();
+                    String text = r.breakdown(cur.questions);
+                    Leaderboard board = Leaderboard.shared();
+                    int rank = board.rank(r.user.email);
+                    if (rank > 0) text += "Leaderboard: #" + rank + " of " + board.size() + "\n";
+                    RESULTS.record(System.nanoTime() - t1);
+                    sink = text.length();
+                    finished.increment();
+                    pool.schedule(this::begin, GAP_MS, TimeUnit.MILLISECONDS);
+                });
+            });
+        }
+
+        long think() {
+            double u = rnd.nextDouble();
+            switch (THINK) {
+                case "fixed": return THINK_MS;
+                case "uniform": return (long) (u * 2 * THINK_MS);
+                default: return (long) Math.min(-THINK_MS * Math.log(1 - u), 10.0 * THINK_MS);
+            }
+        }
+
+        static int choice(Question q, Random rnd) {
+            if (rnd.nextDouble() < CORRECT || q.choices.length < 2) return q.correctIndex;
+            int wrong = rnd.nextInt(q.choices.length - 1);
+            return wrong >= q.correctIndex ? wrong + 1 : wrong;
+        }
+    }
+
+    // ---------------- Reporting ----------------
+    /** Counters and JVM state at one instant. */
+    static final class Sample {
+        final long nanos = System.nanoTime();
+        final long started = LoadGenerator.started.sum(), finished = LoadGenerator.finished.sum();
+        final long failed = LoadGenerator.failed.sum(), answered = LoadGenerator.answered.sum() + skipped.sum();
+        final long expired = LoadGenerator.expired.sum();
+        final long resultBytes = resultBytes();
+        final long gcCount, gcMillis;
+        final long heapUsed, heapMax;
+
+        Sample() {
+            long n = 0, ms = 0;
+            for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+                n += Math.max(0, gc.getCollectionCount());
+                ms += Math.max(0, gc.getCollectionTime());
+            }
+            gcCount = n;
+            gcMillis = ms;
+            MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+            heapUsed = heap.getUsed();
+            heapMax = heap.getMax();
+        }
+
+        // The live files (every shard) plus the sealed segments
+        private static long resultBytes() {
+            long n = 0;
+            for (Path f : ResultsCsv.files()) {
+                try {
+                    if (Files.exists(f)) n += Files.size(f);
+                } catch (IOException e) {
+                    // rolled between the two calls
+                }
+            }
+            for (SegmentedResultLog.Segment s : ResultsCsv.log().segments()) n += s.bytes;
+            return n;
+        }
+    }
+
+    // One line per interval; the final report covers the whole run
+    static void report(Sample first, Sample a, Sample b, boolean total) throws IOException {
+        double secs = (b.nanos - a.nanos) / 1e9;
+        StringBuilder line = new StringBuilder();
+        StringBuilder json = new StringBuilder();
+        line.append(String.format("%s[%6ds] active %5d | quizzes %7.1f/s answers %8.1f/s expired %6.1f/s failed %d |",
+                total ? "TOTAL " : "", (b.nanos - first.nanos) / 1_000_000_000L, b.started - b.finished - b.failed,
+                (b.finished - a.finished) / secs, (b.answered - a.answered) / secs, (b.expired - a.expired) / secs,
+                b.failed - a.failed));
+        json.append(String.format("{\"elapsedSec\":%d,\"total\":%b,\"active\":%d,\"quizzesPerSec\":%.2f,\"answersPerSec\":%.2f,"
+                        + "\"expiredPerSec\":%.2f,\"failed\":%d", (b.nanos - first.nanos) / 1_000_000_000L, total,
+                b.started - b.finished - b.failed, (b.finished - a.finished) / secs, (b.answered - a.answered) / secs,
+                (b.expired - a.expired) / secs, b.failed - a.failed));
+        for (Step st : STEPS) {
+            LatencyHistogram h = total ? st.total : st.roll();
+            line.append(String.format(" %s p50/p99/p99.9 %.2f/%.2f/%.2f ms", st.name, h.valueAt(0.5) / 1e6,
+                    h.valueAt(0.99) / 1e6, h.valueAt(0.999) / 1e6));
+            json.append(String.format(",\"%s\":{\"count\":%d,\"p50Ms\":%.3f,\"p99Ms\":%.3f,\"p999Ms\":%.3f,\"maxMs\":%.3f}",
+                    st.name, h.count(), h.valueAt(0.5) / 1e6, h.valueAt(0.99) / 1e6, h.valueAt(0.999) / 1e6, h.maxNanos() / 1e6));
+        }
+        double growth = (b.resultBytes - a.resultBytes) / 1048576.0 / secs * 60;
+        line.append(String.format(" | results %.1f MB (%+.2f MB/min) | heap %d/%d MB gc %d (%d ms, %.2f%%)",
+                b.resultBytes / 1048576.0, growth, b.heapUsed >> 20, b.heapMax >> 20, b.gcCount - a.gcCount,
+                b.gcMillis - a.gcMillis, 100.0 * (b.gcMillis - a.gcMillis) / 1000 / secs));
+        json.append(String.format(",\"resultsBytes\":%d,\"resultsMBPerMin\":%.3f,\"heapUsedBytes\":%d,\"gcCount\":%d,\"gcMillis\":%d}",
+                b.resultBytes, growth, b.heapUsed, b.gcCount - a.gcCount, b.gcMillis - a.gcMillis));
+        System.out.println(line);
+        if (total) {
+            for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+                System.out.printf("  gc %-24s %8d collections %10d ms%n", gc.getName(), gc.getCollectionCount(), gc.getCollectionTime());
+            }
+        }
+        if (OUT != null) {
+            Files.write(Paths.get(OUT), (json + "\n").getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+    }
+
+    /** {@code 90}, {@code 90s}, {@code 30m} or {@code 4h}. */
+    static long millis(String s) {
+        s = s.trim().toLowerCase(Locale.ROOT);
+        long unit = 1000;
+        if (s.endsWith("h")) unit = 3_600_000;
+        else if (s.endsWith("m")) unit = 60_000;
+        if (!Character.isDigit(s.charAt(s.length() - 1))) s = s.substring(0, s.length() - 1);
+        return Long.parseLong(s) * unit;
+    }
+}
@@ -0,0 +1,62 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Generates a synthetic question bank and measures open time (cold index build and warm reuse),
+ * heap retained after open, and the cost of drawing and decoding papers.
+ *
+ * Usage: java QuestionBankBench [questions=2000000] [topics=40] [paperSize=20] [bank=bank-bench.csv]
+ */
+public class QuestionBankBench {
+
+    public static void main(String[] args) throws Exception {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        int topics = args.length > 1 ? Integer.parseInt(args[1]) : 40;
+        int paperSize = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        Path bank = Paths.get(args.length > 3 ? args[3] : "bank-bench.csv");
+        generate(bank, n, topics);
+        Files.deleteIfExists(QuestionBank.snapshotPath(bank));
+        System.out.printf("bank=%s questions=%d size=%d MB%n", bank, n, Files.size(bank) >> 20);
+
+        long t = System.nanoTime();
+        QuestionBank.open(bank).close();
+        System.out.printf("cold open (snapshot compile): %d ms%n", (System.nanoTime() - t) / 1_000_000);
+
+        long heap0 = usedHeap();
+        t = System.nanoTime();
+        QuestionBank b = QuestionBank.open(bank);
+        System.out.printf("warm open: %.1f ms, heap retained: %d KB%n", (System.nanoTime() - t) / 1e6, (usedHeap() - heap0) >> 10);
+
+        Random rnd = new Random(1);
+        int papers = 10_000;
+        t = System.nanoTime();
+        long chars = 0;
+        for (int i = 0; i < papers; i++) {
+            QuestionPaper p = b.sampleStratified(paperSize, rnd);
+            for (Question q : p) chars += q.text.length();
+        }
+        long ns = System.nanoTime() - t;
+        System.out.printf("stratified draw+decode: %.1f us/paper (%d questions each, %d chars)%n", ns / 1e3 / papers, paperSize, chars);
+        b.close();
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) System.gc();
+        Runtime r = Runtime.getRuntime();
+        return r.totalMemory() - r.freeMemory();
+    }
+
+    private static void generate(Path bank, int n, int topics) throws IOException {
+        if (Files.exists(bank)) return;
+        Random rnd = new Random(7);
+        try (Writer w = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(bank), StandardCharsets.UTF_8), 1 << 20)) {
+            w.write("topic,correct,text,choice1,choice2,choice3,choice4\n");
+            for (int i = 0; i < n; i++) {
+                w.write("topic-" + rnd.nextInt(topics) + "," + rnd.nextInt(4) + ",\"Question " + i
+                        + ": which option, if any, is right?\",Option A,Option B,Option C,Option D\n");
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+import java.net.URI;
+import java.net.http.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Drives N concurrent sessions through the HTTP front end and reports per-request latency
+ * percentiles. All sessions are started before any is advanced, so every request is served with
+ * N sessions open.
+ *
+ * Usage: java -Dquiz.results=/tmp/bench-results.csv QuizEngineBench [sessions] [clientThreads]
+ */
+public class QuizEngineBench {
+
+    public static void main(String[] args) throws Exception {
+        int sessions = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        if (System.getProperty("quiz.results") == null) {
+            System.err.println("Set -Dquiz.results to a scratch file; refusing to write to results.csv");
+            System.exit(2);
+        }
+        Files.deleteIfExists(ResultsCsv.RESULTS_CSV);
+
+        List<Question> paper = QuizEngine.sampleQuestions();
+        QuizEngine engine = new QuizEngine(paper, 20);
+        QuizHttpServer server = new QuizHttpServer(engine, 0);
+        server.start();
+        String base = "http://127.0.0.1:" + server.port() + "/sessions";
+        HttpClient client = HttpClient.newBuilder().executor(Executors.newFixedThreadPool(threads)).build();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+
+        long[] lat = new long[sessions * (2 + 3 * paper.size())];
+        AtomicInteger n = new AtomicInteger();
+        String[] ids = new String[sessions];
+        long t0 = System.nanoTime();
+
+        // Phase 1: open every session
+        runAll(pool, sessions, i -> {
+            String body = call(client, "POST", base + "?name=u" + i + "&email=u" + i + "@example.com", lat, n);
+            ids[i] = body.substring(body.indexOf(":\"") + 2, body.indexOf("\","));
+        });
+        // Phase 2: answer every question in lock-step rounds
+        for (int q = 0; q < paper.size(); q++) {
+            runAll(pool, sessions, i -> {
+                String s = base + "/" + ids[i];
+                call(client, "GET", s + "/question", lat, n);
+                call(client, "POST", s + "/answer?choice=" + (i & 3), lat, n);
+                call(client, "POST", s + "/next", lat, n);
+            });
+        }
+        int open = engine.activeSessions();
+        // Phase 3: finish
+        runAll(pool, sessions, i -> call(client, "POST", base + "/" + ids[i] + "/finish", lat, n));
+        long elapsed = System.nanoTime() - t0;
+
+        server.stop();
+        pool.shutdown();
+        long[] done = Arrays.copyOf(lat, n.get());
+        Arrays.sort(done);
+        System.out.printf("sessions=%d openAtPeak=%d requests=%d throughput=%.0f req/s%n",
+                sessions, open, done.length, done.length / (elapsed / 1e9));
+        System.out.printf("latency us: p50=%d p90=%d p99=%d p99.9=%d max=%d%n",
+                pct(done, 50), pct(done, 90), pct(done, 99), pct(done, 99.9), done[done.length - 1] / 1000);
+        System.exit(0);
+    }
+
+    interface Step { void run(int i) throws Exception; }
+
+    private static void runAll(ExecutorService pool, int count, Step step) throws Exception {
+        List<Future<?>> fs = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final int idx = i;
+            fs.add(pool.submit(() -> { step.run(idx); return null; }));
+        }
+        for (Future<?> f : fs) f.get();
+    }
+
+    private static String call(HttpClient c, String method, String url, long[] lat, AtomicInteger n) throws Exception {
+        HttpRequest req = HttpRequest.newBuilder(URI.create(url)).method(method, HttpRequest.BodyPublishers.noBody()).build();
+        long t = System.nanoTime();
+        HttpResponse<String> r = c.send(req, HttpResponse.BodyHandlers.ofString());
+        lat[n.getAndIncrement()] = System.nanoTime() - t;
+        if (r.statusCode() != 200) throw new IllegalStateException(url + " -> " + r.statusCode() + " " + r.body());
+        return r.body();
+    }
+
+    private static long pct(long[] sorted, double p) {
+        int i = (int) Math.ceil(p / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, i))] / 1000;
+    }
+}
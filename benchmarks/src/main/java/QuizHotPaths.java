@@ -0,0 +1,159 @@
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The calls measured by the JMH suites in {@code bench}, built over the core classes they can't
+ * reach from a named package. Sessions are made from the sample questions repeated to the paper
+ * size; results files come from {@link CsvCodecBench#generate}.
+ */
+public final class QuizHotPaths implements bench.HotPaths {
+
+    private static final LocalDateTime AT = LocalDateTime.of(2026, 1, 1, 10, 0);
+
+    public QuizHotPaths() {}
+
+    @Override
+    public boolean metricsEnabled() {
+        return Metrics.ENABLED;
+    }
+
+    // ---------------- Sessions ----------------
+    @Override
+    public Op score(int questions) {
+        List<Question> paper = paper(questions);
+        return () -> {
+            QuizSession s = new QuizSession("b", new User("Student", "student@example.com"), paper, 20, null);
+            for (int i = 0; i < paper.size(); i++) {
+                s.answer(i & 3);
+                s.next();
+            }
+            return s.finish().correct;
+        };
+    }
+
+    @Override
+    public Op breakdown(int questions) {
+        List<Question> paper = paper(questions);
+        QuizResult r = result(paper);
+        return () -> r.breakdown(paper).length();
+    }
+
+    private static List<Question> paper(int n) {
+        List<Question> base = QuizEngine.sampleQuestions();
+        List<Question> out = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) out.add(base.get(i % base.size()));
+        return out;
+    }
+
+    private static QuizResult result(List<Question> paper) {
+        QuizSession s = new QuizSession("r", new User("Doe, \"Jane\"", "jane.doe@example.com"), paper, 20, null);
+        for (int i = 0; i < paper.size(); i++) {
+            if (i % 4 != 3) s.answer(i % paper.get(i).choices.length);
+            s.next();
+        }
+        return s.finish();
+    }
+
+    // ---------------- Encoding ----------------
+    @Override
+    public Op encodeEscapeCsv(int questions) {
+        QuizResult r = result(paper(questions));
+        return () -> {
+            StringBuilder ans = new StringBuilder();
+            for (int i = 0; i < r.total; i++) {
+                if (i > 0) ans.append('|');
+                Integer a = r.answers.get(i);
+                ans.append('q').append(i + 1).append(':').append(a == null ? "-" : String.valueOf(a));
+            }
+            String line = String.format("%s,%s,%s,%d,%d,%d,%s\n",
+                    ResultsCsv.escapeCsv(AT.format(ResultsCsv.TS_FMT)), ResultsCsv.escapeCsv(r.user.name),
+                    ResultsCsv.escapeCsv(r.user.email), r.scorePercent, r.correct, r.total, ResultsCsv.escapeCsv(ans.toString()));
+            return line.getBytes(StandardCharsets.UTF_8).length;
+        };
+    }
+
+    @Override
+    public Op encodeCodec(int questions) {
+        QuizResult r = result(paper(questions));
+        CsvCodec.Writer w = new CsvCodec.Writer(256);
+        return () -> {
+            w.reset();
+            ResultsCsv.encode(w, r, AT);
+            return w.length();
+        };
+    }
+
+    // ---------------- Durable append ----------------
+    @Override
+    public Op save(Path file) throws IOException {
+        Files.deleteIfExists(file);
+        ResultWriter w = ResultWriter.fromSystemProperties(file);
+        QuizResult r = result(paper(20));
+        return new Op() {
+            @Override
+            public long run() {
+                List<CompletableFuture<Void>> fs = new ArrayList<>(SAVE_BATCH);
+                for (int i = 0; i < SAVE_BATCH; i++) fs.add(w.append(r));
+                for (CompletableFuture<Void> f : fs) f.join();
+                return fs.size();
+            }
+
+            @Override
+            public void close() throws IOException {
+                w.close();
+                Files.deleteIfExists(file);
+            }
+        };
+    }
+
+    // ---------------- Scans ----------------
+    @Override
+    public Path resultsFile(int mb) throws IOException {
+        Path file = bench.HotPaths.dir().resolve("results-bench-" + mb + "mb.csv");
+        if (!Files.exists(file) || Files.size(file) < (long) mb << 20) CsvCodecBench.generate(file, (long) mb << 20);
+        return file;
+    }
+
+    @Override
+    public Op parseSplitCsvLine(Path file) {
+        return () -> {
+            long rows = 0, sum = 0;
+            try (BufferedReader br = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                br.readLine(); // header
+                for (String ln; (ln = br.readLine()) != null; ) {
+                    sum += Integer.parseInt(ResultsCsv.splitCsvLine(ln)[3]);
+                    rows++;
+                }
+            }
+            return sum < 0 ? 0 : rows;
+        };
+    }
+
+    @Override
+    public Op parseCodec(Path file) {
+        return () -> {
+            long[] acc = new long[2];
+            CsvCodec.forEachRecord(file, (rd, offset) -> {
+                acc[0] += rd.parseInt(3);
+                acc[1]++;
+            });
+            return acc[0] < 0 ? 0 : acc[1];
+        };
+    }
+
+    @Override
+    public Op adminLoad(Path file) {
+        return () -> {
+            try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+                MappedByteBuffer[] segs = RecordIndex.map(ch);
+                return RecordIndex.build(segs, null).count;
+            }
+        };
+    }
+}
@@ -0,0 +1,82 @@
+package bench;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * The quiz hot paths as the JMH suites see them. JMH only generates benchmarks in a named package
+ * and named packages cannot import the application's default-package classes, so the suites go
+ * through this interface; {@code QuizHotPaths} implements it next to the classes it drives. Each
+ * factory does its setup up front and returns just the measured call.
+ */
+public interface HotPaths {
+
+    /** One measured call; its result goes to the blackhole. */
+    interface Op extends AutoCloseable {
+        long run() throws Exception;
+
+        @Override
+        default void close() throws IOException {}
+    }
+
+    /** Results kept in flight per {@link #save} call, as concurrent clients would. */
+    int SAVE_BATCH = 8;
+
+    /** Answers every question of a {@code questions}-long paper and scores the session. */
+    Op score(int questions);
+
+    /** Per-question results text of a finished session. */
+    Op breakdown(int questions);
+
+    /** Encodes one results record with {@code String.format} and {@code escapeCsv}. */
+    Op encodeEscapeCsv(int questions);
+
+    /** Encodes one results record with {@code CsvCodec} into a reused buffer (not thread-safe). */
+    Op encodeCodec(int questions);
+
+    /** Appends {@link #SAVE_BATCH} results through one results writer on {@code file} and waits for them. */
+    Op save(Path file) throws Exception;
+
+    /** Full scan of a results file with {@code splitCsvLine}; returns the rows read. */
+    Op parseSplitCsvLine(Path file);
+
+    /** Full scan of a results file with {@code CsvCodec}; returns the rows read. */
+    Op parseCodec(Path file);
+
+    /** Builds the admin table's record index over a results file; returns the rows indexed. */
+    Op adminLoad(Path file);
+
+    /** Whether the core records latency histograms and counters in this JVM. */
+    boolean metricsEnabled();
+
+    /** Returns a results file of at least {@code mb} MB under {@link #dir()}, generating it once. */
+    Path resultsFile(int mb) throws Exception;
+
+    /** Working directory for generated files, {@code -Dbench.dir} (default the current directory). */
+    static Path dir() {
+        return Paths.get(System.getProperty("bench.dir", "."));
+    }
+
+    /**
+     * As {@link #load()} with metrics recording ({@code quiz.metrics}) switched on or off. The
+     * switch is read once per JVM, so this must run before anything touches the core; JMH forks a
+     * fresh JVM per parameter combination, which makes it a usable {@code @Param}.
+     */
+    static HotPaths load(boolean metrics) {
+        System.setProperty("quiz.metrics", String.valueOf(metrics));
+        HotPaths p = load();
+        if (p.metricsEnabled() != metrics) {
+            throw new IllegalStateException("quiz.metrics was already fixed in this JVM; run with at least one fork");
+        }
+        return p;
+    }
+
+    static HotPaths load() {
+        try {
+            return (HotPaths) Class.forName("QuizHotPaths").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("QuizHotPaths is not on the classpath", e);
+        }
+    }
+}
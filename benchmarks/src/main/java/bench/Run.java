@@ -0,0 +1,51 @@
+package bench;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatFactory;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of benchmarks.jar. Takes the usual JMH command line (suite regexps, {@code -p
+ * questions=20,200}, {@code -p fileMB=64,1024}, {@code -wi}, {@code -i}, {@code -f}, {@code -prof
+ * gc}, ...) and runs it once per thread count in {@code -Dbench.threads} (default 1 and all cores;
+ * an explicit {@code -t} wins). All results go to one file, JSON by default ({@code -rf} and
+ * {@code -rff} as in JMH, default {@code jmh-result.json}), so releases can be compared with the
+ * standard JMH tooling.
+ *
+ * Usage: java [-Dbench.threads=1,4] [-Dbench.dir=dir] -jar benchmarks/target/benchmarks.jar [jmh options]
+ */
+public final class Run {
+
+    private Run() {}
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions cli = new CommandLineOptions(args);
+        if (cli.shouldHelp()) {
+            cli.showHelp();
+            return;
+        }
+        if (cli.shouldList() || cli.shouldListWithParams()) {
+            new Runner(cli).list();
+            return;
+        }
+
+        int[] threads = cli.getThreads().hasValue() ? new int[]{cli.getThreads().get()} : threads();
+        List<RunResult> all = new ArrayList<>();
+        for (int t : threads) all.addAll(new Runner(new OptionsBuilder().parent(cli).threads(t).build()).run());
+
+        String file = cli.getResult().orElse("jmh-result.json");
+        ResultFormatFactory.getInstance(cli.getResultFormat().orElse(ResultFormatType.JSON), file).writeOut(all);
+        System.out.println("Results written to " + file);
+    }
+
+    private static int[] threads() {
+        String list = System.getProperty("bench.threads", "1," + Runtime.getRuntime().availableProcessors());
+        return Arrays.stream(list.split(",")).map(String::trim).mapToInt(Integer::parseInt).distinct().toArray();
+    }
+}
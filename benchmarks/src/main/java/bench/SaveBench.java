@@ -0,0 +1,44 @@
+package bench;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Durable append through one shared results writer, each thread keeping {@link HotPaths#SAVE_BATCH}
+ * results in flight. Scores are results per second; the fsync policy comes from
+ * {@code -Dquiz.results.sync} as in the application. Runs with metrics recording on and off.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@OperationsPerInvocation(HotPaths.SAVE_BATCH)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SaveBench {
+
+    /** Metrics recording on and off, to keep its overhead on the append path in view. */
+    @Param({"true", "false"})
+    public boolean metrics;
+
+    private Path file;
+    private HotPaths.Op save;
+
+    @Setup(Level.Trial)
+    public void open() throws Exception {
+        file = Files.createTempFile(HotPaths.dir(), "results-bench-save", ".csv");
+        save = HotPaths.load(metrics).save(file);
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws Exception {
+        save.close();
+    }
+
+    @Benchmark
+    public long save() throws Exception {
+        return save.run();
+    }
+}
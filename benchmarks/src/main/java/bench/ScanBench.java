@@ -0,0 +1,53 @@
+package bench;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Full passes over a generated results file of {@code fileMB} MB: parsing it line by line with
+ * {@code splitCsvLine}, with {@code CsvCodec}, and building the admin table's record index. The
+ * file is generated once under {@code -Dbench.dir} and reused by later runs; threads scan it
+ * concurrently.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScanBench {
+
+    @Param({"64"})
+    public int fileMB;
+
+    /** Metrics recording on and off, to keep its overhead on the scans in view. */
+    @Param({"true", "false"})
+    public boolean metrics;
+
+    private HotPaths.Op splitCsvLine, codec, adminLoad;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        HotPaths p = HotPaths.load(metrics);
+        Path file = p.resultsFile(fileMB);
+        splitCsvLine = p.parseSplitCsvLine(file);
+        codec = p.parseCodec(file);
+        adminLoad = p.adminLoad(file);
+    }
+
+    @Benchmark
+    public long parseSplitCsvLine() throws Exception {
+        return splitCsvLine.run();
+    }
+
+    @Benchmark
+    public long parseCodec() throws Exception {
+        return codec.run();
+    }
+
+    @Benchmark
+    public long adminLoad() throws Exception {
+        return adminLoad.run();
+    }
+}
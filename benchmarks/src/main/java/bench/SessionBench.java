@@ -0,0 +1,52 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Per-session work: scoring a finished paper, the per-question breakdown shown with the score, and
+ * encoding the results record with {@code escapeCsv} and with {@code CsvCodec}. State is per
+ * thread, so {@code -t N} measures N independent sessions.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SessionBench {
+
+    @Param({"20", "200"})
+    public int questions;
+
+    private HotPaths.Op score, breakdown, escapeCsv, codec;
+
+    @Setup
+    public void setup() {
+        HotPaths p = HotPaths.load();
+        score = p.score(questions);
+        breakdown = p.breakdown(questions);
+        escapeCsv = p.encodeEscapeCsv(questions);
+        codec = p.encodeCodec(questions);
+    }
+
+    @Benchmark
+    public long score() throws Exception {
+        return score.run();
+    }
+
+    @Benchmark
+    public long breakdown() throws Exception {
+        return breakdown.run();
+    }
+
+    @Benchmark
+    public long encodeEscapeCsv() throws Exception {
+        return escapeCsv.run();
+    }
+
+    @Benchmark
+    public long encodeCodec() throws Exception {
+        return codec.run();
+    }
+}
@@ -0,0 +1,122 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** CsvCodec against the quoting rules of escapeCsv / splitCsvLine. */
+class CsvCodecTest {
+
+    private static final String[] AWKWARD = {
+            "", "plain", "a,b", "say \"hi\"", "\"", "\"\"", "line1\nline2", ",\n\"", "café", "中文",
+            "😀 emoji", " spaced ", "trailing\r"
+    };
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void writerAndReaderRoundTrip() {
+        CsvCodec.Writer w = new CsvCodec.Writer(4);
+        for (String s : AWKWARD) w.field(s);
+        w.field(-42).endRecord();
+
+        CsvCodec.Reader rd = new CsvCodec.Reader(2);
+        ByteBuffer b = ByteBuffer.wrap(w.array(), 0, w.length());
+        assertTrue(rd.next(b));
+        assertEquals(AWKWARD.length + 1, rd.fieldCount());
+        for (int i = 0; i < AWKWARD.length; i++) assertEquals(AWKWARD[i], rd.string(i), "field " + i);
+        assertEquals(-42, rd.parseInt(AWKWARD.length));
+        assertFalse(rd.next(b));
+    }
+
+    @Test
+    void writerMatchesEscapeCsv() {
+        for (String s : AWKWARD) {
+            CsvCodec.Writer w = new CsvCodec.Writer(16);
+            w.field(s);
+            assertEquals(ResultsCsv.escapeCsv(s), new String(w.array(), 0, w.length(), StandardCharsets.UTF_8), s);
+        }
+    }
+
+    @Test
+    void readerMatchesSplitCsvLine() {
+        StringBuilder line = new StringBuilder();
+        for (String s : AWKWARD) {
+            if (s.indexOf('\n') >= 0 || s.indexOf('\r') >= 0) continue; // splitCsvLine works on one line
+            if (line.length() > 0) line.append(',');
+            line.append(ResultsCsv.escapeCsv(s));
+        }
+        String[] expected = ResultsCsv.splitCsvLine(line.toString());
+        CsvCodec.Reader rd = new CsvCodec.Reader(8);
+        assertTrue(rd.next(ByteBuffer.wrap(line.toString().getBytes(StandardCharsets.UTF_8))));
+        assertEquals(expected.length, rd.fieldCount());
+        for (int i = 0; i < expected.length; i++) assertEquals(expected[i], rd.string(i));
+    }
+
+    @Test
+    void crlfAndMissingTerminator() {
+        CsvCodec.Reader rd = new CsvCodec.Reader(8);
+        ByteBuffer b = ByteBuffer.wrap("a,b\r\n\"x\r\n\",c".getBytes(StandardCharsets.UTF_8));
+        assertTrue(rd.next(b));
+        assertEquals("b", rd.string(1));
+        assertTrue(rd.next(b));
+        assertEquals("x\r\n", rd.string(0)); // a quoted line break is data
+        assertEquals("c", rd.string(1));
+        assertFalse(rd.next(b));
+    }
+
+    @Test
+    void parseIntEdgeCases() {
+        String[] in = {"0", "-7", "2147483647", "-2147483648", "2147483648", "-2147483649", "", "-", "12a", "\"5\"", "+3"};
+        int[] out = {0, -7, Integer.MAX_VALUE, Integer.MIN_VALUE, -1, -1, -1, -1, -1, -1, -1};
+        CsvCodec.Reader rd = new CsvCodec.Reader(1);
+        rd.next(ByteBuffer.wrap(String.join(",", in).getBytes(StandardCharsets.UTF_8)));
+        for (int i = 0; i < in.length; i++) assertEquals(out[i], rd.parseInt(i), in[i]);
+    }
+
+    @Test
+    void digitsAndTimestamp() {
+        CsvCodec.Writer w = new CsvCodec.Writer(1);
+        w.field(Long.MIN_VALUE).field(Long.MAX_VALUE).field(0).timestamp(LocalDateTime.of(2024, 3, 5, 7, 8, 9));
+        assertEquals(Long.MIN_VALUE + "," + Long.MAX_VALUE + ",0,2024-03-05 07:08:09",
+                new String(w.array(), 0, w.length(), StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    void forEachRecordSkipsHeaderAndReportsOffsets() throws IOException {
+        Path f = dir.resolve("r.csv");
+        String header = ResultsCsv.HEADER;
+        String r1 = "x,\"multi\nline\",1\n", r2 = "y,\"q\"\"uote\",2\n", r3 = "z,last,3"; // no final newline
+        Files.write(f, (header + r1 + r2 + r3).getBytes(StandardCharsets.UTF_8));
+
+        List<String> names = new ArrayList<>();
+        List<Long> offsets = new ArrayList<>();
+        CsvCodec.forEachRecord(f, (rd, off) -> {
+            names.add(rd.string(1));
+            offsets.add(off);
+        });
+        assertEquals(Arrays.asList("multi\nline", "q\"uote", "last"), names);
+        long h = header.length();
+        assertEquals(Arrays.asList(h, h + r1.length(), h + r1.length() + r2.length()), offsets);
+    }
+
+    @Test
+    void forEachRecordOnHeaderOnlyAndEmptyFiles() throws IOException {
+        Path f = dir.resolve("h.csv");
+        int[] n = {0};
+        Files.write(f, ResultsCsv.HEADER.getBytes(StandardCharsets.UTF_8));
+        CsvCodec.forEachRecord(f, (rd, off) -> n[0]++);
+        Files.write(f, new byte[0]);
+        CsvCodec.forEachRecord(f, (rd, off) -> n[0]++);
+        assertEquals(0, n[0]);
+    }
+}
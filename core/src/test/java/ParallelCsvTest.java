@@ -0,0 +1,90 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** ParallelCsv.chunks: cuts land on record starts even inside quoted newlines, and cover the range. */
+class ParallelCsvTest {
+
+    @TempDir
+    Path dir;
+
+    // Records with quoted newlines, commas and doubled quotes; returns their start offsets
+    private List<Long> write(Path f, int rows, long seed) throws IOException {
+        Random rnd = new Random(seed);
+        StringBuilder sb = new StringBuilder(ResultsCsv.HEADER);
+        List<Long> starts = new ArrayList<>();
+        for (int i = 0; i < rows; i++) {
+            starts.add((long) sb.length());
+            String name = rnd.nextInt(3) == 0 ? "n" + i + "\n\"x\",\n" : "n" + i;
+            sb.append("2024-01-01 00:00:00,").append(ResultsCsv.escapeCsv(name)).append(",e").append(i)
+                    .append(",50,1,2,q1:0|q2:-\n");
+        }
+        Files.write(f, sb.toString().getBytes(StandardCharsets.US_ASCII));
+        return starts;
+    }
+
+    @Test
+    void chunksAreRecordAlignedAndContiguous() throws IOException {
+        Path f = dir.resolve("r.csv");
+        List<Long> starts = write(f, 500, 1);
+        Set<Long> boundaries = new HashSet<>(starts);
+        long size = Files.size(f);
+        boundaries.add(size);
+        for (long chunk : new long[]{1, 7, 13, 64, 1000, size}) {
+            List<long[]> chunks = ParallelCsv.chunks(f, 0, size, chunk);
+            assertFalse(chunks.isEmpty());
+            assertEquals(starts.get(0), chunks.get(0)[0], "first chunk starts after the header");
+            assertEquals(size, chunks.get(chunks.size() - 1)[1]);
+            for (int i = 0; i < chunks.size(); i++) {
+                long[] c = chunks.get(i);
+                assertTrue(c[0] < c[1], "chunk " + i + " of " + chunk + " is empty");
+                assertTrue(boundaries.contains(c[0]) && boundaries.contains(c[1]), "chunk " + i + " of " + chunk);
+                if (i > 0) assertEquals(chunks.get(i - 1)[1], c[0], "gap or overlap at chunk " + i);
+            }
+        }
+    }
+
+    @Test
+    void chunksFromARecordStartAndToALimit() throws IOException {
+        Path f = dir.resolve("r.csv");
+        List<Long> starts = write(f, 200, 2);
+        long from = starts.get(50), to = starts.get(150);
+        List<long[]> chunks = ParallelCsv.chunks(f, from, to, 97);
+        assertEquals(from, chunks.get(0)[0]);
+        assertEquals(to, chunks.get(chunks.size() - 1)[1]);
+        long rows = ParallelCsv.reduce(f, from, to, () -> new long[1], (acc, rd, off) -> acc[0]++,
+                (a, b) -> new long[]{a[0] + b[0]})[0];
+        assertEquals(100, rows);
+    }
+
+    @Test
+    void reduceSeesEveryRecordOnce() throws IOException {
+        Path f = dir.resolve("r.csv");
+        List<Long> starts = write(f, 300, 3);
+        List<Long> seen = ParallelCsv.reduce(f, 0, Files.size(f), ArrayList::new, (acc, rd, off) -> acc.add(off),
+                (a, b) -> {
+                    a.addAll(b);
+                    return a;
+                });
+        assertEquals(starts, seen);
+    }
+
+    @Test
+    void headerOnlyAndEmptyFilesHaveNoChunks() throws IOException {
+        Path f = dir.resolve("h.csv");
+        Files.write(f, ResultsCsv.HEADER.getBytes(StandardCharsets.US_ASCII));
+        assertTrue(ParallelCsv.chunks(f, 0, Files.size(f), 8).isEmpty());
+        Files.write(f, new byte[0]);
+        assertTrue(ParallelCsv.chunks(f, 0, 0, 8).isEmpty());
+    }
+}
@@ -0,0 +1,101 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** Regrader.regradeFile (and the regradeRange core under it) on well-formed and malformed rows. */
+class RegraderTest {
+
+    private static final int[] KEY = {1, 0, 2};
+
+    @TempDir
+    Path dir;
+
+    private Path results(String... rows) throws IOException {
+        Path f = dir.resolve("results.csv");
+        Files.write(f, (ResultsCsv.HEADER + String.join("", rows)).getBytes(StandardCharsets.UTF_8));
+        return f;
+    }
+
+    private static Regrader.Summary regrade(Path in, long to, Path out) throws IOException {
+        return new Regrader(KEY).regradeFile(in, to, out, new AtomicLong(), Files.size(in), (d, t) -> true);
+    }
+
+    @Test
+    void rewritesScoresAndCopiesEverythingElse() throws IOException {
+        String[] in = {
+                "2024-01-01 10:00:00,Ann,ann@x,0,0,3,q1:1|q2:0|q3:2\n",                 // all right now: 0 -> 100
+                "2024-01-01 10:00:01,Bob,bob@x,33,1,3,q1:1|q2:-|q3:0\n",                // unchanged
+                "2024-01-01 10:00:02,\"Cy, \"\"the\"\"\nThird\",cy@x,100,3,3,q1:0|q2:1|q3:1\n", // quoted name: 100 -> 0
+                "2024-01-01 10:00:03,Dee,dee@x,50\n",                                   // malformed
+                "2024-01-01 10:00:04,Eve,eve@x,50,2,4,q1:1|q2:0|q3:2|q4:0\n",           // other paper length
+                "2024-01-01 10:00:05,Fay,fay@x,150,3,3,q1:1|q2:0|q3:2\n",               // score out of range
+                "2024-01-01 10:00:06,Gus,gus@x,67,2,3,q1:1|q2:0|q3:0\r\n",              // CRLF, unchanged
+        };
+        String[] want = {
+                "2024-01-01 10:00:00,Ann,ann@x,100,3,3,q1:1|q2:0|q3:2\n",
+                in[1],
+                "2024-01-01 10:00:02,\"Cy, \"\"the\"\"\nThird\",cy@x,0,0,3,q1:0|q2:1|q3:1\n",
+                in[3], in[4], in[5], in[6],
+        };
+        Path f = results(in), out = dir.resolve("out.csv");
+        Regrader.Summary s = regrade(f, 0, out);
+
+        assertEquals(ResultsCsv.HEADER + String.join("", want), Files.readString(out));
+        assertEquals(7, s.rows);
+        assertEquals(3, s.skipped);
+        assertEquals(2, s.changed);
+        assertEquals(1, s.raised);
+        assertEquals(1, s.lowered);
+        assertEquals(0 + 33 + 100 + 67, s.scoreBefore);
+        assertEquals(100 + 33 + 0 + 67, s.scoreAfter);
+        assertEquals(1, s.deltas[100 + 100]);
+        assertEquals(1, s.deltas[-100 + 100]);
+        assertEquals(2, s.deltas[100]);
+    }
+
+    @Test
+    void stopsAtTheGivenOffset() throws IOException {
+        String r1 = "2024-01-01 10:00:00,Ann,ann@x,0,0,3,q1:1|q2:0|q3:2\n";
+        String r2 = "2024-01-01 10:00:01,Bob,bob@x,0,0,3,q1:1|q2:0|q3:2\n";
+        Path f = results(r1, r2), out = dir.resolve("out.csv");
+        Regrader.Summary s = regrade(f, ResultsCsv.HEADER.length() + r1.length(), out);
+        assertEquals(1, s.rows);
+        assertEquals(ResultsCsv.HEADER + r1.replace(",0,0,3,", ",100,3,3,"), Files.readString(out));
+    }
+
+    @Test
+    void lastRecordWithoutNewlineAndHeaderOnlyFile() throws IOException {
+        Path f = results("2024-01-01 10:00:00,Ann,ann@x,0,0,3,q1:1|q2:0|q3:2"), out = dir.resolve("out.csv");
+        assertEquals(1, regrade(f, 0, out).changed);
+        assertEquals(ResultsCsv.HEADER + "2024-01-01 10:00:00,Ann,ann@x,100,3,3,q1:1|q2:0|q3:2", Files.readString(out));
+
+        f = results();
+        Regrader.Summary s = regrade(f, 0, out);
+        assertEquals(0, s.rows);
+        assertEquals(ResultsCsv.HEADER, Files.readString(out));
+    }
+
+    @Test
+    void cancellingLeavesNoPartFiles() throws IOException {
+        Path f = results("2024-01-01 10:00:00,Ann,ann@x,0,0,3,q1:1|q2:0|q3:2\n"), out = dir.resolve("out.csv");
+        assertThrows(CancellationException.class, () -> new Regrader(KEY).regradeFile(f, 0, out, new AtomicLong(),
+                Files.size(f), (d, t) -> false));
+        try (var files = Files.list(dir)) {
+            assertTrue(files.noneMatch(p -> p.getFileName().toString().contains(".part")));
+        }
+    }
+
+    @Test
+    void parseKey() {
+        assertArrayEquals(new int[]{1, 0, 2}, Regrader.parseKey(" 1, 0 ,2 "));
+        assertThrows(IllegalArgumentException.class, () -> Regrader.parseKey("1,-1"));
+        assertThrows(NumberFormatException.class, () -> Regrader.parseKey("1,x"));
+    }
+}
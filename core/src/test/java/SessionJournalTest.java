@@ -0,0 +1,133 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** SessionJournal: events replay to the session state, finished sessions drop out, torn tails are cut. */
+class SessionJournalTest {
+
+    @TempDir
+    Path dir;
+
+    private static QuizSession session(String name) {
+        List<Question> paper = Arrays.asList(
+                new Question("2 + 2?", new String[]{"3", "4", "5"}, 1),
+                new Question("Quoted \"text\", with comma\nand newline", new String[]{"a", "b"}, 0),
+                new Question("Ünïcode ✓", new String[]{"x", "y", "z", "w"}, 3));
+        return new QuizSession(UUID.randomUUID().toString(), new User(name, name + "@example.com"), paper, 30, null);
+    }
+
+    private SessionJournal open(Path path) throws IOException {
+        return SessionJournal.open(path, 60_000, Long.MAX_VALUE, SessionJournal.replay(path));
+    }
+
+    @Test
+    void replayRestoresOpenSessions() throws IOException {
+        Path path = dir.resolve("sessions.journal");
+        QuizSession a = session("ann"), b = session("bob"), c = session("cy");
+        try (SessionJournal j = open(path)) {
+            j.started(a, SessionJournal.PAPER_INLINE, null);
+            j.started(b, SessionJournal.PAPER_INLINE, null);
+            j.started(c, SessionJournal.PAPER_INLINE, null);
+            j.answered(a, 0, 1);
+            j.answered(a, 2, 3);
+            j.advanced(a, 2, TimeUnit.SECONDS.toNanos(12));
+            j.paused(a, TimeUnit.SECONDS.toNanos(12));
+            j.answered(b, 0, 2);
+            j.answered(b, 0, 0); // changed answer: the last one counts
+            j.finished(c);
+        }
+
+        List<SessionJournal.Recovered> open = SessionJournal.replay(path);
+        assertEquals(2, open.size(), "finished session dropped");
+        SessionJournal.Recovered ra = open.get(0), rb = open.get(1);
+        assertEquals(a.id, ra.id);
+        assertEquals(b.id, rb.id);
+        assertEquals("ann", ra.user.name);
+        assertEquals("ann@example.com", ra.user.email);
+        assertEquals(30, ra.secondsPerQuestion);
+        assertEquals(SessionJournal.PAPER_INLINE, ra.paperKind);
+        assertEquals(3, ra.paperSize);
+        assertEquals(a.questions.get(1).text, ra.inline.get(1).text);
+        assertArrayEquals(a.questions.get(2).choices, ra.inline.get(2).choices);
+        assertEquals(3, ra.inline.get(2).correctIndex);
+        assertArrayEquals(new byte[]{2, 0, 4}, ra.answers);
+        assertEquals(2, ra.currentIndex);
+        assertTrue(ra.paused);
+        assertEquals(TimeUnit.SECONDS.toNanos(12), ra.remainingNanos, "a paused clock does not run");
+        assertArrayEquals(new byte[]{1, 0, 0}, rb.answers);
+        assertFalse(rb.paused);
+    }
+
+    @Test
+    void compactionKeepsTheState() throws IOException {
+        Path path = dir.resolve("sessions.journal");
+        QuizSession a = session("ann");
+        try (SessionJournal j = open(path)) {
+            j.started(a, SessionJournal.PAPER_INLINE, null);
+            j.answered(a, 1, 0);
+            j.advanced(a, 1, TimeUnit.SECONDS.toNanos(20));
+            j.paused(a, TimeUnit.SECONDS.toNanos(20));
+        }
+        List<SessionJournal.Recovered> before = SessionJournal.replay(path);
+        open(path).close(); // rewrites the journal as one START and STATE per open session
+        List<SessionJournal.Recovered> after = SessionJournal.replay(path);
+
+        assertEquals(1, after.size());
+        SessionJournal.Recovered x = before.get(0), y = after.get(0);
+        assertEquals(x.id, y.id);
+        assertArrayEquals(x.answers, y.answers);
+        assertEquals(x.currentIndex, y.currentIndex);
+        assertEquals(x.paused, y.paused);
+        assertEquals(x.remainingNanos, y.remainingNanos);
+        assertEquals(x.inline.get(1).text, y.inline.get(1).text);
+    }
+
+    @Test
+    void tornOrCorruptTailIsDropped() throws IOException {
+        Path path = dir.resolve("sessions.journal");
+        QuizSession a = session("ann");
+        long beforeLast;
+        try (SessionJournal j = open(path)) {
+            j.started(a, SessionJournal.PAPER_INLINE, null);
+            j.answered(a, 0, 1);
+            beforeLast = Files.size(path);
+            j.answered(a, 1, 1);
+        }
+        long full = Files.size(path);
+
+        // Cut anywhere inside the last record: it is ignored, everything before it stays
+        for (long cut = beforeLast + 1; cut < full; cut++) {
+            List<SessionJournal.Recovered> open = SessionJournal.replay(path, cut);
+            assertEquals(1, open.size());
+            assertArrayEquals(new byte[]{2, 0, 0}, open.get(0).answers, "cut at " + cut);
+        }
+
+        // A flipped byte fails the checksum the same way
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer b = ByteBuffer.allocate(1);
+            ch.read(b, full - 6);
+            b.put(0, (byte) ~b.get(0)).rewind();
+            ch.write(b, full - 6);
+        }
+        assertArrayEquals(new byte[]{2, 0, 0}, SessionJournal.replay(path).get(0).answers);
+    }
+
+    @Test
+    void missingOrEmptyJournalReplaysToNothing() throws IOException {
+        Path path = dir.resolve("none.journal");
+        assertTrue(SessionJournal.replay(path).isEmpty());
+        Files.write(path, new byte[3]);
+        assertTrue(SessionJournal.replay(path).isEmpty());
+    }
+}